@@ -0,0 +1,48 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Measures the heap allocated by 'create' and 'diff' over a generated directory tree of flat directories,
+# using the epsilon garbage collector which never reclaims memory, so the used heap at exit is the
+# total allocation of the run.
+# Variables: DIRECTORIES (default: 20), FILES per directory (default: 5000), SOURCE an existing directory
+# to use instead of the generated tree.
+
+export CURRENT_VERSION="$(sed -rn "s/^project\.version '([^']*)'$/\1/p" build.gradle)"
+JAR="$(pwd)/build/libs/shadow-copy-${CURRENT_VERSION}.jar"
+DIRECTORIES="${DIRECTORIES:-20}"
+FILES="${FILES:-5000}"
+TMP="$(mktemp -d)"
+trap 'rm -rf "${TMP}"' EXIT
+
+if [[ ! -f "${JAR}" ]]; then
+  echo "Missing ${JAR}, run: ./gradlew build" >&2
+  exit 1
+fi
+
+if [[ -z "${SOURCE:-}" ]]; then
+  SOURCE="${TMP}/source"
+  for d in $(seq 1 "${DIRECTORIES}"); do
+    mkdir -p "${SOURCE}/dir-${d}"
+    (cd "${SOURCE}/dir-${d}" && seq 1 "${FILES}" | sed 's/^/file-/' | xargs touch)
+  done
+fi
+ENTRIES="$(find "${SOURCE}" -mindepth 1 -path "${SOURCE}/.shadow-copy" -prune -o -print | wc -l)"
+
+# prints the bytes allocated by the command, from the last "Heap: ... committed, <size> (<percent>) used" log line
+allocated_bytes() {
+  java -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xmx8g -Xlog:gc:stdout -jar "${JAR}" "$@" |
+    sed -rn 's/.*Heap: .* committed, ([0-9]+)([KMG]) .* used$/\1 \2/p' | tail -n 1 |
+    awk '{ print $1 * ($2 == "K" ? 1024 : $2 == "M" ? 1048576 : 1073741824) }'
+}
+
+benchmark() {
+  local name="$1"
+  shift
+  local bytes
+  bytes="$(allocated_bytes "$@")"
+  printf "%-8s %8s MB %8s bytes/entry\n" "${name}" "$(( bytes / 1048576 ))" "$(( bytes / ENTRIES ))"
+}
+
+echo "${ENTRIES} entries"
+benchmark "create" create "${SOURCE}" --shadow-directory "${TMP}/shadow" --pack-threshold 4096
+benchmark "diff" diff "${SOURCE}" --shadow-directory "${TMP}/shadow"
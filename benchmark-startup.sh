@@ -0,0 +1,69 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Measures the median time to the first output line of 'history' and 'diff' over a generated directory tree, for:
+# - the plain jar (gradle build)
+# - the jar with its class data sharing archive (build-cds.sh)
+# - the native image (build-native.sh)
+# Variables: RUNS (default: 10), SOURCE an existing directory to use instead of the generated tree.
+
+export CURRENT_VERSION="$(sed -rn "s/^project\.version '([^']*)'$/\1/p" build.gradle)"
+JAR="$(pwd)/build/libs/shadow-copy-${CURRENT_VERSION}.jar"
+LAUNCHER="$(pwd)/build/libs/shadow-copy"
+NATIVE="$(pwd)/build/shadow-copy"
+RUNS="${RUNS:-10}"
+TMP="$(mktemp -d)"
+trap 'rm -rf "${TMP}"' EXIT
+
+if [[ ! -f "${JAR}" ]]; then
+  echo "Missing ${JAR}, run: ./gradlew build" >&2
+  exit 1
+fi
+
+if [[ -z "${SOURCE:-}" ]]; then
+  SOURCE="${TMP}/source"
+  for d in $(seq 1 20); do
+    mkdir -p "${SOURCE}/dir-${d}"
+    for f in $(seq 1 50); do
+      echo "file ${d} ${f}" > "${SOURCE}/dir-${d}/file-${f}.txt"
+    done
+  done
+  java -jar "${JAR}" create "${SOURCE}" > /dev/null
+  sleep 0.1
+  echo "modified" > "${SOURCE}/dir-1/file-1.txt"
+fi
+
+# prints the milliseconds between the command start and its first output line
+first_output_millis() {
+  local start end
+  start="$(date +%s%N)"
+  end="$("$@" 2>&1 | { IFS= read -r _ || true; date +%s%N; cat > /dev/null; })"
+  echo $(( (end - start) / 1000000 ))
+}
+
+median_millis() {
+  for _ in $(seq 1 "${RUNS}"); do
+    first_output_millis "$@"
+  done | sort -n | sed -n "$(( (RUNS + 1) / 2 ))p"
+}
+
+benchmark() {
+  local name="$1"
+  shift
+  printf "%-16s %8s ms %8s ms\n" "${name}" \
+    "$(median_millis "$@" history "${SOURCE}")" \
+    "$(median_millis "$@" diff "${SOURCE}")"
+}
+
+printf "%-16s %11s %11s\n" "" "history" "diff"
+benchmark "plain jar" java -jar "${JAR}"
+if [[ -x "${LAUNCHER}" ]]; then
+  benchmark "jar + cds" "${LAUNCHER}"
+else
+  echo "jar + cds        skipped, run: ./build-cds.sh"
+fi
+if [[ -x "${NATIVE}" ]]; then
+  benchmark "native image" "${NATIVE}"
+else
+  echo "native image     skipped, run: ./build-native.sh"
+fi
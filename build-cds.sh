@@ -0,0 +1,66 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+# Creates, next to the jar built by gradle:
+# - shadow-copy-<version>.jsa, a class data sharing archive of the classes loaded by a training run
+#   (create, diff, history, log, usage) over a generated directory tree
+# - shadow-copy, a launcher starting the jar with this archive
+# The archive is only valid for the java runtime that created it, otherwise the launcher starts without it.
+
+export CURRENT_VERSION="${1:-$(sed -rn "s/^project\.version '([^']*)'$/\1/p" build.gradle)}"
+LIBS="$(cd build/libs && pwd)"
+JAR="${LIBS}/shadow-copy-${CURRENT_VERSION}.jar"
+ARCHIVE="${LIBS}/shadow-copy-${CURRENT_VERSION}.jsa"
+TRAINING="$(mktemp -d)"
+trap 'rm -rf "${TRAINING}"' EXIT
+
+RUN=0
+train() {
+  RUN=$((RUN + 1))
+  java "-XX:DumpLoadedClassList=${TRAINING}/classes-${RUN}.lst" -jar "${JAR}" "$@" > /dev/null
+}
+
+SOURCE="${TRAINING}/source"
+mkdir -p "${SOURCE}/dir1/dir2" "${SOURCE}/.shadow-copy"
+for i in $(seq 1 50); do
+  echo "line ${i}" > "${SOURCE}/dir1/file-${i}.txt"
+done
+head -c 3000000 /dev/urandom > "${SOURCE}/dir1/dir2/large.bin"
+echo "log 1" > "${SOURCE}/dir1/dir2/app.log"
+ln -s dir1 "${SOURCE}/link"
+echo "filename:end-with:.tmp || ('filename:equals:build/' && 'has-sibling:build.gradle')" > "${SOURCE}/.shadow-copy/ignore"
+
+train create "${SOURCE}" --pack-threshold 64 --chunk-threshold 1048576 --detect-appends
+sleep 0.1
+echo "line 1 modified" > "${SOURCE}/dir1/file-1.txt"
+echo "log 2" >> "${SOURCE}/dir1/dir2/app.log"
+rm "${SOURCE}/dir1/file-2.txt"
+echo "new" > "${SOURCE}/dir1/new.txt"
+train create "${SOURCE}" --pack-threshold 64 --chunk-threshold 1048576 --detect-appends
+echo "line 3 modified" > "${SOURCE}/dir1/file-3.txt"
+train diff "${SOURCE}"
+train diff --content "${SOURCE}" 2 1
+train diff "${SOURCE}" 2..1
+train history --long "${SOURCE}"
+train log "${SOURCE}" dir1
+train usage "${SOURCE}"
+
+# keep the first occurrence of each line, the same classes are loaded by each run
+awk '!seen[$0]++' "${TRAINING}"/classes-*.lst > "${TRAINING}/classes.lst"
+rm -f "${ARCHIVE}"
+if ! java -Xshare:dump "-XX:SharedClassListFile=${TRAINING}/classes.lst" "-XX:SharedArchiveFile=${ARCHIVE}" \
+  -cp "${JAR}" > "${TRAINING}/dump.log" 2>&1; then
+  cat "${TRAINING}/dump.log"
+  exit 1
+fi
+
+cat > "${LIBS}/shadow-copy" <<EOF
+#!/usr/bin/env bash
+# Starts shadow-copy ${CURRENT_VERSION} with its class data sharing archive, see build-cds.sh
+DIR="\$(dirname "\$(readlink -f "\$0")")"
+exec java -Xshare:auto -Xlog:cds=off -Xlog:cds+dynamic=off \\
+  "-XX:SharedArchiveFile=\${DIR}/shadow-copy-${CURRENT_VERSION}.jsa" -jar "\${DIR}/shadow-copy-${CURRENT_VERSION}.jar" "\$@"
+EOF
+chmod +x "${LIBS}/shadow-copy"
+echo "Class data sharing archive: ${ARCHIVE}"
+echo "Launcher: ${LIBS}/shadow-copy"
@@ -10,7 +10,8 @@ do_release() {
     graalvm
     ./gradlew --no-daemon "-PreleaseVersion=${RELEASE_VERSION}" clean build
     native-image -H:IncludeResources="com/auzeill/shadow/copy/shadow-copy.version" -jar "build/libs/shadow-copy-${RELEASE_VERSION}.jar" build/shadow-copy
-    echo "Binary file: build/shadow-copy is ready to be downloaded on"
+    # no class data sharing archive, it only loads on the java runtime that created it, see README.md
+    echo "Binary files: build/shadow-copy and build/libs/shadow-copy-${RELEASE_VERSION}.jar are ready to be downloaded on"
     echo "https://github.com/alban-auzeill/shadow-copy/releases"
     echo "to create the release: v${RELEASE_VERSION}"
     echo
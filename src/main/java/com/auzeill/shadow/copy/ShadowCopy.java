@@ -1,9 +1,12 @@
 package com.auzeill.shadow.copy;
 
+import com.auzeill.shadow.copy.arguments.Action;
 import com.auzeill.shadow.copy.arguments.Arguments;
 import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.daemon.DaemonClient;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 
 public class ShadowCopy {
 
@@ -17,7 +20,12 @@ public class ShadowCopy {
 
   public static int exec(PrintStream out, PrintStream err, String... args) throws IOException, InterruptedException {
     try {
-      exec(out, args);
+      Arguments arguments = new Arguments(args);
+      String socket = arguments.options.get(Option.SOCKET);
+      if (socket != null && arguments.action != null && arguments.action != Action.DAEMON) {
+        return DaemonClient.forward(Paths.get(socket), out, err, args);
+      }
+      exec(out, arguments);
       return 0;
     } catch (ShadowCopyError ex) {
       err.println("[ERROR] " + ex.getMessage());
@@ -26,7 +34,10 @@ public class ShadowCopy {
   }
 
   public static void exec(PrintStream out, String... args) throws IOException, InterruptedException {
-    Arguments arguments = new Arguments(args);
+    exec(out, new Arguments(args));
+  }
+
+  public static void exec(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
     if (arguments.options.containsKey(Option.VERSION)) {
       out.println(Version.get());
     } else if (arguments.options.containsKey(Option.HELP)) {
@@ -0,0 +1,134 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.store.FileStates;
+import com.auzeill.shadow.copy.store.FileTree;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.annotation.Nullable;
+
+/**
+ * How "create" and "diff" decide that a regular file of the same size is unchanged. Except for MTIME,
+ * "create" records the state of each source regular file (see {@link FileStates}), a file without recorded
+ * state is decided by its modification time (CTIME) or by reading its content (HASH).
+ */
+public enum ChangeDetector {
+  /**
+   * Same modification time, misses a content written by a tool restoring the modification time.
+   */
+  MTIME,
+  /**
+   * Same modification time, status change time and inode as recorded by the last shadow copy, the status
+   * change time can not be restored by a tool.
+   */
+  CTIME,
+  /**
+   * Same content hash, only read for the files whose state changed since the last shadow copy, so a
+   * modification time bumped without content change is not a modification.
+   */
+  HASH;
+
+  @FunctionalInterface
+  interface HashSupplier {
+    byte[] get() throws IOException, InterruptedException;
+  }
+
+  public static ChangeDetector of(Arguments arguments) {
+    String value = arguments.options.get(Option.DETECT);
+    if (value == null) {
+      return MTIME;
+    }
+    for (ChangeDetector detector : values()) {
+      if (detector.name().toLowerCase(Locale.ROOT).equals(value)) {
+        return detector;
+      }
+    }
+    throw new ShadowCopyError("Invalid " + Option.DETECT.flag + " value: " + value);
+  }
+
+  boolean recordsStates() {
+    return this != MTIME;
+  }
+
+  /**
+   * For "create", when the last version of a source regular file has the same size and modification time.
+   * @param lastState state of the source file recorded by the last shadow copy, null if none
+   * @param sourceHash content hash of the source file, only for HASH
+   * @param lastHash content hash of the last version, only called for HASH when not recorded
+   * @return true if the last version has the content of the source file
+   */
+  boolean isUnchanged(FileAttributes srcAttributes, @Nullable FileStates.State lastState, @Nullable byte[] sourceHash,
+    HashSupplier lastHash) throws IOException, InterruptedException {
+    switch (this) {
+      case CTIME:
+        return lastState == null || lastState.isSameFile(srcAttributes);
+      case HASH:
+        byte[] recordedHash = lastState != null ? lastState.hash : null;
+        return Arrays.equals(sourceHash, recordedHash != null ? recordedHash : lastHash.get());
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * For "diff", compares two regular files of the same size, the old one from a shadow copy and the new one
+   * from a shadow copy or the source directory.
+   * @return true or false when decided without comparing the content, null to compare the content
+   */
+  @Nullable
+  Boolean isSameContent(String path, FileTree.Entry oldEntry, FileTree.Entry newEntry) throws IOException {
+    FileAttributes oldAttributes = oldEntry.attributes;
+    FileAttributes newAttributes = newEntry.attributes;
+    boolean isSameModifiedTime = newAttributes.lastModifiedTime.equals(oldAttributes.lastModifiedTime);
+    if (this == MTIME) {
+      return isSameModifiedTime ? Boolean.TRUE : null;
+    }
+    FileStates.State oldState = oldEntry.tree().states().get(path);
+    if (oldState != null && isSameState(path, oldState, newEntry)) {
+      return Boolean.TRUE;
+    } else if (this == CTIME) {
+      return oldState == null && isSameModifiedTime ? Boolean.TRUE : null;
+    }
+    // reads at most once each side, the hash of the source entry is shared with "create"
+    byte[] oldHash = knownHash(path, oldEntry);
+    byte[] newHash = knownHash(path, newEntry);
+    return Arrays.equals(oldHash != null ? oldHash : oldEntry.hash(), newHash != null ? newHash : newEntry.hash());
+  }
+
+  /**
+   * @return true if the new entry is the file of the given state, not written nor changed since
+   */
+  private static boolean isSameState(String path, FileStates.State oldState, FileTree.Entry newEntry) throws IOException {
+    if (newEntry.tree().isSource) {
+      return oldState.isSameFile(newEntry.attributes);
+    }
+    FileStates.State newState = newEntry.tree().states().get(path);
+    return newState != null && oldState.isSameState(newState);
+  }
+
+  /**
+   * @return the content hash of a regular file known without reading it: of a stored file, computed by "create",
+   * recorded with the state of its source file, or computed after the creation of its shadow copy
+   */
+  @Nullable
+  static byte[] knownHash(String path, FileTree.Entry entry) throws IOException {
+    byte[] hash = entry.knownHash();
+    FileTree tree = entry.tree();
+    if (hash == null && !tree.isSource) {
+      FileStates.State state = tree.states().get(path);
+      if (state != null && state.size == entry.attributes.size && state.lastModifiedTime.equals(entry.attributes.lastModifiedTime)) {
+        hash = state.hash;
+      }
+      FileStates.State hashState = hash == null ? tree.hashes().get(path) : null;
+      if (hashState != null && hashState.isSameInode(entry.attributes)) {
+        hash = hashState.hash;
+      }
+    }
+    return hash;
+  }
+
+}
@@ -1,48 +1,187 @@
 package com.auzeill.shadow.copy.action;
 
+import com.auzeill.shadow.copy.ShadowCopyError;
 import com.auzeill.shadow.copy.arguments.Action;
 import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.catalog.Catalog;
+import com.auzeill.shadow.copy.catalog.CatalogEntry;
+import com.auzeill.shadow.copy.change.Change;
+import com.auzeill.shadow.copy.change.ChangeIndex;
 import com.auzeill.shadow.copy.filter.FileFilter;
+import com.auzeill.shadow.copy.store.FileTree;
+import com.auzeill.shadow.copy.store.StoreOptions;
 import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.Throttle;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CreateAction implements Action.Execute {
 
+  private static final long DEFAULT_CHECKPOINT_INTERVAL = 60;
+
   @Override
   public void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
     execute(out, arguments, Clock.systemDefaultZone());
   }
 
   public void execute(PrintStream out, Arguments arguments, Clock clock) throws IOException, InterruptedException {
-    Path sourceDirectory = ActionUtils.resolveSourceDirectory(arguments, 0);
-    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, 0);
+    List<Path> sourceDirectories = ActionUtils.resolveSourceDirectories(arguments);
+    if (sourceDirectories.size() > 1 && arguments.options.containsKey(Option.SHADOW_DIRECTORY)) {
+      throw new ShadowCopyError("Option '" + Option.SHADOW_DIRECTORY.flag + "' can not be used with several source directories");
+    }
+    // shared by all source directories, like the copy jobs
+    Throttle throttle = new Throttle(
+      ActionUtils.getSize(arguments, Option.MAX_BYTES_PER_SECOND, 0),
+      ActionUtils.getSize(arguments, Option.MAX_FILES_PER_SECOND, 0));
+    try (JobPool jobPool = new JobPool(ActionUtils.getJobs(arguments))) {
+      if (sourceDirectories.size() == 1) {
+        List<Change> changes = new ArrayList<>();
+        Path shadowCopy = createShadowCopy(arguments, 0, clock, jobPool, throttle, changes);
+        printChanges(out, arguments, changes);
+        out.println(shadowCopy.toString());
+        hashShadowCopy(out, arguments, shadowCopy, throttle);
+      } else {
+        createShadowCopies(out, arguments, sourceDirectories.size(), clock, jobPool, throttle);
+      }
+    }
+  }
+
+  private static void createShadowCopies(PrintStream out, Arguments arguments, int sourceCount, Clock clock, JobPool jobPool,
+    Throttle throttle) throws IOException, InterruptedException {
+    ExecutorService walkers = Executors.newFixedThreadPool(sourceCount);
+    try {
+      List<Future<Path>> shadowCopies = new ArrayList<>();
+      List<List<Change>> changes = new ArrayList<>();
+      for (int i = 0; i < sourceCount; i++) {
+        int sourceDirectoryIndex = i;
+        List<Change> sourceChanges = new ArrayList<>();
+        changes.add(sourceChanges);
+        shadowCopies.add(walkers.submit(() -> createShadowCopy(arguments, sourceDirectoryIndex, clock, jobPool, throttle, sourceChanges)));
+      }
+      Throwable firstFailure = null;
+      List<Path> createdShadowCopies = new ArrayList<>();
+      for (int i = 0; i < sourceCount; i++) {
+        try {
+          Path shadowCopy = shadowCopies.get(i).get();
+          printChanges(out, arguments, changes.get(i));
+          out.println(shadowCopy.toString());
+          createdShadowCopies.add(shadowCopy);
+        } catch (ExecutionException ex) {
+          if (firstFailure == null) {
+            firstFailure = ex.getCause();
+          }
+        }
+      }
+      for (Path shadowCopy : createdShadowCopies) {
+        hashShadowCopy(out, arguments, shadowCopy, throttle);
+      }
+      JobPool.rethrow(firstFailure);
+    } finally {
+      walkers.shutdown();
+    }
+  }
+
+  /**
+   * With --hash, computes the content hashes of a published shadow copy, after its path is printed.
+   */
+  private static void hashShadowCopy(PrintStream out, Arguments arguments, Path shadowCopy, Throttle throttle)
+    throws IOException, InterruptedException {
+    if (arguments.options.containsKey(Option.HASH)) {
+      out.flush();
+      HashWalker.hash(shadowCopy.getParent(), shadowCopy, throttle, ActionUtils.getJobs(arguments));
+    }
+  }
+
+  private static void printChanges(PrintStream out, Arguments arguments, List<Change> changes) {
+    if (arguments.options.containsKey(Option.DIFF)) {
+      changes.forEach(change -> out.println(change.toString()));
+    }
+  }
+
+  /**
+   * @param changes filled with the changes since the last shadow copy
+   */
+  private static Path createShadowCopy(Arguments arguments, int sourceDirectoryIndex, Clock clock, JobPool jobPool,
+    Throttle throttle, List<Change> changes) throws IOException, InterruptedException {
+    Path sourceDirectory = ActionUtils.resolveSourceDirectory(arguments, sourceDirectoryIndex);
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, sourceDirectoryIndex);
     FileFilter filter = FileFilter.loadFromShadowDirectory(shadowDirectory);
-    Path lastShadowCopy = ActionUtils.findLastShadowCopy(shadowDirectory, arguments);
-    Path shadowCopy = createShadowCopyDirectory(shadowDirectory, clock);
-    new CreateWalker(sourceDirectory, shadowCopy, lastShadowCopy, filter).walk();
-    out.println(shadowCopy.toString());
+    StoreOptions storeOptions = new StoreOptions(
+      ActionUtils.getSize(arguments, Option.PACK_THRESHOLD, 0),
+      ActionUtils.getSize(arguments, Option.CHUNK_THRESHOLD, 0),
+      arguments.options.containsKey(Option.DETECT_APPENDS));
+    long checkpointInterval = ActionUtils.getSize(arguments, Option.CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_INTERVAL);
+    int sortThreshold = ActionUtils.getSortThreshold(arguments);
+    ChangeDetector detector = ChangeDetector.of(arguments);
+    String only = arguments.options.get(Option.ONLY);
+    Path onlyPath = only != null ? Paths.get(ActionUtils.relativePath(only)) : null;
+    if (ActionUtils.DOT_DIRECTORY.equals(onlyPath)) {
+      onlyPath = null;
+    }
+    try (Staging staging = Staging.open(shadowDirectory, clock, checkpointInterval)) {
+      Path lastShadowCopy = ActionUtils.findLastShadowCopy(shadowDirectory, arguments);
+      CreateWalker walker = new CreateWalker(sourceDirectory, staging.shadowCopy, lastShadowCopy, filter, onlyPath, jobPool,
+        storeOptions, throttle, staging, sortThreshold, detector, arguments.options.containsKey(Option.DIFF),
+        (change, lastEntry, sourceEntry) -> changes.add(change));
+      walker.walk();
+      // recorded before the publication, the entry is ignored until the shadow copy directory exists
+      Catalog.created(shadowDirectory, new CatalogEntry(staging.shadowCopy.getFileName().toString(), staging.durationMillis(),
+        walker.entryCount, walker.copiedBytes, walker.uniqueBytes(), walker.linkRotationCount()));
+      Path shadowCopy = staging.publish();
+      if (lastShadowCopy != null) {
+        if (walker.diffWalker == null) {
+          // resumed shadow copy, compare it with the last one
+          new DiffWalker(FileTree.shadowCopy(lastShadowCopy), FileTree.shadowCopy(shadowCopy), filter, changes::add, sortThreshold,
+            detector).walk(onlyPath != null ? List.of(onlyPath) : List.of(ActionUtils.DOT_DIRECTORY));
+        }
+        ChangeIndex.append(shadowDirectory, shadowCopy.getFileName().toString(), changes);
+      }
+      return shadowCopy;
+    }
   }
 
   static Path createShadowCopyDirectory(Path shadowDirectory, Clock clock) throws IOException {
-    if (!Files.isDirectory(shadowDirectory)) {
-      Files.createDirectory(shadowDirectory);
+    return createShadowCopyDirectory(shadowDirectory, shadowDirectory, clock);
+  }
+
+  /**
+   * Creates in the parent directory a shadow copy directory with a name not used by the shadow directory.
+   */
+  static Path createShadowCopyDirectory(Path parent, Path shadowDirectory, Clock clock) throws IOException {
+    if (!Files.isDirectory(parent)) {
+      Files.createDirectories(parent);
     }
     DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("yyyy.MM.dd-HH'h'mm");
     String date = dateFormat.format(LocalDateTime.now(clock));
     int index = 1;
-    Path shadowCopy = shadowDirectory.resolve(date + "-" + index);
-    while (Files.isDirectory(shadowCopy)) {
+    while (true) {
+      String name = date + "-" + index;
+      Path shadowCopy = parent.resolve(name);
+      if (!Files.isDirectory(shadowCopy) && !Files.exists(shadowDirectory.resolve(name))) {
+        try {
+          Files.createDirectory(shadowCopy);
+          return shadowCopy;
+        } catch (FileAlreadyExistsException ex) {
+          // created concurrently by another shadow copy of the same directory
+        }
+      }
       index++;
-      shadowCopy = shadowDirectory.resolve(date + "-" + index);
     }
-    Files.createDirectory(shadowCopy);
-    return shadowCopy;
   }
 
 }
@@ -1,152 +1,685 @@
 package com.auzeill.shadow.copy.action;
 
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.change.Change;
+import com.auzeill.shadow.copy.change.ChangeKind;
 import com.auzeill.shadow.copy.filter.FileFilter;
 import com.auzeill.shadow.copy.filter.FileInfo;
+import com.auzeill.shadow.copy.store.FileStates;
+import com.auzeill.shadow.copy.store.FileTree;
+import com.auzeill.shadow.copy.store.StoreIndex;
+import com.auzeill.shadow.copy.store.StoreOptions;
+import com.auzeill.shadow.copy.store.StoreWriter;
+import com.auzeill.shadow.copy.store.StoredFile;
 import com.auzeill.shadow.copy.utils.ActionUtils;
 import com.auzeill.shadow.copy.utils.Command;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HardLinks;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.SortedNames;
+import com.auzeill.shadow.copy.utils.Throttle;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.PosixFileAttributeView;
-import java.nio.file.attribute.PosixFileAttributes;
-import java.nio.file.attribute.PosixFilePermissions;
-import java.util.Comparator;
-import java.util.List;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class CreateWalker {
 
+  private static final String UNSUPPORTED_FILE_PREFIX = "Unsupported file type, lastModifiedTime: ";
+  private static final int UNSUPPORTED_FILE_TIME_MAX_LENGTH = 64;
+
   final Path sourceBaseDirectory;
   final Path shadowBaseDirectory;
   final FileFilter filter;
+  /**
+   * Only sub-tree walked in the source directory, the other entries are linked to the last shadow copy, null for all
+   */
+  @Nullable
+  final Path onlyPath;
   @Nullable
   final Path lastShadowBaseDirectory;
+  @Nullable
+  final FileTree lastTree;
+  final JobPool.Group copyJobs;
+  final StoreOptions storeOptions;
+  final StoreIndex lastStore;
+  final StoreWriter store;
+  final Throttle throttle;
+  final Staging staging;
+  final int sortThreshold;
+  final ChangeDetector detector;
+  /**
+   * Compares the content of a copied regular file with its last version to report its change, for "--diff",
+   * otherwise the change is decided by the copy: a copied file is modified, a linked or reused one is not.
+   */
+  final boolean compareContent;
+  /**
+   * States of the source files recorded by the last shadow copy, EMPTY when the detector does not use them
+   */
+  final FileStates lastStates;
+  /**
+   * Records the states of the source files into the new shadow copy, null when the detector does not use them
+   */
+  @Nullable
+  final FileStates.Writer states;
+  /**
+   * Reports the changes since the last shadow copy during the walk, null without last shadow copy or
+   * when resuming an interrupted shadow copy, whose changes already walked are lost.
+   */
+  @Nullable
+  final DiffWalker diffWalker;
+  /**
+   * Last entry completed by the interrupted run of this shadow copy, cleared when the walk reaches it.
+   */
+  @Nullable
+  private Path resumeAfter = null;
+  /**
+   * Attributes given by the file system to the last directory, symbolic link and unsupported file created
+   * by the walk. The entries created in the same directory get the same owner, group and permissions, so
+   * they are only read for the first one.
+   */
+  @Nullable
+  private CreatedAttributes createdDirectory = null;
+  @Nullable
+  private CreatedAttributes createdSymbolicLink = null;
+  @Nullable
+  private CreatedAttributes createdFile = null;
+  long entryCount = 0;
+  long copiedBytes = 0;
+  long copiedFileBytes = 0;
+  /**
+   * Number of unchanged files copied instead of linked to the last shadow copy, because of the link limit
+   */
+  private int linkRotationCount = 0;
 
-  Command backgroundCommand = null;
-
+  /**
+   * @param onlyPath only sub-tree of the source directory to walk, requires a last shadow copy, null to walk all
+   */
   public CreateWalker(Path sourceBaseDirectory, Path shadowBaseDirectory,
-    @Nullable Path lastShadowBaseDirectory, FileFilter filter) {
+    @Nullable Path lastShadowBaseDirectory, FileFilter filter, @Nullable Path onlyPath, JobPool jobPool, StoreOptions storeOptions,
+    Throttle throttle, Staging staging, int sortThreshold, ChangeDetector detector, boolean compareContent,
+    DiffWalker.Listener changeListener) throws IOException {
+    if (onlyPath != null && lastShadowBaseDirectory == null) {
+      throw new ShadowCopyError("Option '" + Option.ONLY.flag + "' requires a previous shadow copy");
+    }
     this.sourceBaseDirectory = sourceBaseDirectory;
     this.shadowBaseDirectory = shadowBaseDirectory;
     this.lastShadowBaseDirectory = lastShadowBaseDirectory;
     this.filter = filter;
+    this.onlyPath = onlyPath;
+    this.copyJobs = jobPool.newGroup();
+    this.storeOptions = storeOptions;
+    this.lastStore = lastShadowBaseDirectory != null ? StoreIndex.load(lastShadowBaseDirectory) : StoreIndex.EMPTY;
+    this.throttle = throttle;
+    this.staging = staging;
+    this.sortThreshold = sortThreshold;
+    this.detector = detector;
+    this.compareContent = compareContent;
+    this.lastTree = lastShadowBaseDirectory != null ? FileTree.shadowCopy(lastShadowBaseDirectory, lastStore) : null;
+    this.lastStates = lastTree != null && detector.recordsStates() ? lastTree.states() : FileStates.EMPTY;
+    Staging.Checkpoint resumed = staging.resumed;
+    if (resumed != null) {
+      this.store = StoreWriter.resume(shadowBaseDirectory, lastStore, throttle, resumed.storeCheckpointCount, resumed.packSize);
+      this.resumeAfter = resumed.completedPath;
+      this.entryCount = resumed.entryCount;
+      this.copiedBytes = resumed.copiedBytes;
+      this.copiedFileBytes = resumed.copiedFileBytes;
+    } else {
+      this.store = new StoreWriter(shadowBaseDirectory, lastStore, throttle);
+    }
+    if (detector.recordsStates()) {
+      this.states = FileStates.Writer.open(FileStates.path(shadowBaseDirectory), resumed != null);
+    } else {
+      // states of an interrupted shadow copy created with another detector, not complete
+      Files.deleteIfExists(FileStates.path(shadowBaseDirectory));
+      this.states = null;
+    }
+    if (lastTree != null && resumed == null) {
+      this.diffWalker = new DiffWalker(lastTree, FileTree.source(sourceBaseDirectory), filter, changeListener, sortThreshold, detector);
+    } else {
+      this.diffWalker = null;
+    }
   }
 
   public void walk() throws IOException, InterruptedException {
-    walk(ActionUtils.DOT_DIRECTORY);
-    if (backgroundCommand != null) {
-      backgroundCommand.waitFor();
-      backgroundCommand = null;
+    try {
+      if (onlyPath != null) {
+        walkOnly(ActionUtils.DOT_DIRECTORY, onlyPath);
+      } else {
+        walk(ActionUtils.DOT_DIRECTORY);
+      }
+    } finally {
+      try {
+        copyJobs.await();
+      } finally {
+        try {
+          store.close();
+        } finally {
+          if (states != null) {
+            states.close();
+          }
+        }
+      }
     }
   }
 
   private void walk(Path relativePath) throws IOException, InterruptedException {
     Path sourceDirectory = ActionUtils.resolve(sourceBaseDirectory, relativePath);
-    List<Path> childPaths;
-    try (Stream<Path> fileList = Files.list(sourceDirectory)) {
-      childPaths = fileList
-        .sorted(Comparator.comparing(Path::getFileName))
-        .collect(Collectors.toList());
-    }
-    for (Path childAbsolutePath : childPaths) {
-      Path childRelativePath = ActionUtils.resolve(relativePath, childAbsolutePath.getFileName());
-      FileInfo fileInfo = new FileInfo(childAbsolutePath, childRelativePath);
-      Path shadowAbsolutePath = shadowBaseDirectory.resolve(childRelativePath);
-      if (filter.filter(fileInfo)) {
-        PosixFileAttributes srcAttributes = Files.readAttributes(childAbsolutePath, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-        if (srcAttributes.isSymbolicLink()) {
-          copySymbolicLink(childAbsolutePath, shadowAbsolutePath, srcAttributes);
-        } else if (srcAttributes.isRegularFile()) {
-          copyRegularFile(childAbsolutePath, childRelativePath, srcAttributes, shadowAbsolutePath);
-        } else if (srcAttributes.isDirectory()) {
-          copyDirectory(childRelativePath, shadowAbsolutePath, srcAttributes);
-        } else {
-          copyUnsupportedFile(srcAttributes, shadowAbsolutePath);
+    throttle.acquireFiles(1);
+    long start = System.nanoTime();
+    try (SortedNames childNames = SortedNames.list(sourceDirectory, sortThreshold)) {
+      throttle.observeLatency(System.nanoTime() - start);
+      if (diffWalker == null) {
+        for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+          walkChild(relativePath, sourceDirectory, fileName);
+        }
+      } else {
+        walkChildren(relativePath, sourceDirectory, childNames, diffWalker);
+      }
+    }
+  }
+
+  /**
+   * Merge join of the sorted names of the source directory and of the last shadow copy, the names
+   * only in the last shadow copy are reported as deleted.
+   */
+  private void walkChildren(Path relativePath, Path sourceDirectory, SortedNames childNames, DiffWalker diffWalker)
+    throws IOException, InterruptedException {
+    try (SortedNames lastNames = diffWalker.oldTree.childNames(relativePath, sortThreshold)) {
+      Path lastName = lastNames.next();
+      for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+        while (lastName != null && lastName.compareTo(fileName) < 0) {
+          diffWalker.walkChild(ActionUtils.resolve(relativePath, lastName));
+          lastName = lastNames.next();
+        }
+        if (fileName.equals(lastName)) {
+          lastName = lastNames.next();
+        }
+        walkChild(relativePath, sourceDirectory, fileName);
+      }
+      for (; lastName != null; lastName = lastNames.next()) {
+        diffWalker.walkChild(ActionUtils.resolve(relativePath, lastName));
+      }
+    }
+  }
+
+  private void walkChild(Path relativePath, Path sourceDirectory, Path fileName) throws IOException, InterruptedException {
+    Path childRelativePath = ActionUtils.resolve(relativePath, fileName);
+    if (resumeAfter != null && isCompleted(childRelativePath, resumeAfter)) {
+      return;
+    }
+    Path childAbsolutePath = sourceDirectory.resolve(fileName);
+    Path shadowAbsolutePath = shadowBaseDirectory.resolve(childRelativePath);
+    throttle.acquireFiles(1);
+    long start = System.nanoTime();
+    FileAttributes srcAttributes = FileAttributes.read(childAbsolutePath);
+    throttle.observeLatency(System.nanoTime() - start);
+    // the filter, the change and the copy use the same attributes
+    FileInfo fileInfo = new FileInfo(childAbsolutePath, childRelativePath, srcAttributes);
+    boolean resumed = resumeAfter != null && resumeAfter.startsWith(childRelativePath) &&
+      resumeDirectory(childRelativePath, shadowAbsolutePath, srcAttributes, fileInfo);
+    if (!resumed && filter.filter(fileInfo)) {
+      entryCount++;
+      FileStates.State lastState = srcAttributes.isRegularFile() ? lastStates.get(childRelativePath.toString()) : null;
+      byte[] sourceHash = detector == ChangeDetector.HASH && srcAttributes.isRegularFile() ?
+        sourceHash(childAbsolutePath, srcAttributes, lastState) : null;
+      // read once for the change and the copy
+      FileTree.Entry lastEntry = diffWalker != null ? diffWalker.oldTree.entry(childRelativePath) : null;
+      if (diffWalker != null && !srcAttributes.isRegularFile()) {
+        // before the copy, a directory is reported before its children
+        diffChild(childRelativePath, srcAttributes, sourceHash, lastEntry, null, diffWalker);
+      }
+      if (srcAttributes.isSymbolicLink()) {
+        copySymbolicLink(childAbsolutePath, shadowAbsolutePath, srcAttributes);
+      } else if (srcAttributes.isRegularFile()) {
+        if (states != null) {
+          // a hash recorded for an unchanged file is kept for the next shadow copy
+          byte[] hash = sourceHash == null && lastState != null && lastState.isSameFile(srcAttributes) ? lastState.hash : sourceHash;
+          states.add(childRelativePath.toString(), srcAttributes, hash);
+        }
+        ChangeKind copyChange = copyRegularFile(childAbsolutePath, relativePath, childRelativePath, srcAttributes,
+          shadowAbsolutePath, lastState, sourceHash, lastEntry);
+        if (diffWalker != null) {
+          diffChild(childRelativePath, srcAttributes, sourceHash, lastEntry, copyChange, diffWalker);
+        }
+      } else if (srcAttributes.isDirectory()) {
+        copyDirectory(childRelativePath, shadowAbsolutePath, srcAttributes);
+      } else {
+        copyUnsupportedFile(srcAttributes, shadowAbsolutePath);
+      }
+    }
+    if (staging.isCheckpointDue()) {
+      checkpoint(childRelativePath);
+    }
+  }
+
+  /**
+   * Walks a directory containing the only sub-tree to walk: the only sub-tree is walked in the source directory,
+   * and the other entries are linked to the last shadow copy without reading the source directory.
+   */
+  private void walkOnly(Path relativePath, Path onlyPath) throws IOException, InterruptedException {
+    Path onlyName = onlyPath.getName(relativePath.equals(ActionUtils.DOT_DIRECTORY) ? 0 : relativePath.getNameCount());
+    Path sourceDirectory = ActionUtils.resolve(sourceBaseDirectory, relativePath);
+    try (SortedNames childNames = SortedNames.union(lastTree.childNames(relativePath, sortThreshold), SortedNames.of(Collections.singletonList(onlyName)))) {
+      for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+        Path childRelativePath = ActionUtils.resolve(relativePath, fileName);
+        if (childRelativePath.equals(onlyPath)) {
+          walkOnlyPath(relativePath, sourceDirectory, fileName);
+        } else if (fileName.equals(onlyName)) {
+          walkOnlyParent(childRelativePath, onlyPath);
+        } else if (!ActionUtils.metadataDirectory(shadowBaseDirectory).equals(shadowBaseDirectory.resolve(childRelativePath)) &&
+          (resumeAfter == null || !isCompleted(childRelativePath, resumeAfter))) {
+          linkLastShadowEntry(childRelativePath);
+          if (staging.isCheckpointDue()) {
+            checkpoint(childRelativePath);
+          }
         }
       }
     }
   }
 
-  private void copyUnsupportedFile(PosixFileAttributes srcAttributes, Path shadowAbsolutePath) throws IOException {
-    Files.writeString(shadowAbsolutePath, "Unsupported file type, lastModifiedTime: " + srcAttributes.lastModifiedTime(), UTF_8);
-    copyAttributes(srcAttributes, shadowAbsolutePath);
+  private void walkOnlyPath(Path relativePath, Path sourceDirectory, Path fileName) throws IOException, InterruptedException {
+    if (Files.exists(sourceDirectory.resolve(fileName), LinkOption.NOFOLLOW_LINKS)) {
+      walkChild(relativePath, sourceDirectory, fileName);
+    } else if (diffWalker != null) {
+      // deleted since the last shadow copy
+      diffWalker.walkChild(ActionUtils.resolve(relativePath, fileName));
+    }
+  }
+
+  /**
+   * Creates a parent directory of the only sub-tree, with the attributes of the source directory, or of the last
+   * shadow copy when it is not a directory of the source anymore.
+   */
+  private void walkOnlyParent(Path relativePath, Path onlyPath) throws IOException, InterruptedException {
+    FileAttributes attributes = FileAttributes.readIfExists(ActionUtils.resolve(sourceBaseDirectory, relativePath));
+    if (attributes == null || !attributes.isDirectory()) {
+      attributes = FileAttributes.readIfExists(lastShadowBaseDirectory.resolve(relativePath));
+    }
+    if (attributes == null || !attributes.isDirectory()) {
+      return;
+    }
+    Path shadowAbsolutePath = shadowBaseDirectory.resolve(relativePath);
+    if (!Files.isDirectory(shadowAbsolutePath, LinkOption.NOFOLLOW_LINKS)) {
+      // not already created by an interrupted run
+      Files.createDirectory(shadowAbsolutePath);
+      entryCount++;
+    }
+    walkOnly(relativePath, onlyPath);
+    copyAttributes(attributes, shadowAbsolutePath, FileAttributes.read(shadowAbsolutePath), true);
+  }
+
+  /**
+   * Links an entry of the last shadow copy, and its sub-tree, into the new shadow copy, without reading the source
+   * directory. The directories are created, the files are hard linked, and the stored files are reused.
+   */
+  private void linkLastShadowEntry(Path relativePath) throws IOException, InterruptedException {
+    Path lastShadowPath = lastShadowBaseDirectory.resolve(relativePath);
+    Path shadowAbsolutePath = shadowBaseDirectory.resolve(relativePath);
+    throttle.acquireFiles(1);
+    FileAttributes attributes = FileAttributes.readIfExists(lastShadowPath);
+    if (attributes == null) {
+      StoredFile lastStoredFile = lastStore.get(relativePath);
+      if (lastStoredFile != null) {
+        entryCount++;
+        keepLastState(relativePath);
+        store.reuse(lastStoredFile.directory, lastStoredFile.name, lastStoredFile.attributes(), lastStoredFile);
+      }
+      return;
+    }
+    entryCount++;
+    if (attributes.isDirectory()) {
+      Files.createDirectory(shadowAbsolutePath);
+      try (SortedNames childNames = lastTree.childNames(relativePath, sortThreshold)) {
+        for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+          linkLastShadowEntry(relativePath.resolve(fileName));
+        }
+      }
+      // after the children, which modify the directory
+      copyAttributes(attributes, shadowAbsolutePath, FileAttributes.read(shadowAbsolutePath), true);
+    } else if (attributes.isSymbolicLink()) {
+      Files.createSymbolicLink(shadowAbsolutePath, Files.readSymbolicLink(lastShadowPath));
+      createdSymbolicLink = copyCreatedAttributes(attributes, shadowAbsolutePath, createdSymbolicLink);
+    } else {
+      // regular files, and unsupported files written as regular files
+      keepLastState(relativePath);
+      linkOrCopyLast(shadowAbsolutePath, lastShadowPath, attributes);
+    }
+  }
+
+  /**
+   * Hard links a file of the last shadow copy tree, or copies it when it has reached the link limit.
+   * @param lastAttributes attributes of the file of the last shadow copy tree
+   */
+  private void linkOrCopyLast(Path shadowPath, Path lastPath, FileAttributes lastAttributes) throws IOException, InterruptedException {
+    if (!HardLinks.createLink(shadowPath, lastPath, lastAttributes.linkCount)) {
+      // link limit reached, the copy is a new inode for the next shadow copies
+      linkRotationCount++;
+      copiedFileBytes += lastAttributes.size;
+      throttle.acquireBytes(lastAttributes.size);
+      exec("/bin/cp", "--reflink=auto", "--preserve=all", "--no-target-directory", lastPath.toString(), shadowPath.toString());
+    }
+  }
+
+  /**
+   * Records for the next shadow copy the state of a source file not walked, as recorded by the last shadow copy
+   */
+  private void keepLastState(Path relativePath) throws IOException {
+    FileStates.State lastState = states != null ? lastStates.get(relativePath.toString()) : null;
+    if (lastState != null) {
+      states.add(relativePath.toString(), lastState);
+    }
+  }
+
+  /**
+   * Reports the change of an entry since the last shadow copy, and the deleted entries of a directory
+   * replaced by another type of file.
+   * @param lastEntry entry of the last shadow copy, null if none
+   * @param copyChange change of a regular file decided by its copy, see {@link #copyRegularFile}
+   */
+  private void diffChild(Path childRelativePath, FileAttributes srcAttributes, @Nullable byte[] sourceHash,
+    @Nullable FileTree.Entry lastEntry, @Nullable ChangeKind copyChange, DiffWalker diffWalker)
+    throws IOException, InterruptedException {
+    FileTree.Entry sourceEntry = diffWalker.newTree.entry(childRelativePath, srcAttributes, sourceHash);
+    String path = childRelativePath.toString();
+    Change change;
+    if (lastEntry != null && copyChange == ChangeKind.APPENDED) {
+      // the copy verified that the last version is a prefix of the source file
+      change = new Change(ChangeKind.APPENDED, path, false, srcAttributes.size - lastEntry.attributes.size);
+    } else if (lastEntry != null && srcAttributes.isRegularFile() && !compareContent) {
+      change = copiedFileChange(path, srcAttributes, lastEntry, copyChange);
+    } else {
+      change = DiffWalker.compare(path, lastEntry, sourceEntry, diffWalker.newTree, diffWalker.detector);
+    }
+    if (change != null) {
+      diffWalker.listener.onChange(change, lastEntry, sourceEntry);
+    }
+    if (DiffWalker.isDirectory(lastEntry) && !srcAttributes.isDirectory()) {
+      diffWalker.walk(childRelativePath);
+    }
+  }
+
+  /**
+   * @return the change of a regular file decided by its copy, without reading the content
+   */
+  @Nullable
+  private static Change copiedFileChange(String path, FileAttributes srcAttributes, FileTree.Entry lastEntry,
+    @Nullable ChangeKind copyChange) {
+    FileAttributes lastAttributes = lastEntry.attributes;
+    if (copyChange != null || !lastAttributes.isRegularFile()) {
+      return new Change(ChangeKind.MODIFIED, path, lastAttributes.isDirectory(), 0);
+    } else if (DiffWalker.isAttributesModified(srcAttributes, lastAttributes)) {
+      return new Change(ChangeKind.CHANGED, path, false, 0);
+    }
+    return null;
+  }
+
+  /**
+   * @return true if the given entry precedes, in walk order, the last entry completed by the interrupted run
+   */
+  private boolean isCompleted(Path relativePath, Path completedPath) {
+    int depth = relativePath.getNameCount() - 1;
+    if (relativePath.equals(completedPath)) {
+      resumeAfter = null;
+      return true;
+    }
+    if (completedPath.startsWith(relativePath)) {
+      return false;
+    }
+    if (depth < completedPath.getNameCount() && relativePath.getFileName().compareTo(completedPath.getName(depth)) < 0) {
+      return true;
+    }
+    // first entry after the completed one
+    resumeAfter = null;
+    return false;
+  }
+
+  /**
+   * Continues the walk of a directory partially copied by the interrupted run.
+   * @return false, when the source entry is not an unfiltered directory anymore and has to be copied again
+   */
+  private boolean resumeDirectory(Path childRelativePath, Path shadowAbsolutePath, FileAttributes srcAttributes,
+    FileInfo fileInfo) throws IOException, InterruptedException {
+    if (!srcAttributes.isDirectory() || !filter.filter(fileInfo)) {
+      PurgeAction.deleteRecursively(shadowAbsolutePath);
+      resumeAfter = null;
+      return false;
+    }
+    copyAttributes(srcAttributes, shadowAbsolutePath, FileAttributes.read(shadowAbsolutePath), false);
+    walk(childRelativePath);
+    return true;
   }
 
-  private void copyRegularFile(Path childAbsolutePath, Path childRelativePath, PosixFileAttributes srcAttributes, Path shadowAbsolutePath)
+  private void checkpoint(Path completedPath) throws IOException, InterruptedException {
+    // the copies of the completed entries
+    copyJobs.await();
+    int storeCheckpointCount = store.checkpoint();
+    if (states != null) {
+      states.flush();
+    }
+    staging.checkpoint(new Staging.Checkpoint(completedPath, staging.durationMillis(), entryCount, copiedBytes, copiedFileBytes,
+      storeCheckpointCount, store.packSize()));
+  }
+
+  private void copyUnsupportedFile(FileAttributes srcAttributes, Path shadowAbsolutePath) throws IOException {
+    Files.writeString(shadowAbsolutePath, UNSUPPORTED_FILE_PREFIX + srcAttributes.lastModifiedTime, UTF_8);
+    createdFile = copyCreatedAttributes(srcAttributes, shadowAbsolutePath, createdFile);
+  }
+
+  /**
+   * @return true if the entry is the text written in place of a file of unsupported type, like a socket or a FIFO
+   */
+  static boolean isUnsupportedFile(FileTree.Entry entry) throws IOException {
+    FileAttributes attributes = entry.attributes;
+    if (!attributes.isRegularFile() || attributes.size < UNSUPPORTED_FILE_PREFIX.length() ||
+      attributes.size > UNSUPPORTED_FILE_PREFIX.length() + UNSUPPORTED_FILE_TIME_MAX_LENGTH) {
+      return false;
+    }
+    try (InputStream input = entry.open()) {
+      return new String(input.readNBytes((int) attributes.size), UTF_8).startsWith(UNSUPPORTED_FILE_PREFIX);
+    }
+  }
+
+  /**
+   * @param lastState state of the source file recorded by the last shadow copy, null if none or not used by the detector
+   * @param sourceHash content hash of the source file, only for the HASH detector
+   * @param lastEntry entry of the last shadow copy already read by the diff, null if none or without diff
+   * @return null when the last version is reused, APPENDED when only the data appended to the last version has
+   * been stored, MODIFIED when the content is copied
+   */
+  @Nullable
+  private ChangeKind copyRegularFile(Path childAbsolutePath, Path relativePath, Path childRelativePath, FileAttributes srcAttributes,
+    Path shadowAbsolutePath, @Nullable FileStates.State lastState, @Nullable byte[] sourceHash, @Nullable FileTree.Entry lastEntry)
     throws IOException, InterruptedException {
-    Path identicalShadowFile = findLastShadowIdenticalRegularFile(srcAttributes, childRelativePath);
-    if (identicalShadowFile != null) {
+    String directory = relativePath.toString();
+    String name = childAbsolutePath.getFileName().toString();
+    StoredFile lastStoredFile = lastStore.get(directory, name);
+    if (lastStoredFile != null && isIdentical(srcAttributes, lastStoredFile.lastModifiedTime, lastStoredFile.size) &&
+      detector.isUnchanged(srcAttributes, lastState, sourceHash, () -> storedHash(lastStoredFile))) {
+      // Reference the same content in the store
+      store.reuse(directory, name, srcAttributes, lastStoredFile);
+      return null;
+    }
+    Path lastShadowPath = lastShadowBaseDirectory != null ? lastShadowBaseDirectory.resolve(childRelativePath) : null;
+    FileAttributes lastShadowAttributes = lastShadowAttributes(childRelativePath, lastEntry);
+    FileAttributes identicalShadowFile = findLastShadowIdenticalRegularFile(srcAttributes, lastShadowAttributes);
+    if (identicalShadowFile != null &&
+      detector.isUnchanged(srcAttributes, lastState, sourceHash, () -> fileHash(lastShadowPath, identicalShadowFile.size))) {
       // Create hardlink
       // Warning: do not "copyAttributes", permissions is in common with identicalShadowFile
-      Files.createLink(shadowAbsolutePath, identicalShadowFile);
+      linkOrCopyLast(shadowAbsolutePath, lastShadowPath, identicalShadowFile);
+      return null;
+    }
+    copiedBytes += srcAttributes.size;
+    throttle.acquireBytes(srcAttributes.size);
+    if (storeOptions.detectAppends &&
+      appendToLastShadowFile(directory, name, childAbsolutePath, srcAttributes, lastStoredFile, lastShadowPath, lastShadowAttributes)) {
+      // Only the appended data has been stored
+      return ChangeKind.APPENDED;
+    } else if (storeOptions.pack(srcAttributes.size)) {
+      // Append small files into the pack file instead of creating one inode per file
+      store.pack(directory, name, childAbsolutePath, srcAttributes);
+    } else if (storeOptions.chunk(srcAttributes.size)) {
+      // Only append chunks of large files not already stored by the last shadow copy
+      store.chunk(directory, name, childAbsolutePath, srcAttributes);
     } else {
       // # try to perform a lightweight copy where the data blocks are copied only when modified
       // cp --reflink=auto --preserve=all --no-target-directory "${CHILD_ABSOLUTE_PATH}" "${SHADOW_ABSOLUTE_PATH}"
+      copiedFileBytes += srcAttributes.size;
       exec("/bin/cp", "--reflink=auto", "--preserve=all", "--no-target-directory",
         childAbsolutePath.toString(), shadowAbsolutePath.toString());
     }
+    return ChangeKind.MODIFIED;
   }
 
-  void exec(String... command) throws InterruptedException, IOException {
-    if (backgroundCommand != null) {
-      backgroundCommand.waitFor();
-      backgroundCommand = null;
+  /**
+   * @param lastShadowAttributes attributes of the file of the last shadow copy tree, null if none
+   */
+  private boolean appendToLastShadowFile(String directory, String name, Path childAbsolutePath, FileAttributes srcAttributes,
+    @Nullable StoredFile lastStoredFile, @Nullable Path lastShadowPath, @Nullable FileAttributes lastShadowAttributes)
+    throws IOException, InterruptedException {
+    if (lastStoredFile != null) {
+      return store.appendTo(directory, name, childAbsolutePath, srcAttributes, lastStoredFile);
     }
-    backgroundCommand = Command.exec(command);
+    return lastShadowPath != null && lastShadowAttributes != null && lastShadowAttributes.isRegularFile() &&
+      store.appendTo(directory, name, childAbsolutePath, srcAttributes, lastShadowPath);
   }
 
-  private Path findLastShadowIdenticalRegularFile(PosixFileAttributes srcAttributes, Path relativePath) throws IOException {
-    if (lastShadowBaseDirectory == null) {
-      return null;
+  /**
+   * @return the size of the data written into the shadow copy, not shared with the last shadow copy
+   */
+  long uniqueBytes() {
+    return copiedFileBytes + store.packSize();
+  }
+
+  /**
+   * @return the number of files, of the shadow copy tree or of the store, copied instead of linked because of the link limit
+   */
+  int linkRotationCount() {
+    return linkRotationCount + store.linkRotationCount();
+  }
+
+  /**
+   * @return the content hash of the source file, the one recorded by the last shadow copy while the file is unchanged
+   */
+  private byte[] sourceHash(Path childAbsolutePath, FileAttributes srcAttributes, @Nullable FileStates.State lastState)
+    throws IOException, InterruptedException {
+    if (lastState != null && lastState.hash != null && lastState.isSameFile(srcAttributes)) {
+      return lastState.hash;
     }
-    Path lastShadowPath = lastShadowBaseDirectory.resolve(relativePath);
-    if (!Files.isRegularFile(lastShadowPath, LinkOption.NOFOLLOW_LINKS)) {
-      return null;
+    return fileHash(childAbsolutePath, srcAttributes.size);
+  }
+
+  private byte[] fileHash(Path path, long size) throws IOException, InterruptedException {
+    throttle.acquireBytes(size);
+    try (InputStream input = Files.newInputStream(path)) {
+      return HashUtils.hash(input);
+    }
+  }
+
+  private byte[] storedHash(StoredFile storedFile) throws IOException, InterruptedException {
+    if (storedFile.hash != null) {
+      return storedFile.hash;
     }
-    BasicFileAttributes lastAttributes = Files.readAttributes(lastShadowPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-    if (!srcAttributes.lastModifiedTime().equals(lastAttributes.lastModifiedTime()) || srcAttributes.size() != lastAttributes.size()) {
+    throttle.acquireBytes(storedFile.size);
+    try (InputStream input = lastStore.open(storedFile)) {
+      return HashUtils.hash(input);
+    }
+  }
+
+  void exec(String... command) throws InterruptedException, IOException {
+    copyJobs.submit(() -> Command.exec(command).waitFor());
+  }
+
+  /**
+   * @return the attributes of the same regular file in the last shadow copy, if not modified since
+   */
+  @Nullable
+  private static FileAttributes findLastShadowIdenticalRegularFile(FileAttributes srcAttributes,
+    @Nullable FileAttributes lastAttributes) {
+    if (lastAttributes == null || !lastAttributes.isRegularFile() ||
+      !isIdentical(srcAttributes, lastAttributes.lastModifiedTime, lastAttributes.size)) {
       return null;
     }
-    return lastShadowPath;
+    return lastAttributes;
+  }
+
+  /**
+   * @param lastEntry entry of the last shadow copy already read by the diff, null if none or without diff
+   * @return the attributes of the file of the last shadow copy tree, null if none or stored
+   */
+  @Nullable
+  private FileAttributes lastShadowAttributes(Path relativePath, @Nullable FileTree.Entry lastEntry) throws IOException {
+    if (diffWalker != null) {
+      return lastEntry != null && !lastEntry.isStored() ? lastEntry.attributes : null;
+    }
+    return lastShadowBaseDirectory != null ? FileAttributes.readIfExists(lastShadowBaseDirectory.resolve(relativePath)) : null;
+  }
+
+  private static boolean isIdentical(FileAttributes srcAttributes, FileTime lastModifiedTime, long size) {
+    return srcAttributes.lastModifiedTime.equals(lastModifiedTime) && srcAttributes.size == size;
   }
 
-  private void copyDirectory(Path relativePath, Path shadowAbsolutePath, PosixFileAttributes srcAttributes) throws IOException, InterruptedException {
+  private void copyDirectory(Path relativePath, Path shadowAbsolutePath, FileAttributes srcAttributes) throws IOException, InterruptedException {
     Files.createDirectory(shadowAbsolutePath);
-    copyAttributes(srcAttributes, shadowAbsolutePath);
+    createdDirectory = copyCreatedAttributes(srcAttributes, shadowAbsolutePath, createdDirectory);
     walk(relativePath);
   }
 
-  private void copySymbolicLink(Path childAbsolutePath, Path shadowAbsolutePath, PosixFileAttributes srcAttributes) throws IOException {
+  private void copySymbolicLink(Path childAbsolutePath, Path shadowAbsolutePath, FileAttributes srcAttributes) throws IOException {
     Path target = Files.readSymbolicLink(childAbsolutePath);
     Files.createSymbolicLink(shadowAbsolutePath, target);
-    copyAttributes(srcAttributes, shadowAbsolutePath);
+    createdSymbolicLink = copyCreatedAttributes(srcAttributes, shadowAbsolutePath, createdSymbolicLink);
   }
 
-  private static void copyAttributes(PosixFileAttributes srcAttributes, Path dstPath) throws IOException {
-    PosixFileAttributeView dstAttributeView = Files.getFileAttributeView(dstPath, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
-    PosixFileAttributes dstAttributes = dstAttributeView.readAttributes();
-    if (!Objects.equals(srcAttributes.group(), dstAttributes.group())) {
-      dstAttributeView.setGroup(srcAttributes.group());
-    }
-    if (!Objects.equals(srcAttributes.owner(), dstAttributeView.getOwner())) {
-      dstAttributeView.setOwner(srcAttributes.owner());
-    }
-    if (!PosixFilePermissions.toString(srcAttributes.permissions()).equals(PosixFilePermissions.toString(dstAttributes.permissions()))) {
-      dstAttributeView.setPermissions(srcAttributes.permissions());
+  /**
+   * Copies the attributes to a file just created by the walk, its attributes are only read when it is the first
+   * of its type created in its directory.
+   * @return the attributes given by the file system to the created file
+   */
+  private static CreatedAttributes copyCreatedAttributes(FileAttributes srcAttributes, Path createdPath,
+    @Nullable CreatedAttributes lastCreated) throws IOException {
+    Path directory = createdPath.getParent();
+    CreatedAttributes created = lastCreated;
+    if (created == null || !created.directory.equals(directory)) {
+      created = new CreatedAttributes(directory, FileAttributes.read(createdPath));
     }
+    copyAttributes(srcAttributes, createdPath, created.attributes, true);
+    return created;
+  }
 
+  /**
+   * @param setTimes true to set the times without comparing them, like for a file just created
+   */
+  static void copyAttributes(FileAttributes srcAttributes, Path dstPath, FileAttributes dstAttributes, boolean setTimes)
+    throws IOException {
+    srcAttributes.copyOwnerAndPermissionsTo(dstPath, dstAttributes);
     if (!srcAttributes.isSymbolicLink() &&
-      (!srcAttributes.lastModifiedTime().equals(dstAttributes.lastModifiedTime()) ||
-        !srcAttributes.lastAccessTime().equals(dstAttributes.lastAccessTime()) ||
-        !srcAttributes.creationTime().equals(dstAttributes.creationTime()))) {
-      dstAttributeView.setTimes(srcAttributes.lastModifiedTime(), srcAttributes.lastAccessTime(), srcAttributes.creationTime());
+      (setTimes || !srcAttributes.lastModifiedTime.equals(dstAttributes.lastModifiedTime) ||
+        !Objects.equals(srcAttributes.lastAccessTime, dstAttributes.lastAccessTime) ||
+        !Objects.equals(srcAttributes.creationTime, dstAttributes.creationTime))) {
+      Files.getFileAttributeView(dstPath, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+        .setTimes(srcAttributes.lastModifiedTime, srcAttributes.lastAccessTime, srcAttributes.creationTime);
+    }
+  }
+
+  private static final class CreatedAttributes {
+    private final Path directory;
+    private final FileAttributes attributes;
+
+    private CreatedAttributes(Path directory, FileAttributes attributes) {
+      this.directory = directory;
+      this.attributes = attributes;
     }
   }
 
@@ -0,0 +1,31 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.daemon.Daemon;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+
+public class DaemonAction implements Action.Execute {
+
+  @Override
+  public void execute(PrintStream out, Arguments arguments) throws IOException {
+    if (!arguments.actionArguments.isEmpty()) {
+      throw new ShadowCopyError("Unexpected argument: " + arguments.actionArguments.get(0));
+    }
+    String socket = arguments.options.get(Option.SOCKET);
+    if (socket == null) {
+      throw new ShadowCopyError("Missing option " + Option.SOCKET.flag + " <socket-path>");
+    }
+    Path socketPath = ActionUtils.resolvePath(arguments, socket);
+    try (Daemon daemon = new Daemon(socketPath)) {
+      out.println("Listening on: " + socketPath);
+      daemon.serve();
+    }
+  }
+
+}
@@ -3,21 +3,45 @@ package com.auzeill.shadow.copy.action;
 import com.auzeill.shadow.copy.ShadowCopyError;
 import com.auzeill.shadow.copy.arguments.Action;
 import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.change.Change;
+import com.auzeill.shadow.copy.change.ChangeKind;
+import com.auzeill.shadow.copy.change.UnifiedDiff;
 import com.auzeill.shadow.copy.filter.FileFilter;
+import com.auzeill.shadow.copy.store.FileTree;
 import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.OrderedOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DiffAction implements Action.Execute {
 
+  /**
+   * Maximum size of the files compared by --content, both versions are loaded in memory.
+   */
+  static final long CONTENT_MAX_SIZE = 1024L * 1024L;
+
+  private static final Pattern RANGE = Pattern.compile("([0-9]++)\\.\\.([0-9]++)");
+
   @Override
-  public void execute(PrintStream out, Arguments arguments) throws IOException {
+  public void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
     int sourceDirectoryIndex = -1;
     String firstCopy = null;
     String secondCopy = null;
-    List<String> args = arguments.actionArguments;
+    List<String> args = arguments.argumentsBeforeSeparator();
+    List<Path> subTrees = DiffWalker.subTrees(arguments.argumentsAfterSeparator());
+    Matcher range = args.isEmpty() ? null : RANGE.matcher(args.get(args.size() - 1));
+    if (range != null && range.matches() && args.size() <= 2) {
+      rangeDiff(out, arguments, args.size() == 2 ? 0 : -1, Integer.parseInt(range.group(1)), Integer.parseInt(range.group(2)),
+        subTrees);
+      return;
+    }
     if (args.size() > 3) {
       throw new ShadowCopyError("Expects at most 3 parameter.");
     } else if (args.size() == 3) {
@@ -42,17 +66,76 @@ public class DiffAction implements Action.Execute {
     } else {
       oldBaseDirectory = ActionUtils.findLastShadowCopy(shadowDirectory, Integer.parseInt(firstCopy));
     }
-    Path newBaseDirectory;
+    FileTree newTree;
     if (secondCopy == null) {
-      newBaseDirectory = ActionUtils.resolveSourceDirectory(arguments, sourceDirectoryIndex);
+      newTree = FileTree.source(ActionUtils.resolveSourceDirectory(arguments, sourceDirectoryIndex));
     } else {
-      newBaseDirectory = ActionUtils.findLastShadowCopy(shadowDirectory, Integer.parseInt(secondCopy));
+      Path newBaseDirectory = ActionUtils.findLastShadowCopy(shadowDirectory, Integer.parseInt(secondCopy));
+      newTree = newBaseDirectory != null ? FileTree.shadowCopy(newBaseDirectory) : null;
     }
     FileFilter filter = FileFilter.loadFromShadowDirectory(shadowDirectory);
-    if (oldBaseDirectory == null || newBaseDirectory == null) {
+    if (oldBaseDirectory == null || newTree == null) {
       throw new ShadowCopyError("No previous shadow copy to match with.");
     }
-    new DiffWalker(oldBaseDirectory, newBaseDirectory, filter, out).walk();
+    FileTree oldTree = FileTree.shadowCopy(oldBaseDirectory);
+    int sortThreshold = ActionUtils.getSortThreshold(arguments);
+    ChangeDetector detector = ChangeDetector.of(arguments);
+    if (!arguments.options.containsKey(Option.CONTENT)) {
+      new DiffWalker(oldTree, newTree, filter, out, sortThreshold, detector).walk(subTrees);
+      return;
+    }
+    try (OrderedOutput output = new OrderedOutput(out, ActionUtils.getJobs(arguments))) {
+      new DiffWalker(oldTree, newTree, filter, (change, oldEntry, newEntry) -> {
+        output.println(change.toString());
+        if (oldEntry != null && newEntry != null && hasContentDiff(change, oldEntry, newEntry)) {
+          output.submit(() -> contentDiff(change.relativePath, oldEntry, newEntry));
+        }
+      }, sortThreshold, detector).walk(subTrees);
+      output.flush();
+    }
+  }
+
+  private static boolean hasContentDiff(Change change, FileTree.Entry oldEntry, FileTree.Entry newEntry) {
+    return (change.kind == ChangeKind.MODIFIED || change.kind == ChangeKind.APPENDED) &&
+      oldEntry.attributes.isRegularFile() && newEntry.attributes.isRegularFile() &&
+      oldEntry.attributes.size <= CONTENT_MAX_SIZE && newEntry.attributes.size <= CONTENT_MAX_SIZE;
+  }
+
+  private static List<String> contentDiff(String relativePath, FileTree.Entry oldEntry, FileTree.Entry newEntry) throws IOException {
+    byte[] oldContent;
+    byte[] newContent;
+    try (InputStream oldInput = oldEntry.open(); InputStream newInput = newEntry.open()) {
+      oldContent = oldInput.readNBytes((int) CONTENT_MAX_SIZE + 1);
+      newContent = newInput.readNBytes((int) CONTENT_MAX_SIZE + 1);
+    }
+    if (oldContent.length > CONTENT_MAX_SIZE || newContent.length > CONTENT_MAX_SIZE) {
+      // modified during the diff
+      return List.of();
+    }
+    List<String> lines = UnifiedDiff.diff("a/" + relativePath, oldContent, "b/" + relativePath, newContent);
+    return lines != null ? lines : List.of();
+  }
+
+  private static void rangeDiff(PrintStream out, Arguments arguments, int sourceDirectoryIndex, int fromIndex, int toIndex,
+    List<Path> subTrees) throws IOException {
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, sourceDirectoryIndex);
+    List<Path> history = ActionUtils.shadowCopyHistory(shadowDirectory);
+    int oldestIndex = Math.max(fromIndex, toIndex);
+    int latestIndex = Math.min(fromIndex, toIndex);
+    if (latestIndex < 1 || oldestIndex > history.size()) {
+      throw new ShadowCopyError("Invalid shadow copy range: " + fromIndex + ".." + toIndex + ", " + history.size() + " shadow copies.");
+    } else if (oldestIndex == latestIndex) {
+      throw new ShadowCopyError("Expects a range of at least two shadow copies: " + fromIndex + ".." + toIndex);
+    }
+    List<FileTree> trees = new ArrayList<>();
+    List<String> labels = new ArrayList<>();
+    for (int index = oldestIndex; index >= latestIndex; index--) {
+      trees.add(FileTree.shadowCopy(history.get(history.size() - index)));
+      labels.add(index + ": ");
+    }
+    FileFilter filter = FileFilter.loadFromShadowDirectory(shadowDirectory);
+    new RangeDiffWalker(trees, labels, filter, out, ActionUtils.getSortThreshold(arguments), ChangeDetector.of(arguments))
+      .walk(subTrees);
   }
 
 }
@@ -1,105 +1,263 @@
 package com.auzeill.shadow.copy.action;
 
+import com.auzeill.shadow.copy.change.Change;
+import com.auzeill.shadow.copy.change.ChangeKind;
 import com.auzeill.shadow.copy.filter.FileFilter;
 import com.auzeill.shadow.copy.filter.FileInfo;
+import com.auzeill.shadow.copy.store.Chunks;
+import com.auzeill.shadow.copy.store.FileTree;
+import com.auzeill.shadow.copy.store.StoredFile;
+import com.auzeill.shadow.copy.store.StoredFile.Segment;
 import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import com.auzeill.shadow.copy.utils.SortedNames;
 import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
-import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.PosixFileAttributes;
-import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Objects;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Stream;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
 
 public class DiffWalker {
 
-  private static final Path BASE = Paths.get(".");
-
-  final Path oldBaseDirectory;
-  final Path newBaseDirectory;
+  final FileTree oldTree;
+  final FileTree newTree;
   final FileFilter filter;
-  final PrintStream out;
+  final Listener listener;
+  final int sortThreshold;
+  final ChangeDetector detector;
+
+  @FunctionalInterface
+  public interface Listener {
+    void onChange(Change change, @Nullable FileTree.Entry oldEntry, @Nullable FileTree.Entry newEntry) throws IOException, InterruptedException;
+  }
+
+  public DiffWalker(FileTree oldTree, FileTree newTree, FileFilter filter, PrintStream out, int sortThreshold, ChangeDetector detector) {
+    this(oldTree, newTree, filter, change -> out.println(change.toString()), sortThreshold, detector);
+  }
+
+  public DiffWalker(FileTree oldTree, FileTree newTree, FileFilter filter, Consumer<Change> listener, int sortThreshold,
+    ChangeDetector detector) {
+    this(oldTree, newTree, filter, (change, oldEntry, newEntry) -> listener.accept(change), sortThreshold, detector);
+  }
 
-  public DiffWalker(Path oldBaseDirectory, Path newBaseDirectory, FileFilter filter, PrintStream out) {
-    this.oldBaseDirectory = oldBaseDirectory;
-    this.newBaseDirectory = newBaseDirectory;
+  /**
+   * @param sortThreshold maximum number of names of a directory sorted in memory, see {@link SortedNames}
+   */
+  public DiffWalker(FileTree oldTree, FileTree newTree, FileFilter filter, Listener listener, int sortThreshold,
+    ChangeDetector detector) {
+    this.oldTree = oldTree;
+    this.newTree = newTree;
     this.filter = filter;
-    this.out = out;
+    this.listener = listener;
+    this.sortThreshold = sortThreshold;
+    this.detector = detector;
   }
 
-  public void walk() throws IOException {
+  public void walk() throws IOException, InterruptedException {
     walk(ActionUtils.DOT_DIRECTORY);
   }
 
-  private void walk(Path relativePath) throws IOException {
-    Path oldDirectory = ActionUtils.resolve(oldBaseDirectory, relativePath);
-    Path newDirectory = ActionUtils.resolve(newBaseDirectory, relativePath);
-    Set<Path> childPaths = new TreeSet<>(Comparator.comparing(Path::getFileName));
-    if (Files.isDirectory(newDirectory, LinkOption.NOFOLLOW_LINKS)) {
-      try (Stream<Path> fileList = Files.list(newDirectory)) {
-        fileList.forEach(childPaths::add);
+  /**
+   * Only walks the given sub-trees, see {@link #subTrees(List)}.
+   */
+  public void walk(List<Path> subTrees) throws IOException, InterruptedException {
+    for (Path subTree : subTrees) {
+      if (subTree.equals(ActionUtils.DOT_DIRECTORY)) {
+        walk();
+      } else {
+        walkChild(subTree);
       }
     }
-    if (Files.isDirectory(oldDirectory, LinkOption.NOFOLLOW_LINKS)) {
-      try (Stream<Path> fileList = Files.list(oldDirectory)) {
-        fileList.forEach(path -> childPaths.add(newDirectory.resolve(path.getFileName())));
+  }
+
+  /**
+   * @return the given relative paths, sorted, without the ones in the sub-tree of another, or "." when none
+   */
+  static List<Path> subTrees(List<String> paths) {
+    List<Path> sortedPaths = new ArrayList<>();
+    for (String path : paths) {
+      sortedPaths.add(Paths.get(ActionUtils.relativePath(path)));
+    }
+    if (sortedPaths.isEmpty() || sortedPaths.contains(ActionUtils.DOT_DIRECTORY)) {
+      return List.of(ActionUtils.DOT_DIRECTORY);
+    }
+    Collections.sort(sortedPaths);
+    List<Path> subTrees = new ArrayList<>();
+    for (Path path : sortedPaths) {
+      if (subTrees.isEmpty() || !path.startsWith(subTrees.get(subTrees.size() - 1))) {
+        subTrees.add(path);
       }
     }
-    for (Path newAbsolutePath : childPaths) {
-      Path fileName = newAbsolutePath.getFileName();
-      Path childRelativePath = ActionUtils.resolve(relativePath, fileName);
-      FileInfo fileInfo = new FileInfo(newAbsolutePath, childRelativePath);
-      if (filter.filter(fileInfo)) {
-        Path oldAbsolutePath = oldDirectory.resolve(fileName);
-        boolean isDirectory;
-        if (!Files.exists(newAbsolutePath, LinkOption.NOFOLLOW_LINKS)) {
-          isDirectory = Files.isDirectory(oldAbsolutePath, LinkOption.NOFOLLOW_LINKS);
-          out.println("[DELETED ] " + FileInfo.suffixDirectory(childRelativePath.toString(), isDirectory));
-        } else if (!Files.exists(oldAbsolutePath, LinkOption.NOFOLLOW_LINKS)) {
-          isDirectory = Files.isDirectory(newAbsolutePath, LinkOption.NOFOLLOW_LINKS);
-          out.println("[NEW     ] " + FileInfo.suffixDirectory(childRelativePath.toString(), isDirectory));
-        } else {
-          PosixFileAttributes oldAttributes = Files.readAttributes(oldAbsolutePath, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-          PosixFileAttributes newAttributes = Files.readAttributes(newAbsolutePath, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-          isDirectory = newAttributes.isDirectory() || oldAttributes.isDirectory();
-          if (isContentModified(newAbsolutePath, newAttributes, oldAbsolutePath, oldAttributes)) {
-            out.println("[MODIFIED] " + FileInfo.suffixDirectory(childRelativePath.toString(), isDirectory));
-          } else if (isAttributesModified(newAttributes, oldAttributes)) {
-            out.println("[CHANGED ] " + FileInfo.suffixDirectory(childRelativePath.toString(), isDirectory));
-          }
-        }
-        if (isDirectory) {
-          walk(childRelativePath);
-        }
+    return subTrees;
+  }
+
+  void walk(Path relativePath) throws IOException, InterruptedException {
+    // merge join of the sorted names of both sides
+    try (SortedNames childNames = childNames(relativePath)) {
+      for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+        walkChild(ActionUtils.resolve(relativePath, fileName));
       }
     }
   }
 
-  private static boolean isContentModified(Path newAbsolutePath, PosixFileAttributes newAttributes, Path oldAbsolutePath, PosixFileAttributes oldAttributes)
+  void walkChild(Path childRelativePath) throws IOException, InterruptedException {
+    FileTree.Entry newEntry = newTree.entry(childRelativePath);
+    FileTree.Entry oldEntry = oldTree.entry(childRelativePath);
+    FileTree.Entry existingEntry = newEntry != null ? newEntry : oldEntry;
+    if (existingEntry == null) {
+      // deleted during the walk
+      return;
+    }
+    if (filter.filter(fileInfo(newTree, childRelativePath, newEntry, existingEntry))) {
+      Change change = compare(childRelativePath.toString(), oldEntry, newEntry, newTree, detector);
+      if (change != null) {
+        listener.onChange(change, oldEntry, newEntry);
+      }
+      if (isDirectory(oldEntry) || isDirectory(newEntry)) {
+        walk(childRelativePath);
+      }
+    }
+  }
+
+  private SortedNames childNames(Path relativePath) throws IOException {
+    SortedNames newNames = newTree.childNames(relativePath, sortThreshold);
+    try {
+      return SortedNames.union(newNames, oldTree.childNames(relativePath, sortThreshold));
+    } catch (IOException | RuntimeException ex) {
+      newNames.close();
+      throw ex;
+    }
+  }
+
+  static FileInfo fileInfo(FileTree newTree, Path relativePath, @Nullable FileTree.Entry newEntry, FileTree.Entry existingEntry) {
+    FileAttributes attributes = existingEntry.attributes;
+    if (newEntry != null && !newEntry.isStored()) {
+      // the attributes of an existing file are read without following symbolic links
+      boolean isDirectory = FileInfo.isDirectory(newEntry.path, attributes.isDirectory(), attributes.isSymbolicLink());
+      return new FileInfo(newEntry.path, relativePath, isDirectory, attributes.isSymbolicLink() ? -1 : attributes.size);
+    }
+    return new FileInfo(newTree.resolve(relativePath), relativePath, attributes.isDirectory(), attributes.size);
+  }
+
+  static boolean isDirectory(@Nullable FileTree.Entry entry) {
+    return entry != null && entry.attributes.isDirectory();
+  }
+
+  /**
+   * @return the change between the two versions of the given path, or null if unchanged
+   */
+  @Nullable
+  static Change compare(String path, @Nullable FileTree.Entry oldEntry, @Nullable FileTree.Entry newEntry, FileTree newTree,
+    ChangeDetector detector) throws IOException {
+    if (newEntry == null && oldEntry == null) {
+      return null;
+    } else if (newEntry == null) {
+      return new Change(ChangeKind.DELETED, path, isDirectory(oldEntry), 0);
+    } else if (oldEntry == null) {
+      return new Change(ChangeKind.NEW, path, isDirectory(newEntry), 0);
+    }
+    boolean isDirectory = isDirectory(newEntry) || isDirectory(oldEntry);
+    long appendedBytes = appendedBytes(path, newEntry, oldEntry, newTree);
+    if (appendedBytes > 0) {
+      return new Change(ChangeKind.APPENDED, path, false, appendedBytes);
+    } else if (isContentModified(path, newEntry, oldEntry, detector)) {
+      return new Change(ChangeKind.MODIFIED, path, isDirectory, 0);
+    } else if (isAttributesModified(newEntry.attributes, oldEntry.attributes)) {
+      return new Change(ChangeKind.CHANGED, path, isDirectory, 0);
+    }
+    return null;
+  }
+
+  /**
+   * Detects append-only growth of regular files without reading the old content, using the segments
+   * of stored files, or the content hash of the old version when known (see {@link ChangeDetector#knownHash}).
+   * @return the number of appended bytes, or -1 if the old content is not known to be a prefix of the new one
+   */
+  private static long appendedBytes(String path, FileTree.Entry newEntry, FileTree.Entry oldEntry, FileTree newTree)
+    throws IOException {
+    FileAttributes newAttributes = newEntry.attributes;
+    FileAttributes oldAttributes = oldEntry.attributes;
+    if (!newAttributes.isRegularFile() || !oldAttributes.isRegularFile() || newAttributes.size <= oldAttributes.size) {
+      return -1;
+    }
+    long appendedBytes = newAttributes.size - oldAttributes.size;
+    StoredFile newFile = newEntry.storedFile;
+    StoredFile oldFile = oldEntry.storedFile;
+    if (newFile != null && oldFile != null) {
+      return hasSegmentsPrefix(newFile, oldFile) ? appendedBytes : -1;
+    } else if (newFile != null) {
+      // the first segment of the new file is a hard link of the old file
+      Segment first = newFile.segments.isEmpty() ? null : newFile.segments.get(0);
+      boolean isLinked = first != null && first.offset == 0 && first.length == oldAttributes.size &&
+        oldAttributes.fileKey != null && oldAttributes.fileKey.equals(newTree.store.fileKey(first.storeFile));
+      return isLinked ? appendedBytes : -1;
+    }
+    // a stored file, or a file of the shadow copy tree with a recorded hash
+    byte[] oldHash = ChangeDetector.knownHash(path, oldEntry);
+    if (oldHash == null) {
+      return -1;
+    }
+    try (InputStream input = newEntry.open()) {
+      byte[] prefixHash = HashUtils.hash(input, oldAttributes.size);
+      return Arrays.equals(prefixHash, oldHash) ? appendedBytes : -1;
+    }
+  }
+
+  private static boolean hasSegmentsPrefix(StoredFile file, StoredFile prefix) {
+    if (prefix.segments.size() > file.segments.size()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.segments.size(); i++) {
+      if (!file.segments.get(i).isSameAs(prefix.segments.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isContentModified(String path, FileTree.Entry newEntry, FileTree.Entry oldEntry, ChangeDetector detector)
     throws IOException {
+    FileAttributes newAttributes = newEntry.attributes;
+    FileAttributes oldAttributes = oldEntry.attributes;
     if (newAttributes.isSymbolicLink()) {
       return !oldAttributes.isSymbolicLink() ||
-        !Files.readSymbolicLink(newAbsolutePath).equals(Files.readSymbolicLink(oldAbsolutePath));
+        !Files.readSymbolicLink(newEntry.path).equals(Files.readSymbolicLink(oldEntry.path));
     } else if (newAttributes.isRegularFile()) {
-      if (!oldAttributes.isRegularFile() || newAttributes.size() != oldAttributes.size()) {
+      if (!oldAttributes.isRegularFile() || newAttributes.size != oldAttributes.size) {
         return true;
       }
       // fast comparison
-      if (newAttributes.lastModifiedTime().equals(oldAttributes.lastModifiedTime())) {
+      Boolean isSameContent = detector.isSameContent(path, oldEntry, newEntry);
+      if (isSameContent != null) {
+        return !isSameContent;
+      } else if (hasSameSegments(newEntry.storedFile, oldEntry.storedFile)) {
         return false;
       }
+      // content hashes known without reading
+      byte[] newHash = ChangeDetector.knownHash(path, newEntry);
+      byte[] oldHash = newHash != null ? ChangeDetector.knownHash(path, oldEntry) : null;
+      if (newHash != null && oldHash != null) {
+        return !Arrays.equals(newHash, oldHash);
+      }
+      // chunk hash comparison, reads at most one side
+      if (isChunked(newEntry) && isChunked(oldEntry)) {
+        return !Chunks.hasSameChunks(newEntry.storedFile, oldEntry.storedFile);
+      } else if (isChunked(oldEntry)) {
+        return !hasSameChunks(newEntry, oldEntry.storedFile);
+      } else if (isChunked(newEntry)) {
+        return !hasSameChunks(oldEntry, newEntry.storedFile);
+      }
       // slow comparison
-      return !hasSameContent(newAbsolutePath, oldAbsolutePath);
+      return !hasSameContent(newEntry, oldEntry);
     } else if (newAttributes.isDirectory()) {
       return !oldAttributes.isDirectory();
     } else {
@@ -108,29 +266,51 @@ public class DiffWalker {
     }
   }
 
-  private static boolean isAttributesModified(PosixFileAttributes newAttributes, PosixFileAttributes oldAttributes) {
-    return !Objects.equals(newAttributes.group(), oldAttributes.group()) ||
-      !Objects.equals(newAttributes.owner(), oldAttributes.owner()) ||
-      !PosixFilePermissions.toString(newAttributes.permissions()).equals(PosixFilePermissions.toString(oldAttributes.permissions()));
+  private static boolean isChunked(FileTree.Entry entry) {
+    return entry.storedFile != null && Chunks.isChunked(entry.storedFile);
+  }
+
+  private static boolean hasSameChunks(FileTree.Entry entry, StoredFile chunkedFile) throws IOException {
+    try (InputStream input = entry.open()) {
+      return Chunks.hasSameChunks(input, chunkedFile);
+    }
+  }
+
+  static boolean isAttributesModified(FileAttributes newAttributes, FileAttributes oldAttributes) {
+    return newAttributes.gid != oldAttributes.gid ||
+      newAttributes.uid != oldAttributes.uid ||
+      newAttributes.permissions() != oldAttributes.permissions();
+  }
+
+  private static boolean hasSameSegments(@Nullable StoredFile file1, @Nullable StoredFile file2) {
+    if (file1 == null || file2 == null || file1.segments.size() != file2.segments.size()) {
+      return false;
+    }
+    for (int i = 0; i < file1.segments.size(); i++) {
+      if (!file1.segments.get(i).isSameAs(file2.segments.get(i))) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  static boolean hasSameContent(Path path1, Path path2) throws IOException {
-    if (Files.size(path1) != Files.size(path2)) {
+  static boolean hasSameContent(FileTree.Entry entry1, FileTree.Entry entry2) throws IOException {
+    if (entry1.attributes.size != entry2.attributes.size) {
       return false;
     }
     try (
-      InputStream input1 = new BufferedInputStream(new FileInputStream(path1.toFile()));
-      InputStream input2 = new BufferedInputStream(new FileInputStream(path2.toFile()))) {
+      InputStream input1 = new BufferedInputStream(entry1.open());
+      InputStream input2 = new BufferedInputStream(entry2.open())) {
       byte[] buffer1 = new byte[4096];
       byte[] buffer2 = new byte[buffer1.length];
-      int count1 = input1.read(buffer1);
-      int count2 = input2.read(buffer2);
-      while (count1 != -1 && count2 != -1) {
+      int count1 = input1.readNBytes(buffer1, 0, buffer1.length);
+      int count2 = input2.readNBytes(buffer2, 0, buffer2.length);
+      while (count1 > 0 && count2 > 0) {
         if (!Arrays.equals(buffer1, 0, count1, buffer2, 0, count2)) {
           return false;
         }
-        count1 = input1.read(buffer1);
-        count2 = input2.read(buffer2);
+        count1 = input1.readNBytes(buffer1, 0, buffer1.length);
+        count2 = input2.readNBytes(buffer2, 0, buffer2.length);
       }
       return count1 == count2;
     }
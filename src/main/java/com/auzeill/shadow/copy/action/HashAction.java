@@ -0,0 +1,43 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+
+public class HashAction implements Action.Execute {
+
+  @Override
+  public void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
+    List<String> args = arguments.actionArguments;
+    if (args.size() > 2) {
+      throw new ShadowCopyError("Expects at most 2 parameter.");
+    }
+    int sourceDirectoryIndex = -1;
+    int index = 1;
+    if (!args.isEmpty() && args.get(args.size() - 1).matches("[0-9]++")) {
+      index = Integer.parseInt(args.get(args.size() - 1));
+      sourceDirectoryIndex = args.size() == 2 ? 0 : -1;
+    } else if (args.size() == 2) {
+      throw new ShadowCopyError("Invalid shadow copy index: " + args.get(1));
+    } else if (args.size() == 1) {
+      sourceDirectoryIndex = 0;
+    }
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, sourceDirectoryIndex);
+    Path shadowCopy = ActionUtils.findLastShadowCopy(shadowDirectory, index);
+    if (shadowCopy == null) {
+      throw new ShadowCopyError("No shadow copy at index: " + index);
+    }
+    Throttle throttle = new Throttle(ActionUtils.getSize(arguments, Option.MAX_BYTES_PER_SECOND, 0), 0);
+    HashWalker walker = HashWalker.hash(shadowDirectory, shadowCopy, throttle, ActionUtils.getJobs(arguments));
+    out.println(shadowCopy + " (hashed: " + walker.hashedCount + " files, " + walker.hashedBytes + " bytes, reused: " +
+      walker.reusedCount + " hashes)");
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.store.FileStates;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * Computes, after its creation, the content hashes of the regular files of a shadow copy tree into its
+ * "file-hashes" metadata file (see {@link FileStates}), so "diff" compares them without reading the files.
+ * The files are read on virtual threads, at most "readAhead" at once. A file is not read when its hash is
+ * recorded with the state of its source file, or computed for the same inode by the previous shadow copy
+ * (a hard link). Stored files already have their hash in the store index.
+ */
+public class HashWalker {
+
+  final Path shadowCopy;
+  private final Path metadataDirectory;
+  /**
+   * Hashes computed by an interrupted run
+   */
+  private final FileStates computedHashes;
+  private final FileStates states;
+  private final FileStates previousHashes;
+  private final Throttle throttle;
+  private final int readAhead;
+  long hashedCount = 0;
+  long hashedBytes = 0;
+  long reusedCount = 0;
+
+  /**
+   * @param previousShadowCopy the shadow copy created before, whose hard linked files have the same hash
+   * @param readAhead maximum number of files read at once
+   */
+  public HashWalker(Path shadowCopy, @Nullable Path previousShadowCopy, Throttle throttle, int readAhead) throws IOException {
+    this.shadowCopy = shadowCopy;
+    this.metadataDirectory = ActionUtils.metadataDirectory(shadowCopy);
+    this.computedHashes = FileStates.loadHashes(shadowCopy);
+    this.states = FileStates.load(shadowCopy);
+    this.previousHashes = previousShadowCopy != null ? FileStates.loadHashes(previousShadowCopy) : FileStates.EMPTY;
+    this.throttle = throttle;
+    this.readAhead = readAhead;
+  }
+
+  /**
+   * Hashes the files of the given shadow copy of the shadow directory, reusing the hashes of the previous one.
+   */
+  public static HashWalker hash(Path shadowDirectory, Path shadowCopy, Throttle throttle, int readAhead)
+    throws IOException, InterruptedException {
+    List<Path> history = ActionUtils.shadowCopyHistory(shadowDirectory);
+    Path previousShadowCopy = null;
+    for (int i = 1; i < history.size(); i++) {
+      if (history.get(i).getFileName().equals(shadowCopy.getFileName())) {
+        previousShadowCopy = history.get(i - 1);
+      }
+    }
+    HashWalker walker = new HashWalker(shadowCopy, previousShadowCopy, throttle, readAhead);
+    walker.walk();
+    return walker;
+  }
+
+  public void walk() throws IOException, InterruptedException {
+    Semaphore readers = new Semaphore(readAhead);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    ExecutorService executor = JobPool.newVirtualThreadExecutor(readAhead);
+    try (FileStates.Writer writer = FileStates.Writer.open(FileStates.hashesPath(shadowCopy), true)) {
+      try {
+        walk(shadowCopy, writer, readers, failure, executor);
+      } finally {
+        // waits for the files being read
+        readers.acquire(readAhead);
+        executor.shutdown();
+      }
+    }
+    JobPool.rethrow(failure.get());
+  }
+
+  private void walk(Path directory, FileStates.Writer writer, Semaphore readers, AtomicReference<Throwable> failure,
+    ExecutorService executor) throws IOException, InterruptedException {
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+      for (Path child : children) {
+        FileAttributes attributes = FileAttributes.read(child);
+        if (attributes.isDirectory() && !child.equals(metadataDirectory)) {
+          walk(child, writer, readers, failure, executor);
+        } else if (attributes.isRegularFile()) {
+          hash(child, attributes, writer, readers, failure, executor);
+        }
+      }
+    }
+  }
+
+  private void hash(Path file, FileAttributes attributes, FileStates.Writer writer, Semaphore readers,
+    AtomicReference<Throwable> failure, ExecutorService executor) throws IOException, InterruptedException {
+    String relativePath = shadowCopy.relativize(file).toString();
+    FileStates.State computed = computedHashes.get(relativePath);
+    if (computed != null && computed.isSameInode(attributes)) {
+      return;
+    }
+    byte[] knownHash = knownHash(relativePath, attributes);
+    if (knownHash != null) {
+      reusedCount++;
+      writer.add(relativePath, attributes, knownHash);
+      return;
+    }
+    JobPool.rethrow(failure.get());
+    readers.acquire();
+    hashedCount++;
+    hashedBytes += attributes.size;
+    executor.execute(() -> {
+      try {
+        throttle.acquireBytes(attributes.size);
+        try (InputStream input = Files.newInputStream(file)) {
+          writer.add(relativePath, attributes, HashUtils.hash(input));
+        }
+      } catch (Exception | Error ex) {
+        failure.compareAndSet(null, ex);
+      } finally {
+        readers.release();
+      }
+    });
+  }
+
+  @Nullable
+  private byte[] knownHash(String relativePath, FileAttributes attributes) {
+    FileStates.State state = states.get(relativePath);
+    if (state != null && state.hash != null && state.size == attributes.size &&
+      state.lastModifiedTime.equals(attributes.lastModifiedTime)) {
+      return state.hash;
+    }
+    FileStates.State previous = previousHashes.get(relativePath);
+    return previous != null && previous.isSameInode(attributes) ? previous.hash : null;
+  }
+
+}
@@ -3,32 +3,52 @@ package com.auzeill.shadow.copy.action;
 import com.auzeill.shadow.copy.arguments.Action;
 import com.auzeill.shadow.copy.arguments.Arguments;
 import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.catalog.Catalog;
+import com.auzeill.shadow.copy.catalog.CatalogEntry;
 import com.auzeill.shadow.copy.utils.ActionUtils;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.List;
+import javax.annotation.Nullable;
 
 public class HistoryAction implements Action.Execute {
 
   @Override
   public void execute(PrintStream out, Arguments arguments) throws IOException {
     Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, 0);
-    List<Path> history = ActionUtils.shadowCopyHistory(shadowDirectory);
+    Catalog catalog = Catalog.load(shadowDirectory);
+    List<Path> history = catalog.history();
     int start = 0;
     String limit = arguments.options.get(Option.NUMBER);
     if (limit != null) {
       start = Math.max(0, history.size() - Integer.parseInt(limit));
     }
     boolean noIndex = arguments.options.containsKey(Option.NO_INDEX);
+    boolean longFormat = arguments.options.containsKey(Option.LONG);
     for (int i = start; i < history.size(); i++) {
-      if (noIndex) {
-        out.println(history.get(i).toString());
-      } else {
+      String line = history.get(i).toString();
+      if (!noIndex) {
         int index = history.size() - i;
-        out.println(index + ": " + history.get(i).toString());
+        line = index + ": " + line;
       }
+      if (longFormat) {
+        line += " " + metadata(catalog.get(history.get(i).getFileName().toString()));
+      }
+      out.println(line);
+    }
+  }
+
+  private static String metadata(@Nullable CatalogEntry entry) {
+    if (entry == null || entry.isUnknown()) {
+      return "(no metadata)";
     }
+    // effective rates, including the waits of --max-bytes-per-second and --max-files-per-second
+    long durationMillis = Math.max(1, entry.durationMillis);
+    String linkRotations = entry.linkRotationCount > 0 ? (", " + entry.linkRotationCount + " link rotations") : "";
+    return String.format("(%d.%03d s, %d entries, %d bytes copied, %d bytes unique%s, %d entries/s, %d bytes/s)",
+      entry.durationMillis / 1000, entry.durationMillis % 1000, entry.entryCount, entry.copiedBytes, entry.uniqueBytes,
+      linkRotations, entry.entryCount * 1000 / durationMillis, entry.copiedBytes * 1000 / durationMillis);
   }
 
 }
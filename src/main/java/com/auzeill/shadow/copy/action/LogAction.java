@@ -0,0 +1,51 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.change.ChangeIndex;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class LogAction implements Action.Execute {
+
+  @Override
+  public void execute(PrintStream out, Arguments arguments) throws IOException {
+    List<String> args = arguments.actionArguments;
+    if (args.isEmpty() || args.size() > 2) {
+      throw new ShadowCopyError("Expects [ <target-directory> ] <relative-path>");
+    }
+    int sourceDirectoryIndex = args.size() == 2 ? 0 : -1;
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, sourceDirectoryIndex);
+    if (!ChangeIndex.exists(shadowDirectory)) {
+      throw new ShadowCopyError("No change index in '" + shadowDirectory + "', it is updated by each 'create'.");
+    }
+    String relativePath = ActionUtils.relativePath(args.get(args.size() - 1));
+    List<Path> history = ActionUtils.shadowCopyHistory(shadowDirectory);
+    Map<String, Integer> positionByName = new HashMap<>();
+    for (int i = 0; i < history.size(); i++) {
+      positionByName.put(history.get(i).getFileName().toString(), i);
+    }
+    // changes of purged shadow copies are ignored
+    List<ChangeIndex.Record> records = ChangeIndex.log(shadowDirectory, relativePath).stream()
+      .filter(record -> positionByName.containsKey(record.shadowCopyName))
+      .sorted(Comparator.comparing((ChangeIndex.Record record) -> positionByName.get(record.shadowCopyName))
+        .thenComparing(record -> record.change.relativePath))
+      .collect(Collectors.toList());
+    boolean noIndex = arguments.options.containsKey(Option.NO_INDEX);
+    for (ChangeIndex.Record record : records) {
+      int position = positionByName.get(record.shadowCopyName);
+      String line = history.get(position) + " " + record.change;
+      out.println(noIndex ? line : ((history.size() - position) + ": " + line));
+    }
+  }
+
+}
@@ -4,10 +4,12 @@ import com.auzeill.shadow.copy.ShadowCopyError;
 import com.auzeill.shadow.copy.arguments.Action;
 import com.auzeill.shadow.copy.arguments.Arguments;
 import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.catalog.Catalog;
 import com.auzeill.shadow.copy.utils.ActionUtils;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.stream.Stream;
@@ -24,12 +26,15 @@ public class PurgeAction implements Action.Execute {
       end = Math.max(0, history.size() - Integer.parseInt(limit));
     }
     for (int i = 0; i < end; i++) {
-      deleteRecursively(history.get(i));
+      Path shadowCopy = history.get(i);
+      Catalog.deleted(shadowDirectory, shadowCopy.getFileName().toString());
+      deleteRecursively(shadowCopy);
     }
   }
 
   static void deleteRecursively(Path path) {
-    if (Files.isDirectory(path)) {
+    // never traverse symbolic links, they can target files outside of the shadow copy
+    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
       try (Stream<Path> list = Files.list(path)) {
         list.forEach(PurgeAction::deleteRecursively);
       } catch (IOException ex) {
@@ -0,0 +1,138 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.change.Change;
+import com.auzeill.shadow.copy.change.ChangeKind;
+import com.auzeill.shadow.copy.filter.FileFilter;
+import com.auzeill.shadow.copy.store.FileTree;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.SortedNames;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Walks a range of shadow copies at once and prints, for each changed path, its net change between
+ * the first and the last shadow copy followed by its change in each shadow copy of the range.
+ * Consecutive versions hard linked to the same inode are unchanged without further comparison.
+ */
+public class RangeDiffWalker {
+
+  final List<FileTree> trees;
+  final List<String> labels;
+  final FileFilter filter;
+  final PrintStream out;
+  final int sortThreshold;
+  final ChangeDetector detector;
+
+  /**
+   * @param trees shadow copies from the oldest to the latest
+   * @param labels printed before the changes of each shadow copy, the first one is not used
+   * @param sortThreshold maximum number of names of a directory sorted in memory, see {@link SortedNames}
+   */
+  public RangeDiffWalker(List<FileTree> trees, List<String> labels, FileFilter filter, PrintStream out, int sortThreshold,
+    ChangeDetector detector) {
+    this.trees = trees;
+    this.labels = labels;
+    this.filter = filter;
+    this.out = out;
+    this.sortThreshold = sortThreshold;
+    this.detector = detector;
+  }
+
+  public void walk() throws IOException {
+    walk(ActionUtils.DOT_DIRECTORY);
+  }
+
+  /**
+   * Only walks the given sub-trees, see {@link DiffWalker#subTrees(List)}.
+   */
+  public void walk(List<Path> subTrees) throws IOException {
+    for (Path subTree : subTrees) {
+      if (subTree.equals(ActionUtils.DOT_DIRECTORY)) {
+        walk();
+      } else {
+        walkChild(subTree);
+      }
+    }
+  }
+
+  private void walk(Path relativePath) throws IOException {
+    try (SortedNames childNames = childNames(relativePath)) {
+      for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+        walkChild(ActionUtils.resolve(relativePath, fileName));
+      }
+    }
+  }
+
+  private void walkChild(Path childRelativePath) throws IOException {
+    FileTree lastTree = trees.get(trees.size() - 1);
+    List<FileTree.Entry> entries = new ArrayList<>(trees.size());
+    FileTree.Entry existingEntry = null;
+    boolean isDirectory = false;
+    for (FileTree tree : trees) {
+      FileTree.Entry entry = tree.entry(childRelativePath);
+      entries.add(entry);
+      existingEntry = entry != null ? entry : existingEntry;
+      isDirectory |= DiffWalker.isDirectory(entry);
+    }
+    FileTree.Entry lastEntry = entries.get(entries.size() - 1);
+    if (existingEntry != null && filter.filter(DiffWalker.fileInfo(lastTree, childRelativePath, lastEntry, existingEntry))) {
+      printChanges(childRelativePath.toString(), entries);
+      if (isDirectory) {
+        walk(childRelativePath);
+      }
+    }
+  }
+
+  private SortedNames childNames(Path relativePath) throws IOException {
+    List<SortedNames> treeNames = new ArrayList<>(trees.size());
+    try {
+      for (FileTree tree : trees) {
+        treeNames.add(tree.childNames(relativePath, sortThreshold));
+      }
+    } catch (IOException | RuntimeException ex) {
+      SortedNames.union(treeNames).close();
+      throw ex;
+    }
+    return SortedNames.union(treeNames);
+  }
+
+  private void printChanges(String path, List<FileTree.Entry> entries) throws IOException {
+    List<Integer> stepIndexes = new ArrayList<>();
+    List<Change> steps = new ArrayList<>();
+    for (int i = 1; i < entries.size(); i++) {
+      FileTree.Entry oldEntry = entries.get(i - 1);
+      FileTree.Entry newEntry = entries.get(i);
+      Change change = isSameInode(oldEntry, newEntry) ? null : DiffWalker.compare(path, oldEntry, newEntry, trees.get(i), detector);
+      if (change != null) {
+        stepIndexes.add(i);
+        steps.add(change);
+      }
+    }
+    if (steps.isEmpty()) {
+      return;
+    }
+    Change net = steps.get(0);
+    if (steps.size() > 1) {
+      FileTree.Entry firstEntry = entries.get(0);
+      FileTree.Entry lastEntry = entries.get(entries.size() - 1);
+      net = DiffWalker.compare(path, firstEntry, lastEntry, trees.get(trees.size() - 1), detector);
+      if (net == null) {
+        net = new Change(ChangeKind.REVERTED, path, DiffWalker.isDirectory(firstEntry) || DiffWalker.isDirectory(lastEntry), 0);
+      }
+    }
+    out.println(net);
+    for (int i = 0; i < steps.size(); i++) {
+      out.println("    " + labels.get(stepIndexes.get(i)) + steps.get(i));
+    }
+  }
+
+  private static boolean isSameInode(@Nullable FileTree.Entry oldEntry, @Nullable FileTree.Entry newEntry) {
+    return oldEntry != null && newEntry != null && !oldEntry.isStored() && !newEntry.isStored() &&
+      oldEntry.attributes.fileKey != null && oldEntry.attributes.fileKey.equals(newEntry.attributes.fileKey);
+  }
+
+}
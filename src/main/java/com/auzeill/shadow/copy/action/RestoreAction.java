@@ -0,0 +1,64 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.filter.FileFilter;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RestoreAction implements Action.Execute {
+
+  private static final String INDEX_FORMAT = "[0-9]++";
+
+  @Override
+  public void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
+    List<String> args = arguments.actionArguments;
+    int sourceDirectoryIndex;
+    if (!args.isEmpty() && args.get(0).matches(INDEX_FORMAT)) {
+      sourceDirectoryIndex = -1;
+    } else if (args.size() >= 2 && args.get(1).matches(INDEX_FORMAT)) {
+      sourceDirectoryIndex = 0;
+    } else {
+      throw new ShadowCopyError("Expects [ <target-directory> ] <index> [ <relative-path> ... ]");
+    }
+    int index = Integer.parseInt(args.get(sourceDirectoryIndex + 1));
+    List<Path> relativePaths = new ArrayList<>();
+    for (String path : args.subList(sourceDirectoryIndex + 2, args.size())) {
+      relativePaths.add(Paths.get(ActionUtils.relativePath(path)));
+    }
+    if (relativePaths.isEmpty()) {
+      relativePaths.add(ActionUtils.DOT_DIRECTORY);
+    }
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, sourceDirectoryIndex);
+    Path shadowCopy = ActionUtils.findLastShadowCopy(shadowDirectory, index);
+    if (shadowCopy == null) {
+      throw new ShadowCopyError("No shadow copy at index: " + index);
+    }
+    String to = arguments.options.get(Option.TO);
+    Path targetDirectory = to != null ? ActionUtils.resolvePath(arguments, to) :
+      ActionUtils.resolveSourceDirectory(arguments, sourceDirectoryIndex);
+    boolean dryRun = arguments.options.containsKey(Option.DRY_RUN);
+    if (!dryRun) {
+      Files.createDirectories(targetDirectory);
+    }
+    FileFilter filter = FileFilter.loadFromShadowDirectory(shadowDirectory);
+    Throttle throttle = new Throttle(ActionUtils.getSize(arguments, Option.MAX_BYTES_PER_SECOND, 0), 0);
+    try (JobPool jobPool = new JobPool(ActionUtils.getJobs(arguments))) {
+      new RestoreWalker(shadowCopy, targetDirectory, filter, jobPool, throttle, ActionUtils.getSortThreshold(arguments),
+        ChangeDetector.of(arguments), arguments.options.containsKey(Option.LINK), dryRun,
+        change -> out.println(change.toString()),
+        skipped -> out.println("[SKIPPED ] " + skipped + " (unsupported file type)")).restore(relativePaths);
+    }
+  }
+
+}
@@ -0,0 +1,229 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.change.Change;
+import com.auzeill.shadow.copy.change.ChangeKind;
+import com.auzeill.shadow.copy.filter.FileFilter;
+import com.auzeill.shadow.copy.store.FileTree;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.Command;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HardLinks;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.SortedNames;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Restores entries of a shadow copy into a target directory, the source directory or another one. Each entry is
+ * compared with the target one like "diff" does, and only the new, modified and changed entries are written. An
+ * entry only in the target directory is kept. The regular files are copied by parallel jobs, and the attributes of
+ * the directories are restored once their children are written. The files of unsupported type, like sockets and
+ * FIFOs, only have a text in their place in the shadow copy, they are skipped.
+ */
+public class RestoreWalker {
+
+  final FileTree shadowTree;
+  final FileTree targetTree;
+  final FileFilter filter;
+  final JobPool.Group copyJobs;
+  final Throttle throttle;
+  final int sortThreshold;
+  final ChangeDetector detector;
+  /**
+   * Hard link the files of the shadow copy tree instead of copying them
+   */
+  final boolean link;
+  /**
+   * Only report the changes, without writing the target directory
+   */
+  final boolean dryRun;
+  final Consumer<Change> listener;
+  /**
+   * Receives the entries not restored because of their unsupported type
+   */
+  final Consumer<Path> skippedListener;
+  /**
+   * Directories whose attributes are restored after the copy jobs, children before parents
+   */
+  private final List<RestoredDirectory> directories = new ArrayList<>();
+
+  public RestoreWalker(Path shadowCopy, Path targetDirectory, FileFilter filter, JobPool jobPool, Throttle throttle,
+    int sortThreshold, ChangeDetector detector, boolean link, boolean dryRun, Consumer<Change> listener,
+    Consumer<Path> skippedListener) throws IOException {
+    this.shadowTree = FileTree.shadowCopy(shadowCopy);
+    this.targetTree = FileTree.source(targetDirectory);
+    this.filter = filter;
+    this.copyJobs = jobPool.newGroup();
+    this.throttle = throttle;
+    this.sortThreshold = sortThreshold;
+    this.detector = detector;
+    this.link = link;
+    this.dryRun = dryRun;
+    this.listener = listener;
+    this.skippedListener = skippedListener;
+  }
+
+  /**
+   * @param relativePaths entries of the shadow copy to restore, with their sub-trees, not filtered
+   */
+  public void restore(List<Path> relativePaths) throws IOException, InterruptedException {
+    try {
+      for (Path relativePath : relativePaths) {
+        FileTree.Entry shadowEntry = shadowTree.entry(relativePath);
+        if (shadowEntry == null) {
+          throw new ShadowCopyError("No '" + relativePath + "' in shadow copy: " + shadowTree.baseDirectory);
+        }
+        List<RestoredDirectory> createdParents = new ArrayList<>();
+        boolean isParentInTarget = restoreParents(relativePath.getParent(), createdParents);
+        restoreEntry(relativePath, shadowEntry, isParentInTarget);
+        directories.addAll(createdParents);
+      }
+    } finally {
+      copyJobs.await();
+    }
+    for (RestoredDirectory directory : directories) {
+      CreateWalker.copyAttributes(directory.attributes, directory.path, FileAttributes.read(directory.path), false);
+    }
+  }
+
+  /**
+   * Creates the parent directories missing from the target directory.
+   * @param createdParents filled with the created directories, children before parents
+   * @return false if the parent directory is missing from the target directory
+   */
+  private boolean restoreParents(@Nullable Path relativePath, List<RestoredDirectory> createdParents) throws IOException {
+    if (relativePath == null) {
+      return true;
+    }
+    boolean isParentInTarget = restoreParents(relativePath.getParent(), createdParents);
+    FileTree.Entry targetEntry = isParentInTarget ? targetTree.entry(relativePath) : null;
+    if (targetEntry != null && targetEntry.attributes.isDirectory()) {
+      return true;
+    }
+    FileTree.Entry shadowEntry = shadowTree.entry(relativePath);
+    Change change = DiffWalker.compare(relativePath.toString(), targetEntry, shadowEntry, shadowTree, detector);
+    if (change != null) {
+      listener.accept(change);
+    }
+    if (!dryRun && shadowEntry != null) {
+      createDirectory(relativePath, targetEntry);
+      createdParents.add(0, new RestoredDirectory(targetTree.resolve(relativePath), shadowEntry.attributes));
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param isParentInTarget false when the parent directory is missing from the target directory
+   */
+  private void restoreEntry(Path relativePath, FileTree.Entry shadowEntry, boolean isParentInTarget)
+    throws IOException, InterruptedException {
+    if (CreateWalker.isUnsupportedFile(shadowEntry)) {
+      // the existing file of the target directory, maybe the socket or the FIFO, is kept
+      skippedListener.accept(relativePath);
+      return;
+    }
+    FileTree.Entry targetEntry = isParentInTarget ? targetTree.entry(relativePath) : null;
+    Change change = DiffWalker.compare(relativePath.toString(), targetEntry, shadowEntry, shadowTree, detector);
+    if (change != null) {
+      listener.accept(change);
+      if (!dryRun) {
+        apply(change, relativePath, shadowEntry, targetEntry);
+      }
+    }
+    if (shadowEntry.attributes.isDirectory()) {
+      boolean isInTarget = !dryRun || (targetEntry != null && targetEntry.attributes.isDirectory());
+      walk(relativePath, isInTarget);
+      if (!dryRun) {
+        directories.add(new RestoredDirectory(targetTree.resolve(relativePath), shadowEntry.attributes));
+      }
+    }
+  }
+
+  private void walk(Path relativePath, boolean isInTarget) throws IOException, InterruptedException {
+    try (SortedNames childNames = shadowTree.childNames(relativePath, sortThreshold)) {
+      for (Path fileName = childNames.next(); fileName != null; fileName = childNames.next()) {
+        Path childRelativePath = ActionUtils.resolve(relativePath, fileName);
+        FileTree.Entry shadowEntry = shadowTree.entry(childRelativePath);
+        if (shadowEntry != null && filter.filter(DiffWalker.fileInfo(shadowTree, childRelativePath, shadowEntry, shadowEntry))) {
+          restoreEntry(childRelativePath, shadowEntry, isInTarget);
+        }
+      }
+    }
+  }
+
+  private void apply(Change change, Path relativePath, FileTree.Entry shadowEntry, @Nullable FileTree.Entry targetEntry)
+    throws IOException, InterruptedException {
+    Path targetPath = targetTree.resolve(relativePath);
+    FileAttributes attributes = shadowEntry.attributes;
+    if (change.kind == ChangeKind.CHANGED) {
+      if (!attributes.isDirectory()) {
+        CreateWalker.copyAttributes(attributes, targetPath, targetEntry.attributes, false);
+      }
+      return;
+    }
+    if (attributes.isDirectory()) {
+      createDirectory(relativePath, targetEntry);
+      return;
+    }
+    if (targetEntry != null) {
+      // modified, replaced by the version of the shadow copy
+      PurgeAction.deleteRecursively(targetPath);
+    }
+    if (attributes.isSymbolicLink()) {
+      Files.createSymbolicLink(targetPath, Files.readSymbolicLink(shadowEntry.path));
+      CreateWalker.copyAttributes(attributes, targetPath, FileAttributes.read(targetPath), true);
+    } else if (attributes.isRegularFile()) {
+      restoreRegularFile(shadowEntry, targetPath);
+    }
+  }
+
+  private void createDirectory(Path relativePath, @Nullable FileTree.Entry targetEntry) throws IOException {
+    Path targetPath = targetTree.resolve(relativePath);
+    if (targetEntry != null) {
+      PurgeAction.deleteRecursively(targetPath);
+    }
+    // the attributes are restored after the children
+    Files.createDirectory(targetPath);
+  }
+
+  private void restoreRegularFile(FileTree.Entry shadowEntry, Path targetPath) throws IOException, InterruptedException {
+    FileAttributes attributes = shadowEntry.attributes;
+    if (shadowEntry.isStored()) {
+      copyJobs.submit(() -> {
+        throttle.acquireBytes(attributes.size);
+        try (InputStream input = shadowEntry.open()) {
+          Files.copy(input, targetPath);
+        }
+        CreateWalker.copyAttributes(attributes, targetPath, FileAttributes.read(targetPath), true);
+      });
+    } else if (link && HardLinks.createLink(targetPath, shadowEntry.path, attributes.linkCount)) {
+      // Warning: shares the inode, and its attributes, with the shadow copy
+    } else {
+      // # try to perform a lightweight copy where the data blocks are copied only when modified
+      throttle.acquireBytes(attributes.size);
+      String source = shadowEntry.path.toString();
+      copyJobs.submit(() -> Command.exec("/bin/cp", "--reflink=auto", "--preserve=all", "--no-target-directory",
+        source, targetPath.toString()).waitFor());
+    }
+  }
+
+  private static final class RestoredDirectory {
+    private final Path path;
+    private final FileAttributes attributes;
+
+    private RestoredDirectory(Path path, FileAttributes attributes) {
+      this.path = path;
+      this.attributes = attributes;
+    }
+  }
+
+}
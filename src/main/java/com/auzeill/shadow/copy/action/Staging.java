@@ -0,0 +1,245 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.store.StoreWriter;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.Command;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A shadow copy is created in the "staging" directory of the shadow directory, and moved into the
+ * shadow directory only when complete. An append-only journal records checkpoints of the walk,
+ * so the next "create" resumes an interrupted one after its last completed entry.
+ */
+class Staging implements Closeable {
+
+  static final String DIRECTORY_NAME = "staging";
+  private static final String LOCK_FILE_NAME = "lock";
+  private static final String JOURNAL_SUFFIX = ".checkpoint";
+  private static final String FORMAT = "shadow-copy-checkpoint-1";
+
+  /**
+   * Progress of the shadow copy when the checkpoint was written.
+   */
+  static class Checkpoint {
+    /**
+     * Last entry completed, in walk order, with all the entries before it.
+     */
+    final Path completedPath;
+    final long durationMillis;
+    final long entryCount;
+    final long copiedBytes;
+    final long copiedFileBytes;
+    final int storeCheckpointCount;
+    final long packSize;
+
+    Checkpoint(Path completedPath, long durationMillis, long entryCount, long copiedBytes, long copiedFileBytes,
+      int storeCheckpointCount, long packSize) {
+      this.completedPath = completedPath;
+      this.durationMillis = durationMillis;
+      this.entryCount = entryCount;
+      this.copiedBytes = copiedBytes;
+      this.copiedFileBytes = copiedFileBytes;
+      this.storeCheckpointCount = storeCheckpointCount;
+      this.packSize = packSize;
+    }
+  }
+
+  private final Path shadowDirectory;
+  private final FileChannel lock;
+  final Path shadowCopy;
+  private final Path journal;
+  /**
+   * Last checkpoint of the interrupted shadow copy to resume, null for a new shadow copy.
+   */
+  @Nullable
+  final Checkpoint resumed;
+  private final long intervalNanos;
+  private final long startNanos = System.nanoTime();
+  private long lastCheckpointNanos = startNanos;
+
+  private Staging(Path shadowDirectory, FileChannel lock, Path shadowCopy, @Nullable Checkpoint resumed, long intervalNanos) {
+    this.shadowDirectory = shadowDirectory;
+    this.lock = lock;
+    this.shadowCopy = shadowCopy;
+    this.journal = journalPath(shadowCopy);
+    this.resumed = resumed;
+    this.intervalNanos = intervalNanos;
+  }
+
+  /**
+   * Waits until no other process creates a shadow copy of the same shadow directory, and returns
+   * the interrupted shadow copy to resume, or a new one.
+   */
+  static Staging open(Path shadowDirectory, Clock clock, long intervalSeconds) throws IOException {
+    Path stagingDirectory = shadowDirectory.resolve(DIRECTORY_NAME);
+    Files.createDirectories(stagingDirectory);
+    FileChannel lock = FileChannel.open(stagingDirectory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      lock.lock();
+      Path shadowCopy = null;
+      Checkpoint resumed = null;
+      for (Path interrupted : interruptedShadowCopies(stagingDirectory)) {
+        Checkpoint checkpoint = shadowCopy == null ? readLastCheckpoint(journalPath(interrupted)) : null;
+        if (checkpoint != null) {
+          shadowCopy = interrupted;
+          resumed = checkpoint;
+          deleteEntriesAfter(shadowCopy, checkpoint.completedPath);
+        } else {
+          PurgeAction.deleteRecursively(interrupted);
+          Files.deleteIfExists(journalPath(interrupted));
+        }
+      }
+      if (shadowCopy == null) {
+        shadowCopy = CreateAction.createShadowCopyDirectory(stagingDirectory, shadowDirectory, clock);
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(journalPath(shadowCopy), StandardOpenOption.CREATE_NEW))) {
+          out.writeUTF(FORMAT);
+        }
+      }
+      return new Staging(shadowDirectory, lock, shadowCopy, resumed, TimeUnit.SECONDS.toNanos(intervalSeconds));
+    } catch (OverlappingFileLockException ex) {
+      lock.close();
+      throw new ShadowCopyError("A shadow copy of '" + shadowDirectory + "' is already being created by this process");
+    } catch (IOException | RuntimeException ex) {
+      lock.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return interrupted shadow copies, the latest first
+   */
+  private static List<Path> interruptedShadowCopies(Path stagingDirectory) throws IOException {
+    try (Stream<Path> list = Files.list(stagingDirectory)) {
+      return list
+        .filter(path -> ActionUtils.SHADOW_COPY_FORMAT.matcher(path.getFileName().toString()).matches())
+        .sorted((path1, path2) -> path2.getFileName().compareTo(path1.getFileName()))
+        .collect(Collectors.toList());
+    }
+  }
+
+  private static Path journalPath(Path shadowCopy) {
+    return shadowCopy.resolveSibling(shadowCopy.getFileName() + JOURNAL_SUFFIX);
+  }
+
+  @Nullable
+  private static Checkpoint readLastCheckpoint(Path journal) throws IOException {
+    if (!Files.isRegularFile(journal)) {
+      return null;
+    }
+    Checkpoint checkpoint = null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+      if (!FORMAT.equals(in.readUTF())) {
+        return null;
+      }
+      while (true) {
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+        checkpoint = new Checkpoint(Paths.get(fields.readUTF()), fields.readLong(), fields.readLong(), fields.readLong(),
+          fields.readLong(), fields.readInt(), fields.readLong());
+      }
+    } catch (EOFException ex) {
+      // end of the journal, or record truncated by the interruption
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Deletes the entries following the given completed path in walk order, they were not completed.
+   */
+  private static void deleteEntriesAfter(Path shadowCopy, Path completedPath) throws IOException {
+    Path directory = shadowCopy;
+    for (Path name : completedPath) {
+      List<Path> children;
+      try (Stream<Path> list = Files.list(directory)) {
+        children = list.collect(Collectors.toList());
+      }
+      for (Path child : children) {
+        boolean isMetadata = directory.equals(shadowCopy) && child.getFileName().toString().equals(ActionUtils.DEFAULT_SHADOW_DIRECTORY_NAME);
+        if (!isMetadata && child.getFileName().compareTo(name) > 0) {
+          PurgeAction.deleteRecursively(child);
+        }
+      }
+      directory = directory.resolve(name);
+      if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+        return;
+      }
+    }
+  }
+
+  long durationMillis() {
+    long previousMillis = resumed != null ? resumed.durationMillis : 0;
+    return previousMillis + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  boolean isCheckpointDue() {
+    return System.nanoTime() - lastCheckpointNanos >= intervalNanos;
+  }
+
+  /**
+   * Appends a checkpoint into the journal, once the files of the completed entries and the store
+   * checkpoint are on the storage device.
+   */
+  void checkpoint(Checkpoint checkpoint) throws IOException, InterruptedException {
+    Command.exec("/bin/sync", "--file-system", shadowCopy.toString()).waitFor();
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(record)) {
+      out.writeInt(0);
+      out.writeUTF(checkpoint.completedPath.toString());
+      out.writeLong(checkpoint.durationMillis);
+      out.writeLong(checkpoint.entryCount);
+      out.writeLong(checkpoint.copiedBytes);
+      out.writeLong(checkpoint.copiedFileBytes);
+      out.writeInt(checkpoint.storeCheckpointCount);
+      out.writeLong(checkpoint.packSize);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+    buffer.putInt(0, buffer.remaining() - Integer.BYTES);
+    try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    lastCheckpointNanos = System.nanoTime();
+  }
+
+  /**
+   * Moves the completed shadow copy into the shadow directory.
+   */
+  Path publish() throws IOException {
+    StoreWriter.deleteCheckpoints(shadowCopy);
+    Path published = Files.move(shadowCopy, shadowDirectory.resolve(shadowCopy.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+    Files.delete(journal);
+    return published;
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.close();
+  }
+
+}
@@ -0,0 +1,120 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.LongIntMap;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Walks all the shadow copies in parallel, once, and attributes the size of each inode either
+ * to the only shadow copy referencing it (bytes freed by purging this shadow copy), or to the
+ * shared bytes when several shadow copies hard link it.
+ */
+public class UsageAction implements Action.Execute {
+
+  private static final String UNIX_ATTRIBUTES = "unix:dev,ino,mode,size";
+  private static final int TYPE_MASK = 0170000;
+  private static final int TYPE_DIRECTORY = 0040000;
+  private static final int NO_OWNER = -1;
+  private static final int SHARED = -2;
+
+  @Override
+  public void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, 0);
+    List<Path> history = ActionUtils.shadowCopyHistory(shadowDirectory);
+    Usage usage = new Usage(history.size());
+    try (JobPool jobPool = new JobPool(ActionUtils.getJobs(arguments))) {
+      JobPool.Group walkers = jobPool.newGroup();
+      for (int i = 0; i < history.size(); i++) {
+        int shadowCopyIndex = i;
+        walkers.submit(() -> usage.walk(history.get(shadowCopyIndex), shadowCopyIndex));
+      }
+      walkers.await();
+    }
+    boolean noIndex = arguments.options.containsKey(Option.NO_INDEX);
+    for (int i = 0; i < history.size(); i++) {
+      String line = history.get(i) + " (exclusive: " + usage.exclusiveBytes.get(i) + " bytes)";
+      out.println(noIndex ? line : ((history.size() - i) + ": " + line));
+    }
+    out.println("shared: " + usage.sharedBytes.get() + " bytes");
+  }
+
+  private static class Usage {
+
+    private final AtomicLongArray exclusiveBytes;
+    private final AtomicLong sharedBytes = new AtomicLong();
+    private final Map<Long, InodeOwners> ownersByDevice = new ConcurrentHashMap<>();
+
+    private Usage(int shadowCopyCount) {
+      exclusiveBytes = new AtomicLongArray(shadowCopyCount);
+    }
+
+    private void walk(Path path, int shadowCopyIndex) throws IOException {
+      Map<String, Object> attributes = Files.readAttributes(path, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+      long size = (Long) attributes.get("size");
+      InodeOwners owners = ownersByDevice.computeIfAbsent((Long) attributes.get("dev"), device -> new InodeOwners());
+      int previousOwner = owners.addOwner((Long) attributes.get("ino"), shadowCopyIndex);
+      if (previousOwner == NO_OWNER) {
+        exclusiveBytes.addAndGet(shadowCopyIndex, size);
+      } else if (previousOwner != SHARED && previousOwner != shadowCopyIndex) {
+        exclusiveBytes.addAndGet(previousOwner, -size);
+        sharedBytes.addAndGet(size);
+      }
+      if ((((Integer) attributes.get("mode")) & TYPE_MASK) == TYPE_DIRECTORY) {
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+          for (Path child : children) {
+            walk(child, shadowCopyIndex);
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Owner shadow copy index by inode number, split in stripes to limit lock contention.
+   */
+  private static class InodeOwners {
+
+    private static final int STRIPE_COUNT = 64;
+
+    private final LongIntMap[] stripes = new LongIntMap[STRIPE_COUNT];
+
+    private InodeOwners() {
+      for (int i = 0; i < STRIPE_COUNT; i++) {
+        stripes[i] = new LongIntMap();
+      }
+    }
+
+    /**
+     * @return the owner before adding the given one: NO_OWNER, SHARED or a shadow copy index
+     */
+    private int addOwner(long inode, int shadowCopyIndex) {
+      LongIntMap stripe = stripes[(int) ((inode ^ (inode >>> 32)) & (STRIPE_COUNT - 1))];
+      synchronized (stripe) {
+        int owner = stripe.get(inode, NO_OWNER);
+        if (owner == NO_OWNER) {
+          stripe.put(inode, shadowCopyIndex);
+        } else if (owner != SHARED && owner != shadowCopyIndex) {
+          stripe.put(inode, SHARED);
+        }
+        return owner;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,68 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class VerifyAction implements Action.Execute {
+
+  @Override
+  public void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException {
+    List<String> args = arguments.actionArguments;
+    if (args.size() > 2) {
+      throw new ShadowCopyError("Expects at most 2 parameter.");
+    }
+    int sourceDirectoryIndex = -1;
+    int index = 0;
+    if (!args.isEmpty() && args.get(args.size() - 1).matches("[0-9]++")) {
+      index = Integer.parseInt(args.get(args.size() - 1));
+      sourceDirectoryIndex = args.size() == 2 ? 0 : -1;
+    } else if (args.size() == 2) {
+      throw new ShadowCopyError("Invalid shadow copy index: " + args.get(1));
+    } else if (args.size() == 1) {
+      sourceDirectoryIndex = 0;
+    }
+    Path shadowDirectory = ActionUtils.resolveShadowDirectoryPath(arguments, sourceDirectoryIndex);
+    List<Path> shadowCopies;
+    if (index == 0) {
+      shadowCopies = ActionUtils.shadowCopyHistory(shadowDirectory);
+    } else {
+      Path shadowCopy = ActionUtils.findLastShadowCopy(shadowDirectory, index);
+      if (shadowCopy == null) {
+        throw new ShadowCopyError("No shadow copy at index: " + index);
+      }
+      shadowCopies = Collections.singletonList(shadowCopy);
+    }
+    Throttle throttle = new Throttle(ActionUtils.getSize(arguments, Option.MAX_BYTES_PER_SECOND, 0), 0);
+    long start = System.nanoTime();
+    VerifyWalker walker;
+    try (JobPool jobPool = new JobPool(ActionUtils.getJobs(arguments))) {
+      walker = new VerifyWalker(jobPool, throttle);
+      for (Path shadowCopy : shadowCopies) {
+        walker.verify(shadowCopy);
+      }
+      walker.await();
+    }
+    List<String> mismatches = walker.mismatches();
+    mismatches.forEach(out::println);
+    long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    long readBytes = walker.readBytes.get();
+    out.println(String.format("verified: %d shadow copies, %d files, %d without hash, %d bytes read (%d.%03d s, %d bytes/s)",
+      shadowCopies.size(), walker.fileCount.get(), walker.unverifiedCount.get(), readBytes,
+      durationMillis / 1000, durationMillis % 1000, readBytes * 1000 / Math.max(1, durationMillis)));
+    if (!mismatches.isEmpty()) {
+      throw new ShadowCopyError(mismatches.size() + " mismatches found.");
+    }
+  }
+
+}
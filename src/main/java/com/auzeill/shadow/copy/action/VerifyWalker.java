@@ -0,0 +1,213 @@
+package com.auzeill.shadow.copy.action;
+
+import com.auzeill.shadow.copy.store.FileStates;
+import com.auzeill.shadow.copy.store.StoreIndex;
+import com.auzeill.shadow.copy.store.StoredFile;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import com.auzeill.shadow.copy.utils.JobPool;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Reads again the regular files of shadow copies, in parallel, and compares them with the hashes recorded by
+ * "hash" (see {@link HashWalker}), by "create --detect hash", and by the store index. A file of the shadow copy
+ * tree which is not the inode it was hashed from (e.g. a broken hard link) is a mismatch without reading it.
+ * An inode, or the segments of a stored file, shared by several shadow copies is read only once.
+ */
+public class VerifyWalker {
+
+  @FunctionalInterface
+  private interface ContentReader {
+    InputStream open() throws IOException;
+  }
+
+  private final JobPool.Group jobs;
+  private final Throttle throttle;
+  private final Map<Object, CompletableFuture<byte[]>> hashesByContent = new ConcurrentHashMap<>();
+  private final List<String> mismatches = Collections.synchronizedList(new ArrayList<>());
+  final AtomicLong fileCount = new AtomicLong();
+  final AtomicLong unverifiedCount = new AtomicLong();
+  final AtomicLong readBytes = new AtomicLong();
+
+  public VerifyWalker(JobPool jobPool, Throttle throttle) {
+    this.jobs = jobPool.newGroup();
+    this.throttle = throttle;
+  }
+
+  /**
+   * Submits the verification of the files of the given shadow copy, see {@link #await()}.
+   */
+  public void verify(Path shadowCopy) throws IOException, InterruptedException {
+    FileStates hashes = FileStates.loadHashes(shadowCopy);
+    FileStates states = FileStates.load(shadowCopy);
+    Set<String> walkedPaths = new HashSet<>();
+    walk(shadowCopy, shadowCopy, ActionUtils.metadataDirectory(shadowCopy), hashes, states, walkedPaths);
+    for (String path : hashes.paths()) {
+      if (!walkedPaths.contains(path)) {
+        mismatch(shadowCopy, path, "missing");
+      }
+    }
+    StoreIndex store = StoreIndex.load(shadowCopy);
+    Map<String, Object> storeFileKeys = new HashMap<>();
+    for (StoredFile file : store.files()) {
+      verifyStoredFile(shadowCopy, store, file, storeFileKeys);
+    }
+  }
+
+  /**
+   * Waits for the files being read.
+   */
+  public void await() throws IOException, InterruptedException {
+    jobs.await();
+  }
+
+  /**
+   * @return the mismatches found, sorted
+   */
+  public List<String> mismatches() {
+    List<String> sorted = new ArrayList<>(mismatches);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private void walk(Path shadowCopy, Path directory, Path metadataDirectory, FileStates hashes, FileStates states,
+    Set<String> walkedPaths) throws IOException, InterruptedException {
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+      for (Path child : children) {
+        FileAttributes attributes = FileAttributes.read(child);
+        if (attributes.isDirectory() && !child.equals(metadataDirectory)) {
+          walk(shadowCopy, child, metadataDirectory, hashes, states, walkedPaths);
+        } else if (attributes.isRegularFile()) {
+          String path = shadowCopy.relativize(child).toString();
+          walkedPaths.add(path);
+          verifyFile(shadowCopy, path, child, attributes, hashes.get(path), states.get(path));
+        }
+      }
+    }
+  }
+
+  private void verifyFile(Path shadowCopy, String path, Path file, FileAttributes attributes, @Nullable FileStates.State hashed,
+    @Nullable FileStates.State state) throws IOException, InterruptedException {
+    fileCount.incrementAndGet();
+    byte[] expectedHash = null;
+    if (hashed != null) {
+      if (!hashed.isSameInode(attributes)) {
+        mismatch(shadowCopy, path, "not the inode hashed, size or modification time");
+        return;
+      }
+      expectedHash = hashed.hash;
+    } else if (state != null && state.size == attributes.size && state.lastModifiedTime.equals(attributes.lastModifiedTime)) {
+      expectedHash = state.hash;
+    }
+    if (expectedHash == null) {
+      unverifiedCount.incrementAndGet();
+      return;
+    }
+    verifyContent(shadowCopy, path, attributes.fileKey, attributes.size, expectedHash, () -> Files.newInputStream(file));
+  }
+
+  private void verifyStoredFile(Path shadowCopy, StoreIndex store, StoredFile file, Map<String, Object> storeFileKeys)
+    throws IOException, InterruptedException {
+    String path = ActionUtils.resolve(Paths.get(file.directory), file.name).toString();
+    fileCount.incrementAndGet();
+    if (file.hash == null) {
+      unverifiedCount.incrementAndGet();
+      return;
+    }
+    // the segments of the linked store files identify the content shared with other shadow copies
+    List<Object> contentKey = new ArrayList<>();
+    for (StoredFile.Segment segment : file.segments) {
+      Object storeFileKey = storeFileKeys.computeIfAbsent(segment.storeFile, storeFile -> storeFileKey(store, storeFile));
+      if (storeFileKey == null) {
+        mismatch(shadowCopy, path, "missing store file " + segment.storeFile);
+        return;
+      }
+      contentKey.addAll(Arrays.asList(storeFileKey, segment.offset, segment.length));
+    }
+    verifyContent(shadowCopy, path, contentKey, file.size, file.hash, () -> store.open(file));
+  }
+
+  @Nullable
+  private static Object storeFileKey(StoreIndex store, String storeFile) {
+    try {
+      return store.fileKey(storeFile);
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  private void verifyContent(Path shadowCopy, String path, @Nullable Object contentKey, long size, byte[] expectedHash,
+    ContentReader reader) throws IOException, InterruptedException {
+    jobs.submit(() -> {
+      try {
+        byte[] hash = contentHash(contentKey, size, reader);
+        if (!Arrays.equals(hash, expectedHash)) {
+          mismatch(shadowCopy, path, "content hash mismatch");
+        }
+      } catch (IOException ex) {
+        mismatch(shadowCopy, path, "unreadable: " + ex.getMessage());
+      }
+    });
+  }
+
+  /**
+   * @return the hash of the content, read once for all the files sharing the same content key
+   */
+  private byte[] contentHash(@Nullable Object contentKey, long size, ContentReader reader) throws IOException, InterruptedException {
+    if (contentKey == null) {
+      return read(size, reader);
+    }
+    CompletableFuture<byte[]> hash = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = hashesByContent.putIfAbsent(contentKey, hash);
+    if (existing != null) {
+      try {
+        return existing.get();
+      } catch (ExecutionException ex) {
+        JobPool.rethrow(ex.getCause());
+        throw new IllegalStateException(ex);
+      }
+    }
+    try {
+      byte[] value = read(size, reader);
+      hash.complete(value);
+      return value;
+    } catch (IOException | InterruptedException | RuntimeException ex) {
+      hash.completeExceptionally(ex);
+      throw ex;
+    }
+  }
+
+  private byte[] read(long size, ContentReader reader) throws IOException, InterruptedException {
+    throttle.acquireBytes(size);
+    try (InputStream input = reader.open()) {
+      byte[] hash = HashUtils.hash(input, Long.MAX_VALUE, HashUtils.LARGE_BUFFER_SIZE);
+      readBytes.addAndGet(size);
+      return hash;
+    }
+  }
+
+  private void mismatch(Path shadowCopy, String path, String reason) {
+    mismatches.add("[CORRUPT ] " + shadowCopy.resolve(path) + " (" + reason + ")");
+  }
+
+}
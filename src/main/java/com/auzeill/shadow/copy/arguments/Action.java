@@ -1,9 +1,15 @@
 package com.auzeill.shadow.copy.arguments;
 
 import com.auzeill.shadow.copy.action.CreateAction;
+import com.auzeill.shadow.copy.action.DaemonAction;
 import com.auzeill.shadow.copy.action.DiffAction;
+import com.auzeill.shadow.copy.action.HashAction;
 import com.auzeill.shadow.copy.action.HistoryAction;
+import com.auzeill.shadow.copy.action.LogAction;
 import com.auzeill.shadow.copy.action.PurgeAction;
+import com.auzeill.shadow.copy.action.RestoreAction;
+import com.auzeill.shadow.copy.action.UsageAction;
+import com.auzeill.shadow.copy.action.VerifyAction;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
@@ -11,40 +17,112 @@ import java.util.List;
 import java.util.function.Supplier;
 
 public enum Action {
-  CREATE("create", " [ <target-directory> ]\n" +
+  CREATE("create", " [ <target-directory> ... ]\n" +
     "    # Create a shadow copy of the current directory into a new sub-directory of '.shadow-copy':\n" +
     "    shadow-copy create\n" +
     "    # Copy the '/home/paul' directory into a new sub-directory of '/home/paul/.shadow-copy':\n" +
     "    shadow-copy create /home/paul\n" +
     "    # Copy the '/home/paul' directory into a new sub-directory of '/tmp/test':\n" +
-    "    shadow-copy create /home/paul --shadow-directory /tmp/test",
+    "    shadow-copy create /home/paul --shadow-directory /tmp/test\n" +
+    "    # Copy '/etc', '/home' and '/opt' concurrently, each one into its own '.shadow-copy' sub-directory:\n" +
+    "    shadow-copy create /etc /home /opt --jobs 8\n" +
+    "    # Limit the impact on a busy host to 20 MB and 500 files per second:\n" +
+    "    shadow-copy create /var/lib --max-bytes-per-second 20000000 --max-files-per-second 500\n" +
+    "    # Print the changes since the last shadow copy, then the path of the new one:\n" +
+    "    shadow-copy create --diff\n" +
+    "    # Also detect the files written by tools restoring their modification time:\n" +
+    "    shadow-copy create --detect ctime\n" +
+    "    # Then compute the content hashes of the new shadow copy, for the next 'diff':\n" +
+    "    shadow-copy create --hash\n" +
+    "    # Only copy the 'projects/app' sub-tree of '/home/paul', link the rest to the last shadow copy:\n" +
+    "    shadow-copy create /home/paul --only projects/app",
     CreateAction::new,
-    Option.SHADOW_DIRECTORY, Option.SHADOW_INDEX),
+    Option.SHADOW_DIRECTORY, Option.SHADOW_INDEX, Option.JOBS, Option.MAX_BYTES_PER_SECOND, Option.MAX_FILES_PER_SECOND,
+    Option.CHECKPOINT_INTERVAL, Option.SORT_THRESHOLD, Option.PACK_THRESHOLD, Option.CHUNK_THRESHOLD, Option.DETECT_APPENDS,
+    Option.DIFF, Option.DETECT, Option.HASH, Option.ONLY),
   HISTORY("history", " [ <target-directory> ]\n" +
     "    # Show the sorted list of shadow copy index and path, index 1 is the latest:\n" +
     "    shadow-copy history\n" +
     "    # Show only the latest shadow copy path:\n" +
     "    shadow-copy history -n 1 --no-index\n" +
-    "    # Show size of each shadow copies:\n" +
-    "    shadow-copy history --no-index | xargs du -hs",
+    "    # Show the duration, entry count, copied bytes, unique bytes and effective rates of each shadow copy:\n" +
+    "    shadow-copy history --long",
     HistoryAction::new,
-    Option.SHADOW_DIRECTORY, Option.NO_INDEX, Option.NUMBER),
-  DIFF("diff", " [ <target-directory> ] [ <index> ]  [ <index> ]\n" +
+    Option.SHADOW_DIRECTORY, Option.NO_INDEX, Option.NUMBER, Option.LONG),
+  DIFF("diff", " [ <target-directory> ] [ <index> ]  [ <index> ] | [ <target-directory> ] <index>..<index>\n" +
+    "    [ -- <relative-path> ... ]\n" +
     "    # Compare the current directory with the last shadow copy:\n" +
     "    shadow-copy diff\n" +
     "    # Compare the current directory with the given shadow copy index:\n" +
     "    shadow-copy diff 2\n" +
     "    # Compare two shadow copies:\n" +
-    "    shadow-copy diff 2 3",
+    "    shadow-copy diff 2 3\n" +
+    "    # Compare the current directory with the last shadow copy, including the modified lines:\n" +
+    "    shadow-copy diff --content\n" +
+    "    # Compare the 10 latest shadow copies, print the net change of each changed path followed by\n" +
+    "    # its change in each shadow copy of the range:\n" +
+    "    shadow-copy diff 10..1\n" +
+    "    # Ignore the files whose modification time changed without content change:\n" +
+    "    shadow-copy diff --detect hash\n" +
+    "    # Only compare the 'ssh' sub-tree and the 'hosts' file of '/etc' with the last shadow copy:\n" +
+    "    shadow-copy diff /etc -- ssh hosts",
     DiffAction::new,
-    Option.SHADOW_DIRECTORY, Option.SHADOW_INDEX),
+    Option.SHADOW_DIRECTORY, Option.SHADOW_INDEX, Option.CONTENT, Option.JOBS, Option.SORT_THRESHOLD,
+    Option.DETECT),
+  HASH("hash", " [ <target-directory> ] [ <index> ]\n" +
+    "    # Compute the content hashes of the regular files of the last shadow copy, on virtual threads, so 'diff'\n" +
+    "    # compares them without reading the files. Hard links of the previous shadow copy are not read again:\n" +
+    "    shadow-copy hash\n" +
+    "    # Hash the second latest shadow copy, reading at most 4 files at once:\n" +
+    "    shadow-copy hash 2 --jobs 4",
+    HashAction::new,
+    Option.SHADOW_DIRECTORY, Option.JOBS, Option.MAX_BYTES_PER_SECOND),
+  VERIFY("verify", " [ <target-directory> ] [ <index> ]\n" +
+    "    # Read again the regular files of all the shadow copies, in parallel, and report the files whose content\n" +
+    "    # does not match their recorded hash, and the hashed files no more hard linked. A shared inode is read once:\n" +
+    "    shadow-copy verify\n" +
+    "    # Verify only the latest shadow copy, reading at most 8 files at once:\n" +
+    "    shadow-copy verify 1 --jobs 8",
+    VerifyAction::new,
+    Option.SHADOW_DIRECTORY, Option.JOBS, Option.MAX_BYTES_PER_SECOND),
+  RESTORE("restore", " [ <target-directory> ] <index> [ <relative-path> ... ]\n" +
+    "    # Print the entries of the 'ssh' sub-tree of '/etc' which differ from the second latest shadow copy:\n" +
+    "    shadow-copy restore /etc 2 ssh --dry-run\n" +
+    "    # Restore them, the entries only in '/etc/ssh' are kept:\n" +
+    "    shadow-copy restore /etc 2 ssh\n" +
+    "    # Restore the whole latest shadow copy of the current directory into another directory:\n" +
+    "    shadow-copy restore 1 --to /tmp/restored",
+    RestoreAction::new,
+    Option.SHADOW_DIRECTORY, Option.TO, Option.DRY_RUN, Option.LINK, Option.JOBS, Option.MAX_BYTES_PER_SECOND,
+    Option.SORT_THRESHOLD, Option.DETECT),
+  LOG("log", " [ <target-directory> ] <relative-path>\n" +
+    "    # List the shadow copies where 'ssh/sshd_config' of '/etc' was created, modified, changed or deleted\n" +
+    "    # since its previous shadow copy:\n" +
+    "    shadow-copy log /etc ssh/sshd_config\n" +
+    "    # List the changes of the 'ssh' sub-tree of the current directory:\n" +
+    "    shadow-copy log ssh",
+    LogAction::new,
+    Option.SHADOW_DIRECTORY, Option.NO_INDEX),
+  USAGE("usage", " [ <target-directory> ]\n" +
+    "    # Show the bytes only used by each shadow copy, freed by purging it, and the bytes shared\n" +
+    "    # by several shadow copies through hard links:\n" +
+    "    shadow-copy usage",
+    UsageAction::new,
+    Option.SHADOW_DIRECTORY, Option.NO_INDEX, Option.JOBS),
   PURGE("purge", " [ <target-directory> ]\n" +
     "    # Only keep the 10 latest shadow copies:\n" +
     "    shadow-copy purge\n" +
     "    # Only keep the 5 latest shadow copies:\n" +
     "    shadow-copy purge -n 5",
     PurgeAction::new,
-    Option.SHADOW_DIRECTORY, Option.NUMBER);
+    Option.SHADOW_DIRECTORY, Option.NUMBER),
+  DAEMON("daemon", " --socket <socket-path>\n" +
+    "    # Keep a JVM running, with its filters and store indexes cached, to execute the forwarded actions:\n" +
+    "    shadow-copy daemon --socket \"$XDG_RUNTIME_DIR/shadow-copy.sock\" &\n" +
+    "    # Forward a 'create' of the current directory to the daemon, its output is streamed back:\n" +
+    "    shadow-copy create --socket \"$XDG_RUNTIME_DIR/shadow-copy.sock\"",
+    DaemonAction::new,
+    Option.SOCKET);
 
   public interface Execute {
     void execute(PrintStream out, Arguments arguments) throws IOException, InterruptedException;
@@ -2,6 +2,7 @@ package com.auzeill.shadow.copy.arguments;
 
 import com.auzeill.shadow.copy.ShadowCopyError;
 import com.auzeill.shadow.copy.Version;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
@@ -13,18 +14,34 @@ public class Arguments {
   public final Action action;
   public final Map<Option, String> options;
   public final List<String> actionArguments;
+  /**
+   * Index in actionArguments of the first argument given after '--', -1 without '--'.
+   */
+  public final int separatorIndex;
+  /**
+   * Directory used to resolve relative paths, null for the current directory of the process.
+   */
+  @Nullable
+  public final Path workingDirectory;
 
   public Arguments(String... arguments) {
+    this(null, arguments);
+  }
+
+  public Arguments(@Nullable Path workingDirectory, String... arguments) {
+    this.workingDirectory = workingDirectory;
     options = new EnumMap<>(Option.class);
     actionArguments = new ArrayList<>();
     if (arguments.length == 0) {
       options.put(Option.HELP, "");
     }
     boolean acceptMoreOptions = true;
+    int separator = -1;
     int i = 0;
     while (i < arguments.length) {
       Option option = null;
       if (arguments[i].equals("--")) {
+        separator = acceptMoreOptions ? actionArguments.size() : separator;
         acceptMoreOptions = false;
       } else {
         option = acceptMoreOptions ? appendOption(options, arguments, i) : null;
@@ -35,6 +52,22 @@ public class Arguments {
       i += (option != null && option.hasOneArgument) ? 2 : 1;
     }
     action = validateActionAndOptions(actionArguments, options);
+    // the action name is removed from the arguments
+    separatorIndex = separator < 0 ? -1 : Math.max(0, separator - 1);
+  }
+
+  /**
+   * @return the action arguments given before '--', all of them without '--'
+   */
+  public List<String> argumentsBeforeSeparator() {
+    return separatorIndex < 0 ? actionArguments : actionArguments.subList(0, separatorIndex);
+  }
+
+  /**
+   * @return the action arguments given after '--', none without '--'
+   */
+  public List<String> argumentsAfterSeparator() {
+    return separatorIndex < 0 ? List.of() : actionArguments.subList(separatorIndex, actionArguments.size());
   }
 
   private static void appendArgument(List<String> actionArguments, String arg, boolean acceptOptions) {
@@ -76,7 +109,7 @@ public class Arguments {
         throw new ShadowCopyError("Unknown action '" + actionName + "', list valid action with --help");
       } else {
         options.keySet().stream()
-          .filter(option -> !option.equals(Option.HELP) && !action.validOptions.contains(option))
+          .filter(option -> !option.equals(Option.HELP) && !option.equals(Option.SOCKET) && !action.validOptions.contains(option))
           .findFirst().ifPresent(option -> {
             throw new ShadowCopyError("Option '" + option.flag + "' can not be used with action '" + action.command + "'");
           });
@@ -7,14 +7,63 @@ public enum Option {
     "    Display the shadow-copy version."),
   HELP("--help", false, "\n" +
     "    Show this help."),
+  SOCKET("--socket", true, " <socket-path>\n" +
+    "    Unix domain socket of the daemon. Any action except 'daemon' is forwarded to the daemon listening on it."),
   SHADOW_DIRECTORY("--shadow-directory", true, " <directory-path>\n" +
     "    Replace usage of a '.shadow-copy' sub-directory by the given directory path."),
   SHADOW_INDEX("--shadow-index", true, " <index>\n" +
     "    Force the index of last shadow copy to use. index >=1, default: 1"),
   NO_INDEX("--no-index", false, "\n" +
     "    Do not prefix shadow history by index."),
+  CONTENT("--content", false, "\n" +
+    "    Also print a unified diff of the modified text files of at most 1 MiB."),
+  LONG("--long", false, "\n" +
+    "    Also show the duration, entry count, copied bytes, unique bytes and effective rates of each shadow copy."),
   NUMBER("-n", true, " <size>\n" +
-    "    Limit the history list or the purge list to the given number.");
+    "    Limit the history list or the purge list to the given number."),
+  JOBS("--jobs", true, " <count>\n" +
+    "    Maximum number of concurrent copy or walk jobs, shared by all source directories. default: number of processors"),
+  MAX_BYTES_PER_SECOND("--max-bytes-per-second", true, " <size>\n" +
+    "    Limit the bytes copied, hashed or packed per second by all jobs, lowered while the latency of file\n" +
+    "    system operations rises. default: 0 (unlimited)"),
+  MAX_FILES_PER_SECOND("--max-files-per-second", true, " <count>\n" +
+    "    Limit the directory listings and file attribute reads per second by all jobs, lowered while the\n" +
+    "    latency of file system operations rises. default: 0 (unlimited)"),
+  CHECKPOINT_INTERVAL("--checkpoint-interval", true, " <seconds>\n" +
+    "    Minimum seconds between two checkpoints of a shadow copy being created, an interrupted 'create' is\n" +
+    "    resumed from its last checkpoint by the next one. default: 60"),
+  SORT_THRESHOLD("--sort-threshold", true, " <count>\n" +
+    "    Directories of more than <count> entries are sorted by runs written into temporary files, instead of\n" +
+    "    in memory, to bound the memory used by huge directories. default: 100000"),
+  PACK_THRESHOLD("--pack-threshold", true, " <size>\n" +
+    "    Append new regular files of at most <size> bytes into one pack file per shadow copy, instead of\n" +
+    "    creating one file per entry. default: 0 (disabled)"),
+  CHUNK_THRESHOLD("--chunk-threshold", true, " <size>\n" +
+    "    Store new regular files of at least <size> bytes as 1 MiB chunks, only chunks missing from the\n" +
+    "    last shadow copy are appended into the pack file. default: 0 (disabled)"),
+  DIFF("--diff", false, "\n" +
+    "    Print the changes since the last shadow copy, like 'diff' before 'create', found by the same walk\n" +
+    "    of the source directory."),
+  DETECT_APPENDS("--detect-appends", false, "\n" +
+    "    When the last shadow copy of a regular file is a prefix of its new content (e.g. log files), only\n" +
+    "    append the new data into the pack file."),
+  DETECT("--detect", true, " mtime|ctime|hash\n" +
+    "    How a regular file of the same size is found unchanged: same modification time, same status change\n" +
+    "    time and inode as recorded by the last shadow copy, or same content hash, only read when the state\n" +
+    "    of the file changed. 'create' records the states, except for mtime. default: mtime"),
+  HASH("--hash", false, "\n" +
+    "    Once the new shadow copy is complete and printed, compute the content hashes of its regular files, like\n" +
+    "    the 'hash' action."),
+  ONLY("--only", true, " <relative-path>\n" +
+    "    Only walk the given sub-tree of the source directory, the other entries are linked to the last shadow\n" +
+    "    copy without reading the source directory."),
+  TO("--to", true, " <directory-path>\n" +
+    "    Restore into the given directory instead of the source directory."),
+  DRY_RUN("--dry-run", false, "\n" +
+    "    Only print the entries which would be restored, compared like 'diff' does."),
+  LINK("--link", false, "\n" +
+    "    Hard link the restored regular files of the shadow copy tree instead of copying them, a restored file\n" +
+    "    then shares its content and attributes with the shadow copy, read-only use only.");
 
   public final String flag;
   public final boolean hasOneArgument;
@@ -0,0 +1,169 @@
+package com.auzeill.shadow.copy.catalog;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Append-only list of the shadow copies of a shadow directory, one line per created or deleted
+ * shadow copy, so the history does not need to list the shadow directory. Shadow directories
+ * without catalog file, created by previous versions, fall back to the directory listing.
+ * A shadow copy is recorded before its publication, so an entry whose directory is missing, not
+ * published or removed without "purge", is ignored.
+ */
+public class Catalog {
+
+  public static final String FILE_NAME = "catalog";
+
+  private static final String FORMAT = "shadow-copy-catalog-1";
+  private static final String CREATED = "+";
+  private static final String DELETED = "-";
+  private static final String SEPARATOR = "\t";
+
+  public final Path shadowDirectory;
+  private final TreeMap<String, CatalogEntry> entries;
+
+  private Catalog(Path shadowDirectory, TreeMap<String, CatalogEntry> entries) {
+    this.shadowDirectory = shadowDirectory;
+    this.entries = entries;
+  }
+
+  public static Catalog load(Path shadowDirectory) throws IOException {
+    Path catalogPath = shadowDirectory.resolve(FILE_NAME);
+    if (!Files.isRegularFile(catalogPath)) {
+      return new Catalog(shadowDirectory, listShadowDirectory(shadowDirectory));
+    }
+    TreeMap<String, CatalogEntry> entries = new TreeMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(catalogPath, UTF_8)) {
+      String format = reader.readLine();
+      if (!FORMAT.equals(format)) {
+        throw new ShadowCopyError("Unsupported catalog format '" + format + "' in: " + catalogPath);
+      }
+      String line = reader.readLine();
+      while (line != null) {
+        parseLine(line, entries);
+        line = reader.readLine();
+      }
+    }
+    entries.keySet().removeIf(name -> !Files.isDirectory(shadowDirectory.resolve(name)));
+    return new Catalog(shadowDirectory, entries);
+  }
+
+  private static void parseLine(String line, Map<String, CatalogEntry> entries) {
+    String[] fields = line.split(SEPARATOR, -1);
+    try {
+      // the link rotation count is missing from the lines of previous versions
+      if ((fields.length == 6 || fields.length == 7) && fields[0].equals(CREATED)) {
+        entries.put(fields[1], new CatalogEntry(fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+          Long.parseLong(fields[4]), Long.parseLong(fields[5]), fields.length == 7 ? Long.parseLong(fields[6]) : 0));
+      } else if (fields.length == 2 && fields[0].equals(DELETED)) {
+        entries.remove(fields[1]);
+      }
+    } catch (NumberFormatException ex) {
+      // ignore a line truncated by an interrupted append, the next append starts on a new line
+    }
+  }
+
+  private static TreeMap<String, CatalogEntry> listShadowDirectory(Path shadowDirectory) throws IOException {
+    TreeMap<String, CatalogEntry> entries = new TreeMap<>();
+    if (Files.isDirectory(shadowDirectory)) {
+      try (Stream<Path> fileList = Files.list(shadowDirectory)) {
+        fileList
+          .map(path -> path.getFileName().toString())
+          .filter(name -> ActionUtils.SHADOW_COPY_FORMAT.matcher(name).matches())
+          .forEach(name -> entries.put(name, CatalogEntry.unknown(name)));
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * @return shadow copy paths sorted from the oldest to the latest
+   */
+  public List<Path> history() {
+    return entries.keySet().stream()
+      .map(shadowDirectory::resolve)
+      .collect(Collectors.toList());
+  }
+
+  @Nullable
+  public CatalogEntry get(String name) {
+    return entries.get(name);
+  }
+
+  public static void created(Path shadowDirectory, CatalogEntry entry) throws IOException {
+    append(shadowDirectory, String.join(SEPARATOR, CREATED, entry.name, Long.toString(entry.durationMillis),
+      Long.toString(entry.entryCount), Long.toString(entry.copiedBytes), Long.toString(entry.uniqueBytes),
+      Long.toString(entry.linkRotationCount)), entry.name);
+  }
+
+  public static void deleted(Path shadowDirectory, String name) throws IOException {
+    append(shadowDirectory, DELETED + SEPARATOR + name, name);
+  }
+
+  private static void append(Path shadowDirectory, String line, String name) throws IOException {
+    Path catalogPath = shadowDirectory.resolve(FILE_NAME);
+    if (!Files.isRegularFile(catalogPath)) {
+      initialize(shadowDirectory, catalogPath, name);
+    }
+    // one write per line, O_APPEND keeps concurrent appends of several processes on separate lines
+    String prefix = endsWithNewLine(catalogPath) ? "" : "\n";
+    try (FileChannel channel = FileChannel.open(catalogPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      ByteBuffer buffer = ByteBuffer.wrap((prefix + line + "\n").getBytes(UTF_8));
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private static boolean endsWithNewLine(Path catalogPath) throws IOException {
+    try (FileChannel channel = FileChannel.open(catalogPath, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size == 0) {
+        return true;
+      }
+      ByteBuffer lastByte = ByteBuffer.allocate(1);
+      return channel.read(lastByte, size - 1) == 1 && lastByte.get(0) == '\n';
+    }
+  }
+
+  /**
+   * Imports the shadow copies created without catalog, the catalog file appears atomically
+   * through a hard link of a fully written temporary file.
+   */
+  private static void initialize(Path shadowDirectory, Path catalogPath, String excludedName) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add(FORMAT);
+    for (String name : listShadowDirectory(shadowDirectory).keySet()) {
+      if (!name.equals(excludedName)) {
+        lines.add(String.join(SEPARATOR, CREATED, name, "-1", "-1", "-1", "-1"));
+      }
+    }
+    Path temporaryPath = Files.createTempFile(shadowDirectory, FILE_NAME, ".tmp");
+    try {
+      Files.write(temporaryPath, lines, UTF_8);
+      Files.createLink(catalogPath, temporaryPath);
+    } catch (FileAlreadyExistsException ex) {
+      // initialized by a concurrent process
+    } finally {
+      Files.delete(temporaryPath);
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package com.auzeill.shadow.copy.catalog;
+
+/**
+ * Metadata of one shadow copy, -1 for unknown values of shadow copies created without catalog.
+ */
+public class CatalogEntry {
+
+  public static final long UNKNOWN = -1;
+
+  public final String name;
+  public final long durationMillis;
+  public final long entryCount;
+  /**
+   * Size of the regular files read from the source directory, files reused from the last shadow copy excluded.
+   */
+  public final long copiedBytes;
+  /**
+   * Size of the data written into the shadow copy and not shared with the last shadow copy.
+   */
+  public final long uniqueBytes;
+  /**
+   * Number of unchanged files copied instead of linked to the last shadow copy, because of the hard link limit.
+   */
+  public final long linkRotationCount;
+
+  public CatalogEntry(String name, long durationMillis, long entryCount, long copiedBytes, long uniqueBytes) {
+    this(name, durationMillis, entryCount, copiedBytes, uniqueBytes, 0);
+  }
+
+  public CatalogEntry(String name, long durationMillis, long entryCount, long copiedBytes, long uniqueBytes,
+    long linkRotationCount) {
+    this.name = name;
+    this.durationMillis = durationMillis;
+    this.entryCount = entryCount;
+    this.copiedBytes = copiedBytes;
+    this.uniqueBytes = uniqueBytes;
+    this.linkRotationCount = linkRotationCount;
+  }
+
+  public static CatalogEntry unknown(String name) {
+    return new CatalogEntry(name, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+  }
+
+  public boolean isUnknown() {
+    return durationMillis == UNKNOWN;
+  }
+
+}
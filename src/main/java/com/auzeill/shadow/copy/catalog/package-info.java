@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.auzeill.shadow.copy.catalog;
+
+import javax.annotation.ParametersAreNonnullByDefault;
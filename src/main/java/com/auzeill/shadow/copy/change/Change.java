@@ -0,0 +1,31 @@
+package com.auzeill.shadow.copy.change;
+
+import com.auzeill.shadow.copy.filter.FileInfo;
+
+/**
+ * Difference of one entry between two file trees, as reported by the diff action.
+ */
+public class Change {
+
+  public final ChangeKind kind;
+  public final String relativePath;
+  public final boolean isDirectory;
+  /**
+   * Number of appended bytes for APPENDED changes, 0 otherwise.
+   */
+  public final long appendedBytes;
+
+  public Change(ChangeKind kind, String relativePath, boolean isDirectory, long appendedBytes) {
+    this.kind = kind;
+    this.relativePath = relativePath;
+    this.isDirectory = isDirectory;
+    this.appendedBytes = appendedBytes;
+  }
+
+  @Override
+  public String toString() {
+    String line = kind.label + " " + FileInfo.suffixDirectory(relativePath, isDirectory);
+    return kind == ChangeKind.APPENDED ? (line + " (+" + appendedBytes + " bytes)") : line;
+  }
+
+}
@@ -0,0 +1,153 @@
+package com.auzeill.shadow.copy.change;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Inverted index of the changes between consecutive shadow copies: relative path to the shadow
+ * copies where it changed. Changes are appended at the end of each "create" into bucket files of
+ * the "changes" directory of the shadow directory, one bucket per first two path elements, so
+ * looking up a file or a sub-tree of at least two path elements only reads one bucket.
+ */
+public final class ChangeIndex {
+
+  public static final String DIRECTORY_NAME = "changes";
+
+  private static final int BUCKET_PATH_ELEMENTS = 2;
+  private static final String BUCKET_SUFFIX = ".bucket";
+
+  private ChangeIndex() {
+    // utility class
+  }
+
+  public static class Record {
+
+    public final String shadowCopyName;
+    public final Change change;
+
+    public Record(String shadowCopyName, Change change) {
+      this.shadowCopyName = shadowCopyName;
+      this.change = change;
+    }
+
+  }
+
+  public static boolean exists(Path shadowDirectory) {
+    return Files.isDirectory(shadowDirectory.resolve(DIRECTORY_NAME));
+  }
+
+  public static void append(Path shadowDirectory, String shadowCopyName, Collection<Change> changes) throws IOException {
+    Map<String, ByteArrayOutputStream> buckets = new HashMap<>();
+    for (Change change : changes) {
+      ByteArrayOutputStream bucket = buckets.computeIfAbsent(bucketFileName(change.relativePath), name -> new ByteArrayOutputStream());
+      DataOutputStream out = new DataOutputStream(bucket);
+      out.writeUTF(shadowCopyName);
+      out.writeByte(change.kind.ordinal());
+      out.writeBoolean(change.isDirectory);
+      out.writeLong(change.appendedBytes);
+      out.writeUTF(change.relativePath);
+    }
+    Path directory = shadowDirectory.resolve(DIRECTORY_NAME);
+    Files.createDirectories(directory);
+    for (Map.Entry<String, ByteArrayOutputStream> bucket : buckets.entrySet()) {
+      // one write per bucket, O_APPEND keeps the records of concurrent appends separated
+      try (FileChannel channel = FileChannel.open(directory.resolve(bucket.getKey()),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+        ByteBuffer buffer = ByteBuffer.wrap(bucket.getValue().toByteArray());
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the changes of the given relative path and of its sub-tree, in creation order
+   */
+  public static List<Record> log(Path shadowDirectory, String relativePath) throws IOException {
+    Path directory = shadowDirectory.resolve(DIRECTORY_NAME);
+    List<Path> bucketPaths;
+    if (!relativePath.equals(".") && elementCount(relativePath) >= BUCKET_PATH_ELEMENTS) {
+      bucketPaths = List.of(directory.resolve(bucketFileName(relativePath)));
+    } else {
+      try (Stream<Path> fileList = Files.list(directory)) {
+        bucketPaths = fileList
+          .filter(path -> path.getFileName().toString().endsWith(BUCKET_SUFFIX))
+          .sorted()
+          .collect(Collectors.toList());
+      }
+    }
+    List<Record> records = new ArrayList<>();
+    for (Path bucketPath : bucketPaths) {
+      if (Files.isRegularFile(bucketPath)) {
+        read(bucketPath, relativePath, records);
+      }
+    }
+    return records;
+  }
+
+  private static void read(Path bucketPath, String relativePath, List<Record> records) throws IOException {
+    boolean isWholeTree = relativePath.equals(".");
+    String subTreePrefix = relativePath + "/";
+    ChangeKind[] kinds = ChangeKind.values();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bucketPath)))) {
+      while (true) {
+        String shadowCopyName;
+        try {
+          shadowCopyName = in.readUTF();
+        } catch (EOFException ex) {
+          return;
+        }
+        int kind = in.readUnsignedByte();
+        boolean isDirectory = in.readBoolean();
+        long appendedBytes = in.readLong();
+        String path = in.readUTF();
+        if (kind >= kinds.length) {
+          throw new ShadowCopyError("Invalid change index record in: " + bucketPath);
+        }
+        if (isWholeTree || path.equals(relativePath) || path.startsWith(subTreePrefix)) {
+          records.add(new Record(shadowCopyName, new Change(kinds[kind], path, isDirectory, appendedBytes)));
+        }
+      }
+    } catch (EOFException ex) {
+      // ignore the last record truncated by an interrupted append
+    }
+  }
+
+  private static int elementCount(String relativePath) {
+    return relativePath.split("/", -1).length;
+  }
+
+  static String bucketFileName(String relativePath) {
+    String[] elements = relativePath.split("/", -1);
+    String key = String.join("/", List.of(elements).subList(0, Math.min(elements.length, BUCKET_PATH_ELEMENTS)));
+    byte[] keyBytes = key.getBytes(UTF_8);
+    byte[] hash = HashUtils.hash(keyBytes, 0, keyBytes.length);
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < 8; i++) {
+      name.append(String.format("%02x", hash[i]));
+    }
+    return name.append(BUCKET_SUFFIX).toString();
+  }
+
+}
@@ -0,0 +1,20 @@
+package com.auzeill.shadow.copy.change;
+
+public enum ChangeKind {
+  NEW("[NEW     ]"),
+  DELETED("[DELETED ]"),
+  MODIFIED("[MODIFIED]"),
+  CHANGED("[CHANGED ]"),
+  APPENDED("[APPENDED]"),
+  /**
+   * Net change of a range of shadow copies where the changes cancel each other.
+   */
+  REVERTED("[REVERTED]");
+
+  public final String label;
+
+  ChangeKind(String label) {
+    this.label = label;
+  }
+
+}
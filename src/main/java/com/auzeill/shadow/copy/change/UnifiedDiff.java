@@ -0,0 +1,251 @@
+package com.auzeill.shadow.copy.change;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Unified diff of two text contents, using the linear space variant of the Myers diff algorithm:
+ * the memory is proportional to the number of lines, not to the number of lines times the number
+ * of differences.
+ */
+public final class UnifiedDiff {
+
+  public static final int CONTEXT_LINES = 3;
+
+  private static final byte EQUAL = 0;
+  private static final byte DELETED = 1;
+  private static final byte INSERTED = 2;
+
+  private UnifiedDiff() {
+    // utility class
+  }
+
+  /**
+   * @return the unified diff lines, or null if one of the contents is not UTF-8 text
+   */
+  @Nullable
+  public static List<String> diff(String oldName, byte[] oldContent, String newName, byte[] newContent) {
+    String[] oldLines = lines(oldContent);
+    String[] newLines = lines(newContent);
+    if (oldLines == null || newLines == null) {
+      return null;
+    }
+    Script script = new Script(oldLines.length, newLines.length);
+    diff(oldLines, 0, oldLines.length, newLines, 0, newLines.length, script);
+    List<String> result = new ArrayList<>();
+    result.add("--- " + oldName);
+    result.add("+++ " + newName);
+    addHunks(oldLines, newLines, script, result);
+    return result.size() == 2 ? List.of() : result;
+  }
+
+  /**
+   * @return lines including their line terminator, or null if the content is binary
+   */
+  @Nullable
+  static String[] lines(byte[] content) {
+    String text;
+    try {
+      text = UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT)
+        .decode(ByteBuffer.wrap(content))
+        .toString();
+    } catch (CharacterCodingException ex) {
+      return null;
+    }
+    if (text.indexOf('\0') != -1) {
+      return null;
+    }
+    List<String> lines = new ArrayList<>();
+    int start = 0;
+    while (start < text.length()) {
+      int end = text.indexOf('\n', start);
+      end = end == -1 ? text.length() : (end + 1);
+      lines.add(text.substring(start, end));
+      start = end;
+    }
+    return lines.toArray(new String[0]);
+  }
+
+  /**
+   * Edit script: for each old line, EQUAL or DELETED, for each new line, EQUAL or INSERTED.
+   */
+  private static class Script {
+    private final byte[] oldOps;
+    private final byte[] newOps;
+
+    private Script(int oldLength, int newLength) {
+      oldOps = new byte[oldLength];
+      newOps = new byte[newLength];
+    }
+  }
+
+  private static void diff(String[] a, int aStart, int aEnd, String[] b, int bStart, int bEnd, Script script) {
+    while (aStart < aEnd && bStart < bEnd && a[aStart].equals(b[bStart])) {
+      aStart++;
+      bStart++;
+    }
+    while (aStart < aEnd && bStart < bEnd && a[aEnd - 1].equals(b[bEnd - 1])) {
+      aEnd--;
+      bEnd--;
+    }
+    if (aStart == aEnd) {
+      Arrays.fill(script.newOps, bStart, bEnd, INSERTED);
+    } else if (bStart == bEnd) {
+      Arrays.fill(script.oldOps, aStart, aEnd, DELETED);
+    } else {
+      int[] snake = middleSnake(a, aStart, aEnd, b, bStart, bEnd);
+      diff(a, aStart, snake[0], b, bStart, snake[1], script);
+      diff(a, snake[2], aEnd, b, snake[3], bEnd, script);
+    }
+  }
+
+  /**
+   * @return {x, y, u, v} where (x, y) is the start and (u, v) the end of the middle snake of an
+   * optimal edit path, both in absolute coordinates
+   */
+  private static int[] middleSnake(String[] a, int aStart, int aEnd, String[] b, int bStart, int bEnd) {
+    int n = aEnd - aStart;
+    int m = bEnd - bStart;
+    int delta = n - m;
+    boolean odd = (delta & 1) != 0;
+    int max = (n + m + 1) / 2;
+    int offset = max + 1;
+    int[] forward = new int[2 * max + 3];
+    int[] backward = new int[2 * max + 3];
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+    for (int d = 0; d <= max; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) ?
+          forward[offset + k + 1] : (forward[offset + k - 1] + 1);
+        int y = x - k;
+        int x0 = x;
+        int y0 = y;
+        while (x < n && y < m && a[aStart + x].equals(b[bStart + y])) {
+          x++;
+          y++;
+        }
+        forward[offset + k] = x;
+        int reverseK = delta - k;
+        if (odd && reverseK >= -(d - 1) && reverseK <= d - 1 && x + backward[offset + reverseK] >= n) {
+          return new int[] {aStart + x0, bStart + y0, aStart + x, bStart + y};
+        }
+      }
+      for (int k = -d; k <= d; k += 2) {
+        int x = (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) ?
+          backward[offset + k + 1] : (backward[offset + k - 1] + 1);
+        int y = x - k;
+        int x0 = x;
+        int y0 = y;
+        while (x < n && y < m && a[aEnd - 1 - x].equals(b[bEnd - 1 - y])) {
+          x++;
+          y++;
+        }
+        backward[offset + k] = x;
+        int forwardK = delta - k;
+        if (!odd && forwardK >= -d && forwardK <= d && x + forward[offset + forwardK] >= n) {
+          return new int[] {aEnd - x, bEnd - y, aEnd - x0, bEnd - y0};
+        }
+      }
+    }
+    throw new IllegalStateException("No middle snake");
+  }
+
+  private static void addHunks(String[] oldLines, String[] newLines, Script script, List<String> result) {
+    // merge both edit scripts into one sequence of operations
+    int total = 0;
+    byte[] ops = new byte[oldLines.length + newLines.length];
+    int i = 0;
+    int j = 0;
+    while (i < oldLines.length || j < newLines.length) {
+      if (i < oldLines.length && script.oldOps[i] == DELETED) {
+        ops[total++] = DELETED;
+        i++;
+      } else if (j < newLines.length && script.newOps[j] == INSERTED) {
+        ops[total++] = INSERTED;
+        j++;
+      } else {
+        ops[total++] = EQUAL;
+        i++;
+        j++;
+      }
+    }
+    int start = 0;
+    int oldLine = 0;
+    int newLine = 0;
+    while (start < total) {
+      // find the next change
+      int previousEnd = start;
+      while (start < total && ops[start] == EQUAL) {
+        start++;
+        oldLine++;
+        newLine++;
+      }
+      if (start == total) {
+        return;
+      }
+      int context = Math.min(CONTEXT_LINES, start - previousEnd);
+      int hunkStart = start - context;
+      int hunkOldStart = oldLine - context;
+      int hunkNewStart = newLine - context;
+      // extend the hunk while changes are separated by at most 2 * CONTEXT_LINES equal lines
+      int end = start;
+      int equalCount = 0;
+      while (end < total && equalCount <= 2 * CONTEXT_LINES) {
+        equalCount = ops[end] == EQUAL ? (equalCount + 1) : 0;
+        end++;
+      }
+      end -= Math.max(0, equalCount - CONTEXT_LINES);
+      List<String> hunk = new ArrayList<>();
+      int oldCount = 0;
+      int newCount = 0;
+      int oldIndex = hunkOldStart;
+      int newIndex = hunkNewStart;
+      for (int op = hunkStart; op < end; op++) {
+        if (ops[op] == DELETED) {
+          addLine(hunk, "-", oldLines[oldIndex++]);
+          oldCount++;
+        } else if (ops[op] == INSERTED) {
+          addLine(hunk, "+", newLines[newIndex++]);
+          newCount++;
+        } else {
+          addLine(hunk, " ", oldLines[oldIndex++]);
+          newIndex++;
+          oldCount++;
+          newCount++;
+        }
+      }
+      result.add("@@ -" + range(hunkOldStart, oldCount) + " +" + range(hunkNewStart, newCount) + " @@");
+      result.addAll(hunk);
+      start = end;
+      oldLine = oldIndex;
+      newLine = newIndex;
+    }
+  }
+
+  private static void addLine(List<String> hunk, String prefix, String line) {
+    if (line.endsWith("\n")) {
+      hunk.add(prefix + line.substring(0, line.length() - 1));
+    } else {
+      hunk.add(prefix + line);
+      hunk.add("\\ No newline at end of file");
+    }
+  }
+
+  private static String range(int start, int count) {
+    if (count == 1) {
+      return Integer.toString(start + 1);
+    }
+    return (count == 0 ? start : (start + 1)) + "," + count;
+  }
+
+}
@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.auzeill.shadow.copy.change;
+
+import javax.annotation.ParametersAreNonnullByDefault;
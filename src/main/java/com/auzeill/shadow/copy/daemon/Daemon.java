@@ -0,0 +1,211 @@
+package com.auzeill.shadow.copy.daemon;
+
+import com.auzeill.shadow.copy.ShadowCopy;
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.arguments.Action;
+import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.utils.FileCache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs the requests of {@link DaemonClient} received on a unix domain socket, so successive commands share
+ * a warm JVM and the filters and store indexes cached by {@link FileCache}.
+ * Request: protocol, working directory, arguments. Response: output and error frames, then the exit value.
+ */
+public class Daemon implements Closeable {
+
+  static final String PROTOCOL = "shadow-copy-daemon-1";
+  static final byte EXIT = 0;
+  static final byte OUT = 1;
+  static final byte ERR = 2;
+
+  private final Path socketPath;
+  private final ServerSocketChannel server;
+  private final ExecutorService requests = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "shadow-copy-daemon-request");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public Daemon(Path socketPath) throws IOException {
+    this.socketPath = socketPath;
+    if (Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+      removeStaleSocket(socketPath);
+    }
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    try {
+      bind(server, socketPath);
+    } catch (IOException | RuntimeException ex) {
+      server.close();
+      throw ex;
+    }
+    FileCache.enable();
+  }
+
+  /**
+   * Binds the socket in a new directory only accessible by the daemon user, restricts the permissions of the
+   * socket, then moves it to the given path, so it is never reachable with the permissions given by the umask.
+   */
+  private static void bind(ServerSocketChannel server, Path socketPath) throws IOException {
+    Path privateDirectory = Files.createTempDirectory(socketPath.toAbsolutePath().getParent(), ".shadow-copy-daemon",
+      PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    Path privateSocketPath = privateDirectory.resolve(socketPath.getFileName());
+    try {
+      server.bind(UnixDomainSocketAddress.of(privateSocketPath));
+      // requests run with the permissions of the daemon user
+      Files.setPosixFilePermissions(privateSocketPath, PosixFilePermissions.fromString("rw-------"));
+      // fails if another daemon created the socket in the meantime
+      Files.move(privateSocketPath, socketPath);
+    } finally {
+      Files.deleteIfExists(privateSocketPath);
+      Files.delete(privateDirectory);
+    }
+  }
+
+  private static void removeStaleSocket(Path socketPath) throws IOException {
+    if (!Files.readAttributes(socketPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+      throw new ShadowCopyError("Not a socket: " + socketPath);
+    }
+    boolean listening;
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+      listening = channel.isConnected();
+    } catch (IOException ex) {
+      // socket of a killed daemon
+      listening = false;
+    }
+    if (listening) {
+      throw new ShadowCopyError("A daemon is already listening on: " + socketPath);
+    }
+    Files.delete(socketPath);
+  }
+
+  /**
+   * Accepts requests until the daemon is closed, each request runs in its own thread.
+   */
+  public void serve() throws IOException {
+    try {
+      while (true) {
+        SocketChannel client = server.accept();
+        requests.execute(() -> handle(client));
+      }
+    } catch (ClosedChannelException ex) {
+      // closed by close()
+    }
+  }
+
+  private static void handle(SocketChannel client) {
+    try (SocketChannel channel = client;
+      DataInputStream request = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      DataOutputStream response = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+      PrintStream out = new PrintStream(new FrameOutputStream(response, OUT), true, UTF_8);
+      PrintStream err = new PrintStream(new FrameOutputStream(response, ERR), true, UTF_8);
+      int exitValue;
+      if (!PROTOCOL.equals(request.readUTF())) {
+        err.println("[ERROR] Unsupported daemon protocol, expects: " + PROTOCOL);
+        exitValue = 1;
+      } else {
+        Path workingDirectory = Paths.get(request.readUTF());
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i++) {
+          args[i] = request.readUTF();
+        }
+        exitValue = execute(out, err, workingDirectory, args);
+      }
+      synchronized (response) {
+        response.writeByte(EXIT);
+        response.writeInt(exitValue);
+        response.flush();
+      }
+    } catch (IOException ex) {
+      // client disconnected, the rest of its output is lost
+    }
+  }
+
+  static int execute(PrintStream out, PrintStream err, Path workingDirectory, String... args) {
+    try {
+      Arguments arguments = new Arguments(workingDirectory, args);
+      if (arguments.action == Action.DAEMON) {
+        throw new ShadowCopyError("Action '" + Action.DAEMON.command + "' can not be forwarded to a daemon");
+      }
+      ShadowCopy.exec(out, arguments);
+      return 0;
+    } catch (ShadowCopyError ex) {
+      err.println("[ERROR] " + ex.getMessage());
+      return 1;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      err.println("[ERROR] Interrupted");
+      return 1;
+    } catch (IOException | RuntimeException ex) {
+      ex.printStackTrace(err);
+      return 1;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+    requests.shutdownNow();
+    Files.deleteIfExists(socketPath);
+  }
+
+  /**
+   * Writes each chunk of output as a frame of the response, output and error share the response.
+   */
+  private static final class FrameOutputStream extends OutputStream {
+
+    private final DataOutputStream response;
+    private final byte type;
+
+    private FrameOutputStream(DataOutputStream response, byte type) {
+      this.response = response;
+      this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      synchronized (response) {
+        response.writeByte(type);
+        response.writeInt(length);
+        response.write(buffer, offset, length);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (response) {
+        response.flush();
+      }
+    }
+
+  }
+
+}
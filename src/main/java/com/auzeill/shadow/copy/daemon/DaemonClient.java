@@ -0,0 +1,63 @@
+package com.auzeill.shadow.copy.daemon;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Forwards the arguments and the current directory to the {@link Daemon}, and streams back its output.
+ */
+public final class DaemonClient {
+
+  private DaemonClient() {
+    // utility
+  }
+
+  /**
+   * @return the exit value of the request
+   */
+  public static int forward(Path socketPath, PrintStream out, PrintStream err, String... args) throws IOException {
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+    } catch (SocketException ex) {
+      throw new ShadowCopyError("No daemon listening on '" + socketPath + "', start it with: shadow-copy daemon --socket " + socketPath);
+    }
+    try (channel;
+      DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+      request.writeUTF(Daemon.PROTOCOL);
+      request.writeUTF(Paths.get("").toAbsolutePath().toString());
+      request.writeInt(args.length);
+      for (String arg : args) {
+        request.writeUTF(arg);
+      }
+      request.flush();
+      while (true) {
+        byte type = response.readByte();
+        if (type == Daemon.EXIT) {
+          return response.readInt();
+        }
+        byte[] buffer = new byte[response.readInt()];
+        response.readFully(buffer);
+        PrintStream stream = type == Daemon.ERR ? err : out;
+        stream.write(buffer);
+        stream.flush();
+      }
+    } catch (EOFException ex) {
+      throw new ShadowCopyError("The daemon closed the connection before the end of the request");
+    }
+  }
+
+}
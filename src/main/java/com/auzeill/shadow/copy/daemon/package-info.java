@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.auzeill.shadow.copy.daemon;
+
+import javax.annotation.ParametersAreNonnullByDefault;
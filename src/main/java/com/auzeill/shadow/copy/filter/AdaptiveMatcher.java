@@ -0,0 +1,128 @@
+package com.auzeill.shadow.copy.filter;
+
+import com.auzeill.shadow.copy.filter.FileFilter.IgnoreMatcher;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Operands of a "&&" or a "||" evaluated in the order of the lowest expected cost to decide the result:
+ * an operand is first ordered by its cost, then by its cost divided by the probability it decides the
+ * result (false for "&&", true for "||") measured during the walk. The operands reading the file system
+ * can throw, e.g. "max-size:" for a dangling symbolic link, so they are never reordered: they are evaluated
+ * after the other operands, in their written order, and the order of the other operands, without side
+ * effect, does not change the result.
+ */
+class AdaptiveMatcher implements IgnoreMatcher {
+
+  /**
+   * Number of evaluations between two reorderings, the statistics are halved at each reordering so the
+   * order follows the files of the current part of the walk.
+   */
+  static final int REORDER_INTERVAL = 1024;
+
+  // stable sort, the operands reading the file system stay last in their written order
+  private static final Comparator<Operand> BY_COST = Comparator.<Operand, Boolean>comparing(operand -> operand.readsFileSystem)
+    .thenComparingInt(operand -> operand.readsFileSystem ? 0 : operand.cost);
+  private static final Comparator<Operand> BY_RANK = Comparator.comparingDouble(operand -> operand.rank);
+
+  static final class Operand {
+    final IgnoreMatcher matcher;
+    final int cost;
+    final boolean readsFileSystem;
+    // statistics updated without synchronization, a lost update between threads only delays a reordering
+    private long evaluationCount = 0;
+    private long decisionCount = 0;
+    // computed before sorting, the statistics can change during the sort
+    private double rank = 0;
+
+    private Operand(IgnoreMatcher matcher, int cost, boolean readsFileSystem) {
+      this.matcher = matcher;
+      this.cost = cost;
+      this.readsFileSystem = readsFileSystem;
+    }
+
+    private void updateRank() {
+      double decisionProbability = (decisionCount + 1.0) / (evaluationCount + 2.0);
+      rank = cost / decisionProbability;
+      evaluationCount /= 2;
+      decisionCount /= 2;
+    }
+  }
+
+  private final boolean isOr;
+  private volatile Operand[] operands = new Operand[0];
+  /**
+   * Number of the first operands, not reading the file system, which can be reordered
+   */
+  private int reorderableCount = 0;
+  private int evaluationCount = 0;
+
+  private AdaptiveMatcher(boolean isOr) {
+    this.isOr = isOr;
+  }
+
+  static AdaptiveMatcher and() {
+    return new AdaptiveMatcher(false);
+  }
+
+  static AdaptiveMatcher or() {
+    return new AdaptiveMatcher(true);
+  }
+
+  /**
+   * @param readsFileSystem true if the matcher can read the file system, and throw
+   */
+  synchronized AdaptiveMatcher add(IgnoreMatcher matcher, int cost, boolean readsFileSystem) {
+    Operand[] newOperands = Arrays.copyOf(operands, operands.length + 1);
+    newOperands[operands.length] = new Operand(matcher, cost, readsFileSystem);
+    Arrays.sort(newOperands, BY_COST);
+    if (!readsFileSystem) {
+      reorderableCount++;
+    }
+    operands = newOperands;
+    return this;
+  }
+
+  int size() {
+    return operands.length;
+  }
+
+  /**
+   * @return the operands in their current evaluation order
+   */
+  IgnoreMatcher[] matchers() {
+    return Arrays.stream(operands).map(operand -> operand.matcher).toArray(IgnoreMatcher[]::new);
+  }
+
+  @Override
+  public boolean matches(FileInfo file) throws IOException {
+    Operand[] current = operands;
+    boolean result = !isOr;
+    for (Operand operand : current) {
+      operand.evaluationCount++;
+      if (operand.matcher.matches(file) == isOr) {
+        operand.decisionCount++;
+        result = isOr;
+        break;
+      }
+    }
+    if (reorderableCount > 1 && ++evaluationCount % REORDER_INTERVAL == 0) {
+      reorder(current);
+    }
+    return result;
+  }
+
+  private synchronized void reorder(Operand[] current) {
+    if (current != operands) {
+      return;
+    }
+    Operand[] newOperands = current.clone();
+    for (int i = 0; i < reorderableCount; i++) {
+      newOperands[i].updateRank();
+    }
+    Arrays.sort(newOperands, 0, reorderableCount, BY_RANK);
+    operands = newOperands;
+  }
+
+}
@@ -2,6 +2,7 @@ package com.auzeill.shadow.copy.filter;
 
 import com.auzeill.shadow.copy.ShadowCopyError;
 import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileCache;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -11,8 +12,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -43,18 +46,30 @@ public class FileFilter {
     }
   }
 
+  /**
+   * The cost of a matcher is an estimate of its evaluation time relative to a string comparison, a file
+   * system access costs much more than the string operations.
+   */
   enum Type {
-    EQUALS("equals:"),
-    END_WITH("end-with:"),
-    REGEX("reg-ex:"),
-    SYMBOLIC_LINKS("symbolic-link"),
-    MAX_SIZE("max-size:"),
-    HAS_SIBLING("has-sibling:");
+    EQUALS("equals:", 1, false),
+    END_WITH("end-with:", 1, false),
+    REGEX("reg-ex:", 4, false),
+    SYMBOLIC_LINKS("symbolic-link", 50, true),
+    // the size is usually known from the attributes read by the walk
+    MAX_SIZE("max-size:", 10, true),
+    HAS_SIBLING("has-sibling:", 50, true);
 
     public final String prefix;
+    public final int cost;
+    /**
+     * True when the matcher can read the file system, and throw, e.g. for a dangling symbolic link
+     */
+    public final boolean readsFileSystem;
 
-    Type(String prefix) {
+    Type(String prefix, int cost, boolean readsFileSystem) {
       this.prefix = prefix;
+      this.cost = cost;
+      this.readsFileSystem = readsFileSystem;
     }
 
     @Override
@@ -63,20 +78,34 @@ public class FileFilter {
     }
   }
 
+  private static final FileCache<FileFilter> CACHE = new FileCache<>();
+
+  /**
+   * Maximum number of conjunctions an expression is expanded into, a bigger expression is matched as a whole.
+   */
+  static final int MAX_DISJUNCTS = 64;
+
   Map<String, List<IgnoreMatcher>> ignoreByFileName = new HashMap<>();
   Map<String, List<IgnoreMatcher>> ignoreByRelativePath = new HashMap<>();
   Map<String, List<IgnoreMatcher>> ignoreByAbsolutePath = new HashMap<>();
-  List<IgnoreMatcher> notIndexedIgnoreMatchers = new ArrayList<>();
+  /**
+   * File names of the keys of "ignoreByRelativePath" and "ignoreByAbsolutePath", the relative or absolute
+   * path of a file is only created when its file name is one of them.
+   */
+  Set<String> relativePathFileNames = new HashSet<>();
+  Set<String> absolutePathFileNames = new HashSet<>();
+  AdaptiveMatcher notIndexedIgnoreMatchers = AdaptiveMatcher.or();
 
 
   public static FileFilter loadFromShadowDirectory(Path shadowDirectory) throws IOException {
     Path filterPath = shadowDirectory.resolve("ignore");
-    FileFilter filter;
     if (Files.exists(filterPath)) {
-      filter = FileFilter.load(filterPath);
-    } else {
-      filter = new FileFilter();
+      return CACHE.get(filterPath, path -> ignoreShadowDirectory(FileFilter.load(path), shadowDirectory));
     }
+    return ignoreShadowDirectory(new FileFilter(), shadowDirectory);
+  }
+
+  private static FileFilter ignoreShadowDirectory(FileFilter filter, Path shadowDirectory) {
     filter.addIgnoredFilename(ActionUtils.DEFAULT_SHADOW_DIRECTORY_NAME + File.separator);
     filter.addIgnoredAbsolutePath(shadowDirectory.toString() + File.separator);
     return filter;
@@ -106,10 +135,20 @@ public class FileFilter {
     throw new ShadowCopyError("Missing prefix (" + valueList + ") at " + start + " in expression: " + expression);
   }
 
+  /**
+   * Expands the expression into a disjunction of conjunctions, so each conjunction having an "equals" matcher
+   * is only evaluated for the files found by its index.
+   */
   private void add(Expression expression) {
-    IgnoreMatcher ignoreMatcher = expression.ignoreMatcher();
-    if (!expression.index(this, ignoreMatcher)) {
-      notIndexedIgnoreMatchers.add(ignoreMatcher);
+    List<Expression> disjuncts = expression.disjuncts(MAX_DISJUNCTS);
+    if (disjuncts == null) {
+      disjuncts = Collections.singletonList(expression);
+    }
+    for (Expression disjunct : disjuncts) {
+      IgnoreMatcher ignoreMatcher = disjunct.ignoreMatcher();
+      if (!disjunct.index(this, ignoreMatcher)) {
+        notIndexedIgnoreMatchers.add(ignoreMatcher, disjunct.cost(), disjunct.readsFileSystem());
+      }
     }
   }
 
@@ -119,13 +158,34 @@ public class FileFilter {
 
   public void addIgnoredAbsolutePath(String path) {
     ignoreByAbsolutePath.put(path, Collections.singletonList(file -> true));
+    absolutePathFileNames.add(fileName(path));
+  }
+
+  void indexRelativePath(String path, IgnoreMatcher ignoreMatcher) {
+    ignoreByRelativePath.computeIfAbsent(path, p -> new ArrayList<>()).add(ignoreMatcher);
+    relativePathFileNames.add(fileName(path));
+  }
+
+  void indexAbsolutePath(String path, IgnoreMatcher ignoreMatcher) {
+    ignoreByAbsolutePath.computeIfAbsent(path, p -> new ArrayList<>()).add(ignoreMatcher);
+    absolutePathFileNames.add(fileName(path));
+  }
+
+  /**
+   * @return the last name of the given path, with the directory suffix of the path
+   */
+  static String fileName(String path) {
+    boolean isDirectory = path.endsWith(File.separator);
+    String name = isDirectory ? path.substring(0, path.length() - File.separator.length()) : path;
+    return FileInfo.suffixDirectory(name.substring(name.lastIndexOf(File.separatorChar) + 1), isDirectory);
   }
 
   public boolean filter(FileInfo file) throws IOException {
-    return noneMatch(ignoreByFileName.get(file.filename), file) &&
-      noneMatch(ignoreByRelativePath.get(file.relative), file) &&
-      noneMatch(ignoreByAbsolutePath.get(file.absolute), file) &&
-      noneMatch(notIndexedIgnoreMatchers, file);
+    String filename = file.filename();
+    return noneMatch(ignoreByFileName.get(filename), file) &&
+      (!relativePathFileNames.contains(filename) || noneMatch(ignoreByRelativePath.get(file.relative()), file)) &&
+      (!absolutePathFileNames.contains(filename) || noneMatch(ignoreByAbsolutePath.get(file.absolute()), file)) &&
+      !notIndexedIgnoreMatchers.matches(file);
   }
 
   private static boolean noneMatch(@Nullable List<IgnoreMatcher> ignoreMatchers, FileInfo file) throws IOException {
@@ -146,6 +206,23 @@ public class FileFilter {
     boolean index(FileFilter filter, IgnoreMatcher ignoreMatcher);
 
     IgnoreMatcher ignoreMatcher();
+
+    /**
+     * @return the estimated cost of evaluating all the matchers of the expression
+     */
+    int cost();
+
+    /**
+     * @return true if a matcher of the expression can read the file system, and throw
+     */
+    boolean readsFileSystem();
+
+    /**
+     * @return the conjunctions, without "||" operator, matching the same files as this expression when one of
+     * them matches, or null if there are more than "max" of them
+     */
+    @Nullable
+    List<Expression> disjuncts(int max);
   }
 
   /**
@@ -340,15 +417,70 @@ public class FileFilter {
       }
     }
 
+    /**
+     * The operands of consecutive "&&" or "||", like "a && (b && c)", are evaluated by the same matcher, in the
+     * order of their cost and of how often they decide the result.
+     */
     @Override
     public IgnoreMatcher ignoreMatcher() {
-      IgnoreMatcher leftMatcher = leftOperand.ignoreMatcher();
-      IgnoreMatcher rightMatcher = rightOperand.ignoreMatcher();
-      if (operator == Operator.AND) {
-        return file -> leftMatcher.matches(file) && rightMatcher.matches(file);
+      List<Expression> operands = new ArrayList<>();
+      addOperands(this, operands);
+      AdaptiveMatcher matcher = operator == Operator.AND ? AdaptiveMatcher.and() : AdaptiveMatcher.or();
+      for (Expression operand : operands) {
+        matcher.add(operand.ignoreMatcher(), operand.cost(), operand.readsFileSystem());
+      }
+      return matcher;
+    }
+
+    private void addOperands(Expression expression, List<Expression> operands) {
+      while (expression instanceof DelimitedExpression) {
+        expression = ((DelimitedExpression) expression).content;
+      }
+      if (expression instanceof BinaryExpression && ((BinaryExpression) expression).operator == operator) {
+        addOperands(((BinaryExpression) expression).leftOperand, operands);
+        addOperands(((BinaryExpression) expression).rightOperand, operands);
+      } else {
+        operands.add(expression);
+      }
+    }
+
+    @Override
+    public int cost() {
+      return leftOperand.cost() + rightOperand.cost();
+    }
+
+    @Override
+    public boolean readsFileSystem() {
+      return leftOperand.readsFileSystem() || rightOperand.readsFileSystem();
+    }
+
+    @Override
+    @Nullable
+    public List<Expression> disjuncts(int max) {
+      List<Expression> leftDisjuncts = leftOperand.disjuncts(max);
+      List<Expression> rightDisjuncts = rightOperand.disjuncts(max);
+      if (leftDisjuncts == null || rightDisjuncts == null) {
+        return null;
+      }
+      List<Expression> disjuncts = new ArrayList<>();
+      if (operator == Operator.OR) {
+        if (leftDisjuncts.size() + rightDisjuncts.size() > max) {
+          return null;
+        }
+        disjuncts.addAll(leftDisjuncts);
+        disjuncts.addAll(rightDisjuncts);
       } else {
-        return file -> leftMatcher.matches(file) || rightMatcher.matches(file);
+        if (leftDisjuncts.size() * rightDisjuncts.size() > max) {
+          return null;
+        }
+        // (a || b) && (c || d) == (a && c) || (a && d) || (b && c) || (b && d)
+        for (Expression left : leftDisjuncts) {
+          for (Expression right : rightDisjuncts) {
+            disjuncts.add(new BinaryExpression(start, end, left, Operator.AND, right));
+          }
+        }
       }
+      return disjuncts;
     }
 
   }
@@ -380,10 +512,10 @@ public class FileFilter {
         filter.ignoreByFileName.computeIfAbsent(pattern, p -> new ArrayList<>()).add(ignoreMatcher);
         return true;
       } else if (subject == Subject.RELATIVE && type == Type.EQUALS) {
-        filter.ignoreByRelativePath.computeIfAbsent(pattern, p -> new ArrayList<>()).add(ignoreMatcher);
+        filter.indexRelativePath(pattern, ignoreMatcher);
         return true;
       } else if (subject == Subject.ABSOLUTE && type == Type.EQUALS) {
-        filter.ignoreByAbsolutePath.computeIfAbsent(pattern, p -> new ArrayList<>()).add(ignoreMatcher);
+        filter.indexAbsolutePath(pattern, ignoreMatcher);
         return true;
       }
       return false;
@@ -392,31 +524,31 @@ public class FileFilter {
     @Override
     public IgnoreMatcher ignoreMatcher() {
       if (subject == Subject.FILENAME && type == Type.EQUALS) {
-        return file -> file.filename.equals(pattern);
+        return file -> file.filename().equals(pattern);
       } else if (subject == Subject.RELATIVE && type == Type.EQUALS) {
-        return file -> file.relative.equals(pattern);
+        return file -> file.relative().equals(pattern);
       } else if (subject == Subject.ABSOLUTE && type == Type.EQUALS) {
-        return file -> file.absolute.equals(pattern);
+        return file -> file.absolute().equals(pattern);
       } else if (subject == Subject.FILENAME && type == Type.END_WITH) {
-        return file -> file.filename.endsWith(pattern);
+        return file -> file.filename().endsWith(pattern);
       } else if (subject == Subject.RELATIVE && type == Type.END_WITH) {
-        return file -> file.relative.endsWith(pattern);
+        return file -> file.relative().endsWith(pattern);
       } else if (subject == Subject.ABSOLUTE && type == Type.END_WITH) {
-        return file -> file.absolute.endsWith(pattern);
+        return file -> file.absolute().endsWith(pattern);
       } else if (subject == Subject.FILENAME && type == Type.REGEX) {
         Pattern regex = Pattern.compile(pattern);
-        return file -> regex.matcher(file.filename).find();
+        return file -> regex.matcher(file.filename()).find();
       } else if (subject == Subject.RELATIVE && type == Type.REGEX) {
         Pattern regex = Pattern.compile(pattern);
-        return file -> regex.matcher(file.relative).find();
+        return file -> regex.matcher(file.relative()).find();
       } else if (subject == Subject.ABSOLUTE && type == Type.REGEX) {
         Pattern regex = Pattern.compile(pattern);
-        return file -> regex.matcher(file.absolute).find();
+        return file -> regex.matcher(file.absolute()).find();
       } else if (type == Type.SYMBOLIC_LINKS) {
         return file -> Files.isSymbolicLink(file.absolutePath);
       } else if (type == Type.MAX_SIZE) {
         long maxSize = Long.parseLong(pattern);
-        return file -> !file.isDirectory && Files.size(file.absolutePath) > maxSize;
+        return file -> !file.isDirectory && file.size() > maxSize;
       } else if (type == Type.HAS_SIBLING) {
         Path expectedSibling = Paths.get(pattern);
         return file -> {
@@ -428,6 +560,21 @@ public class FileFilter {
       }
     }
 
+    @Override
+    public int cost() {
+      return type.cost;
+    }
+
+    @Override
+    public boolean readsFileSystem() {
+      return type.readsFileSystem;
+    }
+
+    @Override
+    public List<Expression> disjuncts(int max) {
+      return Collections.singletonList(this);
+    }
+
   }
 
   public static class DelimitedExpression implements Expression {
@@ -457,6 +604,22 @@ public class FileFilter {
       return content.ignoreMatcher();
     }
 
+    @Override
+    public int cost() {
+      return content.cost();
+    }
+
+    @Override
+    public boolean readsFileSystem() {
+      return content.readsFileSystem();
+    }
+
+    @Override
+    @Nullable
+    public List<Expression> disjuncts(int max) {
+      return content.disjuncts(max);
+    }
+
   }
 
 }
@@ -1,23 +1,82 @@
 package com.auzeill.shadow.copy.filter;
 
+import com.auzeill.shadow.copy.utils.FileAttributes;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import javax.annotation.Nullable;
 
+/**
+ * The subjects of the filter rules, the strings are only created when a rule needs them.
+ */
 public class FileInfo {
 
   public final boolean isDirectory;
   public final Path absolutePath;
-  public final String absolute;
-  public final String relative;
-  public final String filename;
+  public final Path relativePath;
+  private final long size;
+  @Nullable
+  private String absolute = null;
+  @Nullable
+  private String relative = null;
+  @Nullable
+  private String filename = null;
 
   public FileInfo(Path absolute, Path relative) {
-    this.isDirectory = Files.isDirectory(absolute);
+    this(absolute, relative, Files.isDirectory(absolute), -1);
+  }
+
+  /**
+   * For a file which exists at the given absolute path, with its attributes read without following
+   * symbolic links, only a symbolic link needs to be read again.
+   */
+  public FileInfo(Path absolute, Path relative, FileAttributes attributes) {
+    this(absolute, relative, isDirectory(absolute, attributes.isDirectory(), attributes.isSymbolicLink()),
+      attributes.isSymbolicLink() ? -1 : attributes.size);
+  }
+
+  /**
+   * For a file which does not exist at the given absolute path (e.g. a deleted or stored file),
+   * "isDirectory" and "size" are provided by the caller, a negative size is read on demand.
+   */
+  public FileInfo(Path absolute, Path relative, boolean isDirectory, long size) {
+    this.isDirectory = isDirectory;
+    this.size = size;
     this.absolutePath = absolute;
-    this.absolute = suffixDirectory(absolute.toString(), isDirectory);
-    this.relative = suffixDirectory(relative.toString(), isDirectory);
-    this.filename = suffixDirectory(absolute.getFileName().toString(), isDirectory);
+    this.relativePath = relative;
+  }
+
+  /**
+   * @return true for a directory, or a symbolic link to a directory
+   */
+  public static boolean isDirectory(Path absolute, boolean isDirectory, boolean isSymbolicLink) {
+    return isDirectory || (isSymbolicLink && Files.isDirectory(absolute));
+  }
+
+  public String absolute() {
+    if (absolute == null) {
+      absolute = suffixDirectory(absolutePath.toString(), isDirectory);
+    }
+    return absolute;
+  }
+
+  public String relative() {
+    if (relative == null) {
+      relative = suffixDirectory(relativePath.toString(), isDirectory);
+    }
+    return relative;
+  }
+
+  public String filename() {
+    if (filename == null) {
+      filename = suffixDirectory(absolutePath.getFileName().toString(), isDirectory);
+    }
+    return filename;
+  }
+
+  public long size() throws IOException {
+    return size >= 0 ? size : Files.size(absolutePath);
   }
 
   public static String suffixDirectory(String path, boolean isDirectory) {
@@ -0,0 +1,54 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.store.StoredFile.Segment;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Large files are split in fixed size chunks: in-place modifications of databases or virtual
+ * machine images only change a few chunks, and the content hash of each chunk is kept in the
+ * store index, so comparing a chunked file only reads the other side.
+ */
+public final class Chunks {
+
+  public static final int CHUNK_SIZE = 1024 * 1024;
+
+  private Chunks() {
+    // utility class
+  }
+
+  public static boolean isChunked(StoredFile file) {
+    return !file.segments.isEmpty() && file.segments.stream().allMatch(segment -> segment.hash != null);
+  }
+
+  public static boolean hasSameChunks(StoredFile file1, StoredFile file2) {
+    if (file1.segments.size() != file2.segments.size()) {
+      return false;
+    }
+    for (int i = 0; i < file1.segments.size(); i++) {
+      Segment segment1 = file1.segments.get(i);
+      Segment segment2 = file2.segments.get(i);
+      if (segment1.length != segment2.length || !Arrays.equals(segment1.hash, segment2.hash)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the given content chunk by chunk and stops at the first chunk with a different hash.
+   */
+  public static boolean hasSameChunks(InputStream content, StoredFile file) throws IOException {
+    byte[] buffer = new byte[CHUNK_SIZE];
+    for (Segment segment : file.segments) {
+      int length = content.readNBytes(buffer, 0, buffer.length);
+      if (length != segment.length || !Arrays.equals(HashUtils.hash(buffer, 0, length), segment.hash)) {
+        return false;
+      }
+    }
+    return content.read() == -1;
+  }
+
+}
@@ -0,0 +1,261 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.FileCache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * States of the source regular files when a shadow copy was created: size, modification time, status
+ * change time, inode and, optionally, content hash. Recorded by "create --detect ctime|hash", so the next
+ * "create" or "diff" knows a source file is unchanged, and reuses its hash, while its state is the same.
+ * The same records hold the content hashes of the regular files of the shadow copy tree, computed after its
+ * creation by "hash" or "create --hash", a file linked by the next shadow copy keeps its hash without reading it.
+ * The records are appended one per file, a record truncated by an interruption is ignored.
+ */
+public class FileStates {
+
+  public static final FileStates EMPTY = new FileStates(Collections.emptyMap());
+
+  static final String FILE_NAME = "file-states";
+  static final String HASHES_FILE_NAME = "file-hashes";
+  private static final String FORMAT = "shadow-copy-file-states-1";
+  private static final FileCache<FileStates> CACHE = new FileCache<>();
+
+  public static final class State {
+
+    public final long size;
+    public final FileTime lastModifiedTime;
+    @Nullable
+    public final FileTime changeTime;
+    public final long inode;
+    @Nullable
+    public final byte[] hash;
+
+    State(long size, FileTime lastModifiedTime, @Nullable FileTime changeTime, long inode, @Nullable byte[] hash) {
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+      this.changeTime = changeTime;
+      this.inode = inode;
+      this.hash = hash;
+    }
+
+    /**
+     * @return true if the given attributes are the ones of the same file, not written nor changed since this state,
+     * always false when the status change time is unknown
+     */
+    public boolean isSameFile(FileAttributes attributes) {
+      return changeTime != null && changeTime.equals(attributes.changeTime) && inode == attributes.inode &&
+        size == attributes.size && lastModifiedTime.equals(attributes.lastModifiedTime);
+    }
+
+    /**
+     * @return true if the given attributes are the ones of the same inode, not written since this state
+     */
+    public boolean isSameInode(FileAttributes attributes) {
+      return inode != 0 && inode == attributes.inode && size == attributes.size &&
+        lastModifiedTime.equals(attributes.lastModifiedTime);
+    }
+
+    public boolean isSameState(State other) {
+      return changeTime != null && changeTime.equals(other.changeTime) && inode == other.inode &&
+        size == other.size && lastModifiedTime.equals(other.lastModifiedTime);
+    }
+
+  }
+
+  private final Map<String, State> statesByPath;
+
+  private FileStates(Map<String, State> statesByPath) {
+    this.statesByPath = statesByPath;
+  }
+
+  public static Path path(Path shadowCopy) {
+    return ActionUtils.metadataDirectory(shadowCopy).resolve(FILE_NAME);
+  }
+
+  public static Path hashesPath(Path shadowCopy) {
+    return ActionUtils.metadataDirectory(shadowCopy).resolve(HASHES_FILE_NAME);
+  }
+
+  /**
+   * @return the states of the source files recorded by the given shadow copy, EMPTY if it has none
+   */
+  public static FileStates load(Path shadowCopy) throws IOException {
+    return loadFile(path(shadowCopy));
+  }
+
+  /**
+   * @return the content hashes of the files of the given shadow copy tree, EMPTY if it has none
+   */
+  public static FileStates loadHashes(Path shadowCopy) throws IOException {
+    return loadFile(hashesPath(shadowCopy));
+  }
+
+  private static FileStates loadFile(Path statesPath) throws IOException {
+    if (!Files.isRegularFile(statesPath)) {
+      return EMPTY;
+    }
+    return CACHE.get(statesPath, FileStates::read);
+  }
+
+  static FileStates read(Path statesPath) throws IOException {
+    Map<String, State> statesByPath = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statesPath)))) {
+      readFormat(in, statesPath);
+      for (byte[] record = readRecord(in); record != null; record = readRecord(in)) {
+        DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+        String path = fields.readUTF();
+        long size = fields.readLong();
+        FileTime lastModifiedTime = FileTime.from(fields.readLong(), TimeUnit.NANOSECONDS);
+        FileTime changeTime = fields.readBoolean() ? FileTime.from(fields.readLong(), TimeUnit.NANOSECONDS) : null;
+        long inode = fields.readLong();
+        byte[] hash = StoreIndex.readHash(fields);
+        // an entry walked again after resuming an interrupted shadow copy is recorded twice, the last state wins
+        statesByPath.put(path, new State(size, lastModifiedTime, changeTime, inode, hash));
+      }
+    }
+    return new FileStates(statesByPath);
+  }
+
+  private static void readFormat(DataInputStream in, Path statesPath) throws IOException {
+    String format = in.readUTF();
+    if (!FORMAT.equals(format)) {
+      throw new ShadowCopyError("Unsupported file states format '" + format + "' in: " + statesPath);
+    }
+  }
+
+  /**
+   * @return the next complete record, or null at the end of the file or for a truncated record
+   */
+  @Nullable
+  private static byte[] readRecord(DataInputStream in) throws IOException {
+    try {
+      byte[] record = new byte[in.readInt()];
+      in.readFully(record);
+      return record;
+    } catch (EOFException ex) {
+      return null;
+    }
+  }
+
+  @Nullable
+  public State get(String relativePath) {
+    return statesByPath.get(relativePath);
+  }
+
+  public Set<String> paths() {
+    return statesByPath.keySet();
+  }
+
+  public int size() {
+    return statesByPath.size();
+  }
+
+  /**
+   * Appends the states of the source files walked by "create", or the hashes of the files of a shadow copy.
+   */
+  public static final class Writer implements Closeable {
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream fields = new DataOutputStream(record);
+
+    private Writer(FileChannel channel) {
+      this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * @param statesPath see {@link #path(Path)} and {@link #hashesPath(Path)}
+     * @param resume true to append to the records of an interrupted run, after its last complete record
+     */
+    public static Writer open(Path statesPath, boolean resume) throws IOException {
+      if (resume && Files.isRegularFile(statesPath)) {
+        long completeSize = completeSize(statesPath);
+        FileChannel channel = FileChannel.open(statesPath, StandardOpenOption.WRITE);
+        try {
+          channel.truncate(completeSize);
+          channel.position(completeSize);
+        } catch (IOException | RuntimeException ex) {
+          channel.close();
+          throw ex;
+        }
+        return new Writer(channel);
+      }
+      Files.createDirectories(statesPath.getParent());
+      Writer writer = new Writer(FileChannel.open(statesPath,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+      writer.out.writeUTF(FORMAT);
+      return writer;
+    }
+
+    private static long completeSize(Path statesPath) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statesPath)))) {
+        readFormat(in, statesPath);
+        // the format is written by "writeUTF", an unsigned short length followed by its ASCII characters
+        long size = Short.BYTES + FORMAT.length();
+        for (byte[] record = readRecord(in); record != null; record = readRecord(in)) {
+          size += Integer.BYTES + record.length;
+        }
+        return size;
+      }
+    }
+
+    public void add(String relativePath, FileAttributes attributes, @Nullable byte[] hash) throws IOException {
+      add(relativePath, new State(attributes.size, attributes.lastModifiedTime, attributes.changeTime, attributes.inode, hash));
+    }
+
+    /**
+     * Adds a state recorded by another shadow copy, for a source file not read again.
+     */
+    public synchronized void add(String relativePath, State state) throws IOException {
+      record.reset();
+      fields.writeUTF(relativePath);
+      fields.writeLong(state.size);
+      fields.writeLong(state.lastModifiedTime.to(TimeUnit.NANOSECONDS));
+      fields.writeBoolean(state.changeTime != null);
+      if (state.changeTime != null) {
+        fields.writeLong(state.changeTime.to(TimeUnit.NANOSECONDS));
+      }
+      fields.writeLong(state.inode);
+      StoreIndex.writeHash(fields, state.hash);
+      out.writeInt(record.size());
+      record.writeTo(out);
+    }
+
+    /**
+     * Writes the buffered records into the file, before a checkpoint of the shadow copy.
+     */
+    public synchronized void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      out.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,169 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import com.auzeill.shadow.copy.utils.SortedNames;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Read access to a source directory or a shadow copy, where files of a shadow copy are either
+ * files of the shadow copy tree or stored files of its store index.
+ */
+public class FileTree {
+
+  public final Path baseDirectory;
+  public final StoreIndex store;
+  public final boolean isSource;
+  @Nullable
+  private FileStates states = null;
+  @Nullable
+  private FileStates hashes = null;
+
+  private FileTree(Path baseDirectory, StoreIndex store, boolean isSource) {
+    this.baseDirectory = baseDirectory;
+    this.store = store;
+    this.isSource = isSource;
+  }
+
+  public static FileTree source(Path sourceDirectory) {
+    return new FileTree(sourceDirectory, StoreIndex.EMPTY, true);
+  }
+
+  public static FileTree shadowCopy(Path shadowCopy) throws IOException {
+    return shadowCopy(shadowCopy, StoreIndex.load(shadowCopy));
+  }
+
+  public static FileTree shadowCopy(Path shadowCopy, StoreIndex store) {
+    return new FileTree(shadowCopy, store, false);
+  }
+
+  /**
+   * @return the states of the source files recorded by the shadow copy, loaded on first use, EMPTY for a source directory
+   */
+  public synchronized FileStates states() throws IOException {
+    if (states == null) {
+      states = isSource ? FileStates.EMPTY : FileStates.load(baseDirectory);
+    }
+    return states;
+  }
+
+  /**
+   * @return the content hashes of the files of the shadow copy tree, loaded on first use, EMPTY for a source directory
+   */
+  public synchronized FileStates hashes() throws IOException {
+    if (hashes == null) {
+      hashes = isSource ? FileStates.EMPTY : FileStates.loadHashes(baseDirectory);
+    }
+    return hashes;
+  }
+
+  public Path resolve(Path relativePath) {
+    return ActionUtils.resolve(baseDirectory, relativePath);
+  }
+
+  /**
+   * @param sortThreshold maximum number of names of the directory sorted in memory, see {@link SortedNames}
+   * @return the names of the files of the directory and of its stored files
+   */
+  public SortedNames childNames(Path relativeDirectory, int sortThreshold) throws IOException {
+    List<Path> storedNames = new ArrayList<>();
+    for (StoredFile file : store.files(relativeDirectory.toString())) {
+      storedNames.add(Paths.get(file.name));
+    }
+    Path directory = resolve(relativeDirectory);
+    if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+      return SortedNames.of(storedNames);
+    }
+    return SortedNames.union(SortedNames.list(directory, sortThreshold), SortedNames.of(storedNames));
+  }
+
+  @Nullable
+  public Entry entry(Path relativePath) throws IOException {
+    Path path = resolve(relativePath);
+    FileAttributes attributes = FileAttributes.readIfExists(path);
+    if (attributes != null) {
+      return new Entry(path, attributes, null);
+    }
+    StoredFile storedFile = store.get(relativePath);
+    if (storedFile != null) {
+      return new Entry(path, storedFile.attributes(), storedFile);
+    }
+    return null;
+  }
+
+  /**
+   * @return the entry of an existing file, with the attributes already read by the caller
+   */
+  public Entry entry(Path relativePath, FileAttributes attributes) {
+    return new Entry(resolve(relativePath), attributes, null);
+  }
+
+  /**
+   * @param hash content hash already computed by the caller, or null
+   */
+  public Entry entry(Path relativePath, FileAttributes attributes, @Nullable byte[] hash) {
+    Entry entry = entry(relativePath, attributes);
+    entry.hash = hash;
+    return entry;
+  }
+
+  public class Entry {
+
+    public final Path path;
+    public final FileAttributes attributes;
+    @Nullable
+    public final StoredFile storedFile;
+    @Nullable
+    private byte[] hash;
+
+    private Entry(Path path, FileAttributes attributes, @Nullable StoredFile storedFile) {
+      this.path = path;
+      this.attributes = attributes;
+      this.storedFile = storedFile;
+      this.hash = storedFile != null ? storedFile.hash : null;
+    }
+
+    public FileTree tree() {
+      return FileTree.this;
+    }
+
+    public boolean isStored() {
+      return storedFile != null;
+    }
+
+    public InputStream open() throws IOException {
+      return storedFile != null ? store.open(storedFile) : Files.newInputStream(path);
+    }
+
+    /**
+     * @return the content hash of a regular file, read on first use when not known
+     */
+    public byte[] hash() throws IOException {
+      if (hash == null) {
+        try (InputStream input = open()) {
+          hash = HashUtils.hash(input);
+        }
+      }
+      return hash;
+    }
+
+    /**
+     * @return the content hash if known without reading the content
+     */
+    @Nullable
+    public byte[] knownHash() {
+      return hash;
+    }
+
+  }
+
+}
@@ -0,0 +1,290 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.store.StoredFile.Segment;
+import com.auzeill.shadow.copy.utils.ActionUtils;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.FileCache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the files of a shadow copy stored in store files (e.g. pack files) of the
+ * shadow copy metadata directory instead of the shadow copy tree.
+ */
+public class StoreIndex {
+
+  public static final StoreIndex EMPTY = new StoreIndex(null, Collections.emptyMap());
+
+  static final String STORE_DIRECTORY_NAME = "store";
+  static final String INDEX_FILE_NAME = "index";
+  private static final String FORMAT = "shadow-copy-store-1";
+  private static final FileCache<StoreIndex> CACHE = new FileCache<>();
+
+  @Nullable
+  final Path storeDirectory;
+  private final Map<String, SortedMap<String, StoredFile>> filesByDirectory;
+
+  private StoreIndex(@Nullable Path storeDirectory, Map<String, SortedMap<String, StoredFile>> filesByDirectory) {
+    this.storeDirectory = storeDirectory;
+    this.filesByDirectory = filesByDirectory;
+  }
+
+  public static Path storeDirectory(Path shadowCopy) {
+    return ActionUtils.metadataDirectory(shadowCopy).resolve(STORE_DIRECTORY_NAME);
+  }
+
+  public static StoreIndex load(Path shadowCopy) throws IOException {
+    Path storeDirectory = storeDirectory(shadowCopy);
+    Path indexPath = storeDirectory.resolve(INDEX_FILE_NAME);
+    if (!Files.isRegularFile(indexPath)) {
+      return EMPTY;
+    }
+    return CACHE.get(indexPath, path -> read(storeDirectory, path));
+  }
+
+  static StoreIndex read(Path storeDirectory, Path indexPath) throws IOException {
+    Map<String, SortedMap<String, StoredFile>> filesByDirectory = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+      String format = in.readUTF();
+      if (!FORMAT.equals(format)) {
+        throw new ShadowCopyError("Unsupported store index format '" + format + "' in: " + indexPath);
+      }
+      String[] storeFiles = new String[in.readInt()];
+      for (int i = 0; i < storeFiles.length; i++) {
+        storeFiles[i] = in.readUTF();
+      }
+      int fileCount = in.readInt();
+      for (int i = 0; i < fileCount; i++) {
+        String directory = in.readUTF();
+        String name = in.readUTF();
+        int mode = in.readInt();
+        int uid = in.readInt();
+        int gid = in.readInt();
+        long size = in.readLong();
+        FileTime lastModifiedTime = FileTime.from(in.readLong(), TimeUnit.NANOSECONDS);
+        byte[] fileHash = readHash(in);
+        List<Segment> segments = new ArrayList<>();
+        int segmentCount = in.readInt();
+        for (int j = 0; j < segmentCount; j++) {
+          String storeFile = storeFiles[in.readInt()];
+          long offset = in.readLong();
+          long length = in.readLong();
+          byte[] hash = readHash(in);
+          segments.add(new Segment(storeFile, offset, length, hash));
+        }
+        StoredFile file = new StoredFile(directory, name, mode, uid, gid, size, lastModifiedTime, segments, fileHash);
+        filesByDirectory.computeIfAbsent(directory, key -> new TreeMap<>()).put(name, file);
+      }
+    }
+    return new StoreIndex(storeDirectory, filesByDirectory);
+  }
+
+  static void write(Path indexPath, Collection<StoredFile> files) throws IOException {
+    Map<String, Integer> storeFiles = new LinkedHashMap<>();
+    for (StoredFile file : files) {
+      for (Segment segment : file.segments) {
+        storeFiles.putIfAbsent(segment.storeFile, storeFiles.size());
+      }
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      Files.newOutputStream(indexPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)))) {
+      out.writeUTF(FORMAT);
+      out.writeInt(storeFiles.size());
+      for (String storeFile : storeFiles.keySet()) {
+        out.writeUTF(storeFile);
+      }
+      out.writeInt(files.size());
+      for (StoredFile file : files) {
+        out.writeUTF(file.directory);
+        out.writeUTF(file.name);
+        out.writeInt(file.mode);
+        out.writeInt(file.uid);
+        out.writeInt(file.gid);
+        out.writeLong(file.size);
+        out.writeLong(file.lastModifiedTime.to(TimeUnit.NANOSECONDS));
+        writeHash(out, file.hash);
+        out.writeInt(file.segments.size());
+        for (Segment segment : file.segments) {
+          out.writeInt(storeFiles.get(segment.storeFile));
+          out.writeLong(segment.offset);
+          out.writeLong(segment.length);
+          writeHash(out, segment.hash);
+        }
+      }
+    }
+  }
+
+  @Nullable
+  static byte[] readHash(DataInputStream in) throws IOException {
+    int length = in.readUnsignedByte();
+    if (length == 0) {
+      return null;
+    }
+    byte[] hash = new byte[length];
+    in.readFully(hash);
+    return hash;
+  }
+
+  static void writeHash(DataOutputStream out, @Nullable byte[] hash) throws IOException {
+    if (hash == null) {
+      out.writeByte(0);
+    } else {
+      out.writeByte(hash.length);
+      out.write(hash);
+    }
+  }
+
+  public boolean isEmpty() {
+    return filesByDirectory.isEmpty();
+  }
+
+  @Nullable
+  public StoredFile get(Path relativePath) {
+    Path parent = relativePath.getParent();
+    String directory = parent == null ? ActionUtils.DOT_DIRECTORY.toString() : parent.toString();
+    return get(directory, relativePath.getFileName().toString());
+  }
+
+  @Nullable
+  public StoredFile get(String directory, String name) {
+    SortedMap<String, StoredFile> files = filesByDirectory.get(directory);
+    return files != null ? files.get(name) : null;
+  }
+
+  public Collection<StoredFile> files() {
+    List<StoredFile> files = new ArrayList<>();
+    filesByDirectory.values().forEach(directoryFiles -> files.addAll(directoryFiles.values()));
+    return files;
+  }
+
+  public Collection<StoredFile> files(String directory) {
+    SortedMap<String, StoredFile> files = filesByDirectory.get(directory);
+    return files != null ? files.values() : Collections.emptyList();
+  }
+
+  /**
+   * @return chunk segments of all stored files by content hash
+   */
+  public Map<ByteBuffer, Segment> chunks() {
+    Map<ByteBuffer, Segment> chunks = new HashMap<>();
+    for (SortedMap<String, StoredFile> files : filesByDirectory.values()) {
+      for (StoredFile file : files.values()) {
+        for (Segment segment : file.segments) {
+          if (segment.hash != null) {
+            chunks.putIfAbsent(ByteBuffer.wrap(segment.hash), segment);
+          }
+        }
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * @return the file key of the given store file, to match store files linked to files of a shadow copy tree
+   */
+  @Nullable
+  public Object fileKey(String storeFile) throws IOException {
+    if (storeDirectory == null) {
+      return null;
+    }
+    FileAttributes attributes = FileAttributes.readIfExists(storeDirectory.resolve(storeFile));
+    return attributes != null ? attributes.fileKey : null;
+  }
+
+  public InputStream open(StoredFile file) {
+    if (storeDirectory == null) {
+      throw new ShadowCopyError("Missing store directory for: " + file.name);
+    }
+    return new SegmentsInputStream(storeDirectory, file.segments.iterator());
+  }
+
+  private static class SegmentsInputStream extends InputStream {
+
+    private final Path storeDirectory;
+    private final Iterator<Segment> segments;
+    @Nullable
+    private Segment segment = null;
+    private long segmentPosition = 0;
+    @Nullable
+    private String channelStoreFile = null;
+    @Nullable
+    private FileChannel channel = null;
+
+    private SegmentsInputStream(Path storeDirectory, Iterator<Segment> segments) {
+      this.storeDirectory = storeDirectory;
+      this.segments = segments;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      int count = read(buffer, 0, 1);
+      return count == -1 ? -1 : (buffer[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      while (segment == null || segmentPosition == segment.length) {
+        if (!segments.hasNext()) {
+          return -1;
+        }
+        segment = segments.next();
+        segmentPosition = 0;
+      }
+      FileChannel segmentChannel = openChannel(segment.storeFile);
+      int toRead = (int) Math.min(length, segment.length - segmentPosition);
+      int count = segmentChannel.read(ByteBuffer.wrap(buffer, offset, toRead), segment.offset + segmentPosition);
+      if (count == -1) {
+        throw new IOException("Unexpected end of store file: " + storeDirectory.resolve(segment.storeFile));
+      }
+      segmentPosition += count;
+      return count;
+    }
+
+    private FileChannel openChannel(String storeFile) throws IOException {
+      if (channel == null || !storeFile.equals(channelStoreFile)) {
+        close();
+        channel = FileChannel.open(storeDirectory.resolve(storeFile), StandardOpenOption.READ);
+        channelStoreFile = storeFile;
+      }
+      return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+        channelStoreFile = null;
+      }
+    }
+
+  }
+
+}
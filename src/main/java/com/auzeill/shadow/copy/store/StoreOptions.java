@@ -0,0 +1,36 @@
+package com.auzeill.shadow.copy.store;
+
+public class StoreOptions {
+
+  public static final StoreOptions NONE = new StoreOptions(0, 0, false);
+
+  /**
+   * New regular files of at most this size are appended into the pack file, 0 to disable.
+   */
+  public final long packThreshold;
+
+  /**
+   * New regular files of at least this size are stored as chunks, 0 to disable.
+   */
+  public final long chunkThreshold;
+
+  /**
+   * Regular files which grew since the last shadow copy only store their appended data.
+   */
+  public final boolean detectAppends;
+
+  public StoreOptions(long packThreshold, long chunkThreshold, boolean detectAppends) {
+    this.packThreshold = packThreshold;
+    this.chunkThreshold = chunkThreshold;
+    this.detectAppends = detectAppends;
+  }
+
+  public boolean pack(long size) {
+    return packThreshold > 0 && size <= packThreshold;
+  }
+
+  public boolean chunk(long size) {
+    return chunkThreshold > 0 && size >= chunkThreshold;
+  }
+
+}
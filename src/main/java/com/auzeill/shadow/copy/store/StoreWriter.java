@@ -0,0 +1,370 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import com.auzeill.shadow.copy.store.StoredFile.Segment;
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import com.auzeill.shadow.copy.utils.HardLinks;
+import com.auzeill.shadow.copy.utils.HashUtils;
+import com.auzeill.shadow.copy.utils.Throttle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Appends the content of new files, their chunks missing from the last shadow copy, or the data
+ * appended to files of the last shadow copy, into the pack file of the shadow copy being created,
+ * and hard links the store files of the last shadow copy still referenced by reused stored files.
+ * Store files contain data of files with different owners, so only the current user can read them.
+ */
+public class StoreWriter implements Closeable {
+
+  private static final FileAttribute<Set<PosixFilePermission>> PRIVATE_DIRECTORY =
+    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+  private static final FileAttribute<Set<PosixFilePermission>> PRIVATE_FILE =
+    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+
+  /**
+   * Each append creates one more segment, beyond this limit the file is stored again as a whole.
+   */
+  static final int MAX_APPEND_SEGMENTS = 64;
+
+  private static final String CHECKPOINT_PREFIX = "checkpoint-";
+
+  private final Path storeDirectory;
+  private final StoreIndex lastStore;
+  private final String packName;
+  private final String baseNamePrefix;
+  private int baseCount = 0;
+  private final List<StoredFile> files = new ArrayList<>();
+  private final Set<String> linkedStoreFiles = new HashSet<>();
+  @Nullable
+  private FileChannel pack = null;
+  private long packSize = 0;
+  @Nullable
+  private Map<ByteBuffer, Segment> knownChunks = null;
+  private int checkpointCount = 0;
+  private int checkpointedFileCount = 0;
+  private int linkRotationCount = 0;
+  /**
+   * Limits the copies of the store files which reached the link limit
+   */
+  private final Throttle throttle;
+
+  public StoreWriter(Path shadowCopy, StoreIndex lastStore, Throttle throttle) {
+    this.storeDirectory = StoreIndex.storeDirectory(shadowCopy);
+    this.lastStore = lastStore;
+    this.throttle = throttle;
+    this.packName = shadowCopy.getFileName().toString() + ".pack";
+    this.baseNamePrefix = shadowCopy.getFileName().toString() + "-";
+  }
+
+  /**
+   * Continues the store of a shadow copy interrupted after the given checkpoint, the data written
+   * into the pack file after the checkpoint is discarded.
+   */
+  public static StoreWriter resume(Path shadowCopy, StoreIndex lastStore, Throttle throttle, int checkpointCount, long packSize)
+    throws IOException {
+    StoreWriter writer = new StoreWriter(shadowCopy, lastStore, throttle);
+    Path storeDirectory = writer.storeDirectory;
+    for (int i = 1; i <= checkpointCount; i++) {
+      writer.files.addAll(StoreIndex.read(storeDirectory, storeDirectory.resolve(CHECKPOINT_PREFIX + i)).files());
+    }
+    writer.checkpointCount = checkpointCount;
+    writer.checkpointedFileCount = writer.files.size();
+    if (!Files.isDirectory(storeDirectory)) {
+      return writer;
+    }
+    // written by the interrupted run when closing its store
+    Files.deleteIfExists(storeDirectory.resolve(StoreIndex.INDEX_FILE_NAME));
+    Path packPath = storeDirectory.resolve(writer.packName);
+    if (packSize > 0) {
+      writer.pack = FileChannel.open(packPath, StandardOpenOption.WRITE);
+      writer.pack.truncate(packSize);
+      writer.packSize = packSize;
+    } else {
+      Files.deleteIfExists(packPath);
+    }
+    try (Stream<Path> list = Files.list(storeDirectory)) {
+      for (String name : list.map(path -> path.getFileName().toString()).collect(Collectors.toList())) {
+        if (!name.startsWith(CHECKPOINT_PREFIX)) {
+          writer.linkedStoreFiles.add(name);
+          if (name.startsWith(writer.baseNamePrefix) && name.endsWith(".base")) {
+            String index = name.substring(writer.baseNamePrefix.length(), name.length() - ".base".length());
+            writer.baseCount = Math.max(writer.baseCount, Integer.parseInt(index));
+          }
+        }
+      }
+    }
+    return writer;
+  }
+
+  /**
+   * Forces the pack file on the storage device, and writes the files stored since the previous
+   * checkpoint into a new checkpoint index.
+   * @return the number of checkpoint indexes, to {@link #resume} from this checkpoint
+   */
+  public int checkpoint() throws IOException {
+    if (pack != null) {
+      pack.force(false);
+    }
+    if (checkpointedFileCount < files.size()) {
+      createStoreDirectory();
+      Path checkpointPath = Files.createFile(storeDirectory.resolve(CHECKPOINT_PREFIX + (checkpointCount + 1)), PRIVATE_FILE);
+      StoreIndex.write(checkpointPath, files.subList(checkpointedFileCount, files.size()));
+      try (FileChannel channel = FileChannel.open(checkpointPath, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      checkpointCount++;
+      checkpointedFileCount = files.size();
+    }
+    return checkpointCount;
+  }
+
+  /**
+   * Deletes the checkpoint indexes of a completed shadow copy.
+   */
+  public static void deleteCheckpoints(Path shadowCopy) throws IOException {
+    Path storeDirectory = StoreIndex.storeDirectory(shadowCopy);
+    if (Files.isDirectory(storeDirectory)) {
+      try (Stream<Path> list = Files.list(storeDirectory)) {
+        for (Path path : list.filter(path -> path.getFileName().toString().startsWith(CHECKPOINT_PREFIX)).collect(Collectors.toList())) {
+          Files.delete(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the number of bytes written into the pack file
+   */
+  public long packSize() {
+    return packSize;
+  }
+
+  public void pack(String directory, String name, Path source, FileAttributes attributes) throws IOException {
+    byte[] content = Files.readAllBytes(source);
+    Segment segment = append(content, 0, content.length, null);
+    files.add(new StoredFile(directory, name, attributes.mode, attributes.uid, attributes.gid, content.length,
+      attributes.lastModifiedTime, Collections.singletonList(segment), HashUtils.hash(content, 0, content.length)));
+  }
+
+  /**
+   * Splits the content in fixed size chunks, only chunks not already known by the last shadow
+   * copy or by this one are appended into the pack file.
+   */
+  public void chunk(String directory, String name, Path source, FileAttributes attributes)
+    throws IOException, InterruptedException {
+    if (knownChunks == null) {
+      knownChunks = lastStore.chunks();
+    }
+    List<Segment> segments = new ArrayList<>();
+    MessageDigest fileDigest = HashUtils.newDigest();
+    long size = 0;
+    byte[] buffer = new byte[Chunks.CHUNK_SIZE];
+    try (InputStream input = Files.newInputStream(source)) {
+      int length = input.readNBytes(buffer, 0, buffer.length);
+      while (length > 0) {
+        fileDigest.update(buffer, 0, length);
+        byte[] hash = HashUtils.hash(buffer, 0, length);
+        Segment segment = knownChunks.get(ByteBuffer.wrap(hash));
+        if (segment != null && segment.length == length) {
+          link(segment.storeFile);
+        } else {
+          segment = append(buffer, 0, length, hash);
+          knownChunks.put(ByteBuffer.wrap(hash), segment);
+        }
+        segments.add(segment);
+        size += length;
+        length = input.readNBytes(buffer, 0, buffer.length);
+      }
+    }
+    files.add(new StoredFile(directory, name, attributes.mode, attributes.uid, attributes.gid, size,
+      attributes.lastModifiedTime, segments, fileDigest.digest()));
+  }
+
+  /**
+   * Stores only the data appended to a stored file of the last shadow copy.
+   * @return false, when the content of the previous file is not a prefix of the source content
+   */
+  public boolean appendTo(String directory, String name, Path source, FileAttributes attributes, StoredFile previous)
+    throws IOException, InterruptedException {
+    if (previous.size >= attributes.size || previous.segments.size() >= MAX_APPEND_SEGMENTS) {
+      return false;
+    }
+    byte[] previousHash = previous.hash;
+    if (previousHash == null) {
+      try (InputStream input = lastStore.open(previous)) {
+        previousHash = HashUtils.hash(input);
+      }
+    }
+    StoredFile file = appendTo(directory, name, source, attributes, previous.size, previousHash, previous.segments);
+    if (file == null) {
+      return false;
+    }
+    for (Segment segment : previous.segments) {
+      link(segment.storeFile);
+    }
+    files.add(file);
+    return true;
+  }
+
+  /**
+   * Stores only the data appended to a regular file of the last shadow copy tree, the previous
+   * file becomes a store file through a hard link.
+   * @return false, when the content of the previous file is not a prefix of the source content
+   */
+  public boolean appendTo(String directory, String name, Path source, FileAttributes attributes, Path previous)
+    throws IOException, InterruptedException {
+    long previousSize = Files.size(previous);
+    if (previousSize >= attributes.size) {
+      return false;
+    }
+    byte[] previousHash;
+    try (InputStream input = Files.newInputStream(previous)) {
+      previousHash = HashUtils.hash(input);
+    }
+    String baseName = baseNamePrefix + (++baseCount) + ".base";
+    Segment base = new Segment(baseName, 0, previousSize, null);
+    StoredFile file = appendTo(directory, name, source, attributes, previousSize, previousHash, Collections.singletonList(base));
+    if (file == null) {
+      return false;
+    }
+    createStoreDirectory();
+    linkOrCopy(storeDirectory.resolve(baseName), previous);
+    linkedStoreFiles.add(baseName);
+    files.add(file);
+    return true;
+  }
+
+  @Nullable
+  private StoredFile appendTo(String directory, String name, Path source, FileAttributes attributes, long previousSize,
+    byte[] previousHash, List<Segment> previousSegments) throws IOException {
+    MessageDigest prefixDigest = HashUtils.newDigest();
+    MessageDigest fileDigest = HashUtils.newDigest();
+    byte[] buffer = new byte[HashUtils.BUFFER_SIZE];
+    try (InputStream input = Files.newInputStream(source)) {
+      long remaining = previousSize;
+      while (remaining > 0) {
+        int length = input.readNBytes(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (length == 0) {
+          return null;
+        }
+        prefixDigest.update(buffer, 0, length);
+        fileDigest.update(buffer, 0, length);
+        remaining -= length;
+      }
+      if (!Arrays.equals(prefixDigest.digest(), previousHash)) {
+        return null;
+      }
+      long tailOffset = -1;
+      long tailLength = 0;
+      int length = input.read(buffer);
+      while (length != -1) {
+        fileDigest.update(buffer, 0, length);
+        Segment segment = append(buffer, 0, length, null);
+        tailOffset = tailOffset == -1 ? segment.offset : tailOffset;
+        tailLength += length;
+        length = input.read(buffer);
+      }
+      List<Segment> segments = new ArrayList<>(previousSegments);
+      if (tailLength > 0) {
+        segments.add(new Segment(packName, tailOffset, tailLength, null));
+      }
+      return new StoredFile(directory, name, attributes.mode, attributes.uid, attributes.gid, previousSize + tailLength,
+        attributes.lastModifiedTime, segments, fileDigest.digest());
+    }
+  }
+
+  public void reuse(String directory, String name, FileAttributes attributes, StoredFile previous)
+    throws IOException, InterruptedException {
+    for (Segment segment : previous.segments) {
+      link(segment.storeFile);
+    }
+    files.add(new StoredFile(directory, name, attributes.mode, attributes.uid, attributes.gid, previous.size,
+      previous.lastModifiedTime, previous.segments, previous.hash));
+  }
+
+  private Segment append(byte[] content, int offset, int length, @Nullable byte[] hash) throws IOException {
+    if (pack == null) {
+      createStoreDirectory();
+      pack = FileChannel.open(storeDirectory.resolve(packName), EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), PRIVATE_FILE);
+      linkedStoreFiles.add(packName);
+    }
+    Segment segment = new Segment(packName, packSize, length, hash);
+    ByteBuffer buffer = ByteBuffer.wrap(content, offset, length);
+    while (buffer.hasRemaining()) {
+      packSize += pack.write(buffer, packSize);
+    }
+    return segment;
+  }
+
+  private void link(String storeFile) throws IOException, InterruptedException {
+    if (!linkedStoreFiles.contains(storeFile)) {
+      if (lastStore.storeDirectory == null) {
+        throw new ShadowCopyError("Missing store directory for: " + storeFile);
+      }
+      createStoreDirectory();
+      linkOrCopy(storeDirectory.resolve(storeFile), lastStore.storeDirectory.resolve(storeFile));
+      linkedStoreFiles.add(storeFile);
+    }
+  }
+
+  /**
+   * Copies the file when it has reached the link limit, the next shadow copies link to the copy.
+   */
+  private void linkOrCopy(Path link, Path existing) throws IOException, InterruptedException {
+    if (!HardLinks.createLink(link, existing, 0)) {
+      throttle.acquireBytes(Files.size(existing));
+      Files.copy(existing, link, StandardCopyOption.COPY_ATTRIBUTES);
+      linkRotationCount++;
+    }
+  }
+
+  /**
+   * @return the number of store files copied instead of linked, because of the link limit
+   */
+  public int linkRotationCount() {
+    return linkRotationCount;
+  }
+
+  private void createStoreDirectory() throws IOException {
+    if (!Files.isDirectory(storeDirectory)) {
+      Files.createDirectories(storeDirectory, PRIVATE_DIRECTORY);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (pack != null) {
+      pack.close();
+      pack = null;
+    }
+    if (!files.isEmpty()) {
+      createStoreDirectory();
+      Path indexPath = Files.createFile(storeDirectory.resolve(StoreIndex.INDEX_FILE_NAME), PRIVATE_FILE);
+      StoreIndex.write(indexPath, files);
+    }
+  }
+
+}
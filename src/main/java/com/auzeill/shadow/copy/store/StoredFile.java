@@ -0,0 +1,69 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Regular file of a shadow copy which is not stored as a file of the shadow copy tree,
+ * its content is the concatenation of segments of store files.
+ */
+public class StoredFile {
+
+  public final String directory;
+  public final String name;
+  public final int mode;
+  public final int uid;
+  public final int gid;
+  public final long size;
+  public final FileTime lastModifiedTime;
+  public final List<Segment> segments;
+  /**
+   * Content hash of the whole file, null for files stored by a version without content hash.
+   */
+  @Nullable
+  public final byte[] hash;
+
+  public StoredFile(String directory, String name, int mode, int uid, int gid, long size, FileTime lastModifiedTime,
+    List<Segment> segments, @Nullable byte[] hash) {
+    this.directory = directory;
+    this.name = name;
+    this.mode = mode;
+    this.uid = uid;
+    this.gid = gid;
+    this.size = size;
+    this.lastModifiedTime = lastModifiedTime;
+    this.segments = segments;
+    this.hash = hash;
+  }
+
+  public FileAttributes attributes() {
+    return new FileAttributes(mode, uid, gid, size, lastModifiedTime, null);
+  }
+
+  public static class Segment {
+
+    public final String storeFile;
+    public final long offset;
+    public final long length;
+    /**
+     * Content hash of chunk segments, null for other segments.
+     */
+    @Nullable
+    public final byte[] hash;
+
+    public Segment(String storeFile, long offset, long length, @Nullable byte[] hash) {
+      this.storeFile = storeFile;
+      this.offset = offset;
+      this.length = length;
+      this.hash = hash;
+    }
+
+    public boolean isSameAs(Segment other) {
+      return storeFile.equals(other.storeFile) && offset == other.offset && length == other.length;
+    }
+
+  }
+
+}
@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.auzeill.shadow.copy.store;
+
+import javax.annotation.ParametersAreNonnullByDefault;
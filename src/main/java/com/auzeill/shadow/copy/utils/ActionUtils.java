@@ -3,16 +3,13 @@ package com.auzeill.shadow.copy.utils;
 import com.auzeill.shadow.copy.ShadowCopyError;
 import com.auzeill.shadow.copy.arguments.Arguments;
 import com.auzeill.shadow.copy.arguments.Option;
+import com.auzeill.shadow.copy.catalog.Catalog;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 public final class ActionUtils {
@@ -27,19 +24,41 @@ public final class ActionUtils {
 
   public static Path resolveSourceDirectory(Arguments arguments, int sourceDirectoryIndex) {
     if (sourceDirectoryIndex >= 0 && sourceDirectoryIndex < arguments.actionArguments.size()) {
-      return Paths.get(arguments.actionArguments.get(sourceDirectoryIndex));
+      return resolvePath(arguments, arguments.actionArguments.get(sourceDirectoryIndex));
     }
-    return Paths.get(".");
+    return resolvePath(arguments, ".");
+  }
+
+  public static List<Path> resolveSourceDirectories(Arguments arguments) {
+    List<Path> sourceDirectories = new ArrayList<>();
+    for (String sourceDirectory : arguments.actionArguments) {
+      sourceDirectories.add(resolvePath(arguments, sourceDirectory));
+    }
+    if (sourceDirectories.isEmpty()) {
+      sourceDirectories.add(resolvePath(arguments, "."));
+    }
+    return sourceDirectories;
   }
 
   public static Path resolveShadowDirectoryPath(Arguments arguments, int sourceDirectoryIndex) {
     String shadowDirectory = arguments.options.get(Option.SHADOW_DIRECTORY);
     if (shadowDirectory != null) {
-      return Paths.get(shadowDirectory);
+      return resolvePath(arguments, shadowDirectory);
     }
     return resolve(resolveSourceDirectory(arguments, sourceDirectoryIndex), DEFAULT_SHADOW_DIRECTORY_NAME);
   }
 
+  /**
+   * Relative paths of a request forwarded to the daemon are resolved against the directory of the client.
+   */
+  public static Path resolvePath(Arguments arguments, String path) {
+    Path resolved = Paths.get(path);
+    if (arguments.workingDirectory == null) {
+      return resolved;
+    }
+    return arguments.workingDirectory.resolve(resolved).normalize();
+  }
+
   public static int getShadowIndex(Arguments arguments) {
     String shadowIndex = arguments.options.get(Option.SHADOW_INDEX);
     if (shadowIndex != null) {
@@ -56,16 +75,56 @@ public final class ActionUtils {
     }
   }
 
-  public static List<Path> shadowCopyHistory(Path shadowDirectory) throws IOException {
-    if (!Files.isDirectory(shadowDirectory)) {
-      return Collections.emptyList();
+  public static int getJobs(Arguments arguments) {
+    String jobs = arguments.options.get(Option.JOBS);
+    if (jobs == null) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    try {
+      int value = Integer.parseInt(jobs);
+      if (value >= 1) {
+        return value;
+      }
+    } catch (NumberFormatException ex) {
+      // invalid value, see below
     }
-    try (Stream<Path> fileList = Files.list(shadowDirectory)) {
-      return fileList
-        .filter(path -> SHADOW_COPY_FORMAT.matcher(path.getFileName().toString()).matches())
-        .sorted(Comparator.comparing(Path::getFileName))
-        .collect(Collectors.toList());
+    throw new ShadowCopyError("Invalid " + Option.JOBS.flag + " value: " + jobs);
+  }
+
+  public static int getSortThreshold(Arguments arguments) {
+    String threshold = arguments.options.get(Option.SORT_THRESHOLD);
+    if (threshold == null) {
+      return SortedNames.DEFAULT_THRESHOLD;
+    }
+    try {
+      int value = Integer.parseInt(threshold);
+      if (value >= 1) {
+        return value;
+      }
+    } catch (NumberFormatException ex) {
+      // invalid value, see below
     }
+    throw new ShadowCopyError("Invalid " + Option.SORT_THRESHOLD.flag + " value: " + threshold);
+  }
+
+  public static long getSize(Arguments arguments, Option option, long defaultValue) {
+    String size = arguments.options.get(option);
+    if (size == null) {
+      return defaultValue;
+    }
+    try {
+      long value = Long.parseLong(size);
+      if (value >= 0) {
+        return value;
+      }
+    } catch (NumberFormatException ex) {
+      // invalid value, see below
+    }
+    throw new ShadowCopyError("Invalid " + option.flag + " value: " + size);
+  }
+
+  public static List<Path> shadowCopyHistory(Path shadowDirectory) throws IOException {
+    return Catalog.load(shadowDirectory).history();
   }
 
   @Nullable
@@ -83,6 +142,22 @@ public final class ActionUtils {
     return index >= 0 ? childPaths.get(index) : null;
   }
 
+  public static Path metadataDirectory(Path shadowCopy) {
+    return shadowCopy.resolve(DEFAULT_SHADOW_DIRECTORY_NAME);
+  }
+
+  /**
+   * @return the normalized path, "." for the target directory itself
+   */
+  public static String relativePath(String path) {
+    Path normalized = Paths.get(path).normalize();
+    if (normalized.isAbsolute() || normalized.startsWith("..")) {
+      throw new ShadowCopyError("Expects a path relative to the target directory: " + path);
+    }
+    String relativePath = normalized.toString();
+    return relativePath.isEmpty() ? "." : relativePath;
+  }
+
   public static Path resolve(Path parent, String child) {
     return resolve(parent, Paths.get(child));
   }
@@ -0,0 +1,139 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Numeric file attributes read from the "unix" attribute view, unlike PosixFileAttributes,
+ * reading them does not resolve the owner and group names.
+ */
+public final class FileAttributes {
+
+  public static final int PERMISSIONS_MASK = 0777;
+
+  private static final String UNIX_ATTRIBUTES = "unix:mode,uid,gid,size,lastModifiedTime,lastAccessTime,creationTime,ctime,ino,nlink,fileKey";
+  private static final int TYPE_MASK = 0170000;
+  private static final int TYPE_REGULAR_FILE = 0100000;
+  private static final int TYPE_DIRECTORY = 0040000;
+  private static final int TYPE_SYMBOLIC_LINK = 0120000;
+
+  public final int mode;
+  public final int uid;
+  public final int gid;
+  public final long size;
+  public final FileTime lastModifiedTime;
+  /**
+   * Null when unknown, like for a stored file
+   */
+  @Nullable
+  public final FileTime lastAccessTime;
+  @Nullable
+  public final FileTime creationTime;
+  /**
+   * Status change time, can not be set, null when unknown
+   */
+  @Nullable
+  public final FileTime changeTime;
+  /**
+   * Inode number, 0 when unknown
+   */
+  public final long inode;
+  /**
+   * Number of hard links, 0 when unknown
+   */
+  public final int linkCount;
+  @Nullable
+  public final Object fileKey;
+
+  public FileAttributes(int mode, int uid, int gid, long size, FileTime lastModifiedTime, @Nullable Object fileKey) {
+    this(mode, uid, gid, size, lastModifiedTime, null, null, null, 0, 0, fileKey);
+  }
+
+  public FileAttributes(int mode, int uid, int gid, long size, FileTime lastModifiedTime, @Nullable FileTime lastAccessTime,
+    @Nullable FileTime creationTime, @Nullable FileTime changeTime, long inode, int linkCount, @Nullable Object fileKey) {
+    this.mode = mode;
+    this.uid = uid;
+    this.gid = gid;
+    this.size = size;
+    this.lastModifiedTime = lastModifiedTime;
+    this.lastAccessTime = lastAccessTime;
+    this.creationTime = creationTime;
+    this.changeTime = changeTime;
+    this.inode = inode;
+    this.linkCount = linkCount;
+    this.fileKey = fileKey;
+  }
+
+  public static FileAttributes read(Path path) throws IOException {
+    Map<String, Object> attributes = Files.readAttributes(path, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+    return new FileAttributes(
+      (Integer) attributes.get("mode"),
+      (Integer) attributes.get("uid"),
+      (Integer) attributes.get("gid"),
+      (Long) attributes.get("size"),
+      (FileTime) attributes.get("lastModifiedTime"),
+      (FileTime) attributes.get("lastAccessTime"),
+      (FileTime) attributes.get("creationTime"),
+      (FileTime) attributes.get("ctime"),
+      (Long) attributes.get("ino"),
+      (Integer) attributes.get("nlink"),
+      attributes.get("fileKey"));
+  }
+
+  @Nullable
+  public static FileAttributes readIfExists(Path path) throws IOException {
+    try {
+      return read(path);
+    } catch (NoSuchFileException ex) {
+      return null;
+    } catch (FileSystemException ex) {
+      // ENOTDIR, a parent directory has been replaced by another type of file
+      Path parent = path.getParent();
+      if (parent != null && !Files.isDirectory(parent)) {
+        return null;
+      }
+      throw ex;
+    }
+  }
+
+  public boolean isRegularFile() {
+    return (mode & TYPE_MASK) == TYPE_REGULAR_FILE;
+  }
+
+  public boolean isDirectory() {
+    return (mode & TYPE_MASK) == TYPE_DIRECTORY;
+  }
+
+  public boolean isSymbolicLink() {
+    return (mode & TYPE_MASK) == TYPE_SYMBOLIC_LINK;
+  }
+
+  public int permissions() {
+    return mode & PERMISSIONS_MASK;
+  }
+
+  /**
+   * Sets the owner, group and permissions of the given file, without following symbolic links, when they
+   * differ from its current attributes. The numeric ids are set, so the user and group names are never
+   * resolved.
+   */
+  public void copyOwnerAndPermissionsTo(Path path, FileAttributes current) throws IOException {
+    if (gid != current.gid) {
+      Files.setAttribute(path, "unix:gid", gid, LinkOption.NOFOLLOW_LINKS);
+    }
+    if (uid != current.uid) {
+      Files.setAttribute(path, "unix:uid", uid, LinkOption.NOFOLLOW_LINKS);
+    }
+    if (permissions() != current.permissions()) {
+      Files.setAttribute(path, "unix:mode", permissions(), LinkOption.NOFOLLOW_LINKS);
+    }
+  }
+
+}
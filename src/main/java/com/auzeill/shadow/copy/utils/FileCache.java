@@ -0,0 +1,72 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps values loaded from a file while the file is unchanged (same file key, size and last modified time).
+ * Only enabled by the daemon, where each request loads again the same filters and store indexes.
+ * Values are softly referenced, so they are reclaimed under memory pressure.
+ */
+public final class FileCache<T> {
+
+  @FunctionalInterface
+  public interface Loader<T> {
+    T load(Path file) throws IOException;
+  }
+
+  private static volatile boolean enabled = false;
+
+  private final Map<Path, Entry<T>> entries = new ConcurrentHashMap<>();
+
+  public static void enable() {
+    enabled = true;
+  }
+
+  public T get(Path file, Loader<T> loader) throws IOException {
+    if (!enabled) {
+      return loader.load(file);
+    }
+    // attributes are read before the content, a concurrent change is detected by the next call
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    Entry<T> entry = entries.get(file);
+    T value = entry != null && entry.matches(attributes) ? entry.value.get() : null;
+    if (value == null) {
+      value = loader.load(file);
+      entries.put(file, new Entry<>(attributes, value));
+    }
+    return value;
+  }
+
+  private static final class Entry<T> {
+
+    @Nullable
+    private final Object fileKey;
+    private final long size;
+    private final FileTime lastModifiedTime;
+    private final SoftReference<T> value;
+
+    private Entry(BasicFileAttributes attributes, T value) {
+      this.fileKey = attributes.fileKey();
+      this.size = attributes.size();
+      this.lastModifiedTime = attributes.lastModifiedTime();
+      this.value = new SoftReference<>(value);
+    }
+
+    private boolean matches(BasicFileAttributes attributes) {
+      return Objects.equals(fileKey, attributes.fileKey()) &&
+        size == attributes.size() &&
+        lastModifiedTime.equals(attributes.lastModifiedTime());
+    }
+
+  }
+
+}
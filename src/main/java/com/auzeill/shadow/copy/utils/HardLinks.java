@@ -0,0 +1,64 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Hard links sharing the unchanged files of the last shadow copy. A file system limits the number of links
+ * of an inode, so past the limit the file has to be copied into a new inode, linked by the next shadow copies.
+ */
+public final class HardLinks {
+
+  /**
+   * Link limit of ext4, the lowest of the common Linux file systems, a lower limit is detected by the
+   * failure of the link.
+   */
+  public static final int LINK_LIMIT = 65000;
+
+  /**
+   * Lowest link limit of the Linux file systems supporting hard links (ext2, ext3), a file with fewer links
+   * has not reached the link limit of its file system.
+   */
+  private static final int MIN_LINK_LIMIT = 32000;
+
+  private HardLinks() {
+    // utility class
+  }
+
+  /**
+   * @param linkCount current number of links of the existing file, or 0 when unknown
+   * @return false, without creating the link, when the existing file has reached the link limit
+   */
+  public static boolean createLink(Path link, Path existing, int linkCount) throws IOException {
+    if (linkCount >= LINK_LIMIT) {
+      return false;
+    }
+    try {
+      Files.createLink(link, existing);
+      return true;
+    } catch (FileAlreadyExistsException | NoSuchFileException | AccessDeniedException ex) {
+      throw ex;
+    } catch (FileSystemException ex) {
+      if (isLinkLimitReached(existing, linkCount)) {
+        return false;
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * EMLINK has no exception type and its message depends on the locale: the link limit is reached when the
+   * existing file is still linked at least as many times as observed, and at least the lowest link limit.
+   */
+  private static boolean isLinkLimitReached(Path existing, int linkCount) throws IOException {
+    int currentLinkCount = (Integer) Files.getAttribute(existing, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+    return currentLinkCount >= Math.max(linkCount, MIN_LINK_LIMIT);
+  }
+
+}
@@ -0,0 +1,60 @@
+package com.auzeill.shadow.copy.utils;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class HashUtils {
+
+  public static final String ALGORITHM = "SHA-256";
+  public static final int BUFFER_SIZE = 64 * 1024;
+  /**
+   * For sequential reads of whole files, one system call per MiB
+   */
+  public static final int LARGE_BUFFER_SIZE = 1024 * 1024;
+
+  private HashUtils() {
+    // utility class
+  }
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new ShadowCopyError("Unsupported hash algorithm: " + ALGORITHM);
+    }
+  }
+
+  public static byte[] hash(byte[] data, int offset, int length) {
+    MessageDigest digest = newDigest();
+    digest.update(data, offset, length);
+    return digest.digest();
+  }
+
+  public static byte[] hash(InputStream input) throws IOException {
+    return hash(input, Long.MAX_VALUE);
+  }
+
+  /**
+   * @return the hash of at most the first maxLength bytes of the given input
+   */
+  public static byte[] hash(InputStream input, long maxLength) throws IOException {
+    return hash(input, maxLength, BUFFER_SIZE);
+  }
+
+  public static byte[] hash(InputStream input, long maxLength, int bufferSize) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[bufferSize];
+    long remaining = maxLength;
+    int length = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+    while (length > 0) {
+      digest.update(buffer, 0, length);
+      remaining -= length;
+      length = remaining > 0 ? input.read(buffer, 0, (int) Math.min(buffer.length, remaining)) : -1;
+    }
+    return digest.digest();
+  }
+
+}
@@ -0,0 +1,131 @@
+package com.auzeill.shadow.copy.utils;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded pool of background jobs (e.g. "cp" processes) shared by several walkers.
+ * When all workers are busy and the queue is full, the job is run by the submitting
+ * thread, this throttles walkers that produce jobs faster than they are consumed.
+ */
+public class JobPool implements AutoCloseable {
+
+  @FunctionalInterface
+  public interface Job {
+    void run() throws IOException, InterruptedException;
+  }
+
+  private final ThreadPoolExecutor executor;
+
+  public JobPool(int maxJobs) {
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(maxJobs, maxJobs, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>(maxJobs * 4),
+      runnable -> {
+        Thread thread = new Thread(runnable, "shadow-copy-job-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      },
+      new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  /**
+   * For jobs mostly waiting for the file system: one virtual thread per job when the runtime supports them
+   * (java 21+, looked up by reflection as the jar targets java 17), otherwise a pool of daemon threads.
+   * @param maxThreads number of threads of the fallback pool
+   */
+  public static ExecutorService newVirtualThreadExecutor(int maxThreads) {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException ex) {
+      AtomicInteger threadCount = new AtomicInteger();
+      return Executors.newFixedThreadPool(maxThreads, runnable -> {
+        Thread thread = new Thread(runnable, "shadow-copy-io-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  public Group newGroup() {
+    return new Group();
+  }
+
+  public static void rethrow(@Nullable Throwable failure) throws IOException, InterruptedException {
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof InterruptedException) {
+      throw (InterruptedException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new ShadowCopyError("Unexpected failure: " + failure.getMessage());
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Jobs submitted by one walker, {@link #await()} waits for all of them and re-throws the first failure.
+   */
+  public class Group {
+
+    private int pendingJobs = 0;
+    private Throwable failure = null;
+
+    public void submit(Job job) throws IOException, InterruptedException {
+      throwFailure();
+      synchronized (this) {
+        pendingJobs++;
+      }
+      executor.execute(() -> {
+        Throwable jobFailure = null;
+        try {
+          job.run();
+        } catch (Exception | Error ex) {
+          jobFailure = ex;
+        }
+        done(jobFailure);
+      });
+    }
+
+    private synchronized void done(Throwable jobFailure) {
+      if (jobFailure != null && failure == null) {
+        failure = jobFailure;
+      }
+      pendingJobs--;
+      notifyAll();
+    }
+
+    public void await() throws IOException, InterruptedException {
+      synchronized (this) {
+        while (pendingJobs > 0) {
+          wait();
+        }
+      }
+      throwFailure();
+    }
+
+    private void throwFailure() throws IOException, InterruptedException {
+      Throwable error;
+      synchronized (this) {
+        error = failure;
+      }
+      rethrow(error);
+    }
+
+  }
+
+}
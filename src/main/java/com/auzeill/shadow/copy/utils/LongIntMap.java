@@ -0,0 +1,80 @@
+package com.auzeill.shadow.copy.utils;
+
+/**
+ * Open addressing hash map from primitive long keys (e.g. inode numbers) to int values,
+ * about 12 bytes per entry instead of the boxed keys, values and nodes of a HashMap.
+ * Not thread safe.
+ */
+public final class LongIntMap {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private long[] keys;
+  private int[] values;
+  private boolean[] used;
+  private int size = 0;
+
+  public LongIntMap() {
+    keys = new long[INITIAL_CAPACITY];
+    values = new int[INITIAL_CAPACITY];
+    used = new boolean[INITIAL_CAPACITY];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int get(long key, int defaultValue) {
+    int slot = slot(keys, used, key);
+    return used[slot] ? values[slot] : defaultValue;
+  }
+
+  public void put(long key, int value) {
+    int slot = slot(keys, used, key);
+    if (!used[slot]) {
+      if ((size + 1) * 4L > keys.length * 3L) {
+        grow();
+        slot = slot(keys, used, key);
+      }
+      used[slot] = true;
+      keys[slot] = key;
+      size++;
+    }
+    values[slot] = value;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    boolean[] oldUsed = used;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldKeys.length * 2];
+    used = new boolean[oldKeys.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = slot(keys, used, oldKeys[i]);
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * @return the slot of the key, or the free slot where to insert it, using linear probing
+   */
+  private static int slot(long[] keys, boolean[] used, long key) {
+    int mask = keys.length - 1;
+    int slot = (int) mix(key) & mask;
+    while (used[slot] && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static long mix(long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return hash ^ (hash >>> 32);
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prints lines computed by background jobs in submission order. The number of pending jobs is
+ * bounded, so is the memory used by their results.
+ */
+public class OrderedOutput implements AutoCloseable {
+
+  private final PrintStream out;
+  private final ExecutorService executor;
+  private final int maxPending;
+  private final ArrayDeque<Future<List<String>>> pending = new ArrayDeque<>();
+
+  public OrderedOutput(PrintStream out, int jobs) {
+    this.out = out;
+    this.maxPending = jobs * 4;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(jobs, runnable -> {
+      Thread thread = new Thread(runnable, "shadow-copy-output-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public void println(String line) throws IOException, InterruptedException {
+    if (pending.isEmpty()) {
+      out.println(line);
+    } else {
+      add(CompletableFuture.completedFuture(List.of(line)));
+    }
+  }
+
+  public void submit(Callable<List<String>> job) throws IOException, InterruptedException {
+    add(executor.submit(job));
+  }
+
+  private void add(Future<List<String>> lines) throws IOException, InterruptedException {
+    pending.add(lines);
+    while (!pending.isEmpty() && (pending.size() > maxPending || pending.peek().isDone())) {
+      printHead();
+    }
+  }
+
+  private void printHead() throws IOException, InterruptedException {
+    try {
+      for (String line : pending.remove().get()) {
+        out.println(line);
+      }
+    } catch (ExecutionException ex) {
+      JobPool.rethrow(ex.getCause());
+    }
+  }
+
+  public void flush() throws IOException, InterruptedException {
+    while (!pending.isEmpty()) {
+      printHead();
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+}
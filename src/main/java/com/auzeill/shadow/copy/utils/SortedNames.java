@@ -0,0 +1,277 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import javax.annotation.Nullable;
+
+/**
+ * File names in ascending order, read one at a time. The names of a directory are sorted in memory
+ * up to a threshold, above it they are sorted by runs written into temporary files and merged, so
+ * the memory used by a walk does not depend on the size of the directories.
+ */
+public abstract class SortedNames implements Closeable {
+
+  public static final int DEFAULT_THRESHOLD = 100_000;
+
+  /**
+   * Maximum number of runs merged at once, more runs are first merged into a bigger run to bound the
+   * number of open files.
+   */
+  static final int MAX_MERGED_RUNS = 64;
+
+  /**
+   * @return the next name, or null after the last one
+   */
+  @Nullable
+  public abstract Path next() throws IOException;
+
+  @Override
+  public void close() throws IOException {
+    // nothing to release
+  }
+
+  /**
+   * Sorts the given names in place.
+   */
+  public static SortedNames of(List<Path> names) {
+    names.sort(null);
+    Iterator<Path> iterator = names.iterator();
+    return new SortedNames() {
+      @Override
+      public Path next() {
+        return iterator.hasNext() ? iterator.next() : null;
+      }
+    };
+  }
+
+  /**
+   * @param threshold maximum number of names sorted in memory
+   */
+  public static SortedNames list(Path directory, int threshold) throws IOException {
+    List<Path> names = new ArrayList<>();
+    Runs runs = null;
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path entry : entries) {
+        names.add(entry.getFileName());
+        if (names.size() >= threshold) {
+          if (runs == null) {
+            runs = new Runs(directory.getFileSystem());
+          }
+          runs.add(of(names));
+          names = new ArrayList<>();
+        }
+      }
+      if (runs == null) {
+        return of(names);
+      }
+      runs.add(of(names));
+      return runs.merge();
+    } catch (IOException | RuntimeException ex) {
+      if (runs != null) {
+        runs.delete();
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * @return the names of all the sources, each name once, closing the union closes the sources
+   */
+  public static SortedNames union(List<SortedNames> sources) {
+    return new MergedNames(sources, null);
+  }
+
+  public static SortedNames union(SortedNames first, SortedNames second) {
+    return union(List.of(first, second));
+  }
+
+  @FunctionalInterface
+  private interface Cleanup {
+    void run() throws IOException;
+  }
+
+  private static final class MergedNames extends SortedNames {
+
+    private final List<SortedNames> sources;
+    @Nullable
+    private final Cleanup cleanup;
+    @Nullable
+    private PriorityQueue<Head> heads = null;
+    @Nullable
+    private Path last = null;
+
+    private MergedNames(List<SortedNames> sources, @Nullable Cleanup cleanup) {
+      this.sources = sources;
+      this.cleanup = cleanup;
+    }
+
+    @Override
+    public Path next() throws IOException {
+      if (heads == null) {
+        heads = new PriorityQueue<>(Math.max(1, sources.size()));
+        for (SortedNames source : sources) {
+          pushNext(source);
+        }
+      }
+      while (!heads.isEmpty()) {
+        Head head = heads.poll();
+        pushNext(head.source);
+        if (!head.name.equals(last)) {
+          last = head.name;
+          return last;
+        }
+      }
+      return null;
+    }
+
+    private void pushNext(SortedNames source) throws IOException {
+      Path name = source.next();
+      if (name != null) {
+        heads.add(new Head(name, source));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException failure = null;
+      for (SortedNames source : sources) {
+        try {
+          source.close();
+        } catch (IOException ex) {
+          failure = failure == null ? ex : failure;
+        }
+      }
+      if (cleanup != null) {
+        cleanup.run();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+  }
+
+  private static final class Head implements Comparable<Head> {
+
+    private final Path name;
+    private final SortedNames source;
+
+    private Head(Path name, SortedNames source) {
+      this.name = name;
+      this.source = source;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      return name.compareTo(other.name);
+    }
+
+  }
+
+  /**
+   * Sorted runs of names, one temporary file per run.
+   */
+  private static final class Runs {
+
+    private final FileSystem fileSystem;
+    private final Path directory;
+    private final List<Path> files = new ArrayList<>();
+    private int runCount = 0;
+
+    private Runs(FileSystem fileSystem) throws IOException {
+      this.fileSystem = fileSystem;
+      this.directory = Files.createTempDirectory("shadow-copy-sort-");
+    }
+
+    private void add(SortedNames names) throws IOException {
+      if (files.size() == MAX_MERGED_RUNS) {
+        Path merged = write(new MergedNames(open(files), null));
+        for (Path file : files) {
+          Files.delete(file);
+        }
+        files.clear();
+        files.add(merged);
+      }
+      files.add(write(names));
+    }
+
+    private Path write(SortedNames names) throws IOException {
+      runCount++;
+      Path file = directory.resolve("run-" + runCount);
+      try (SortedNames input = names;
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+        for (Path name = input.next(); name != null; name = input.next()) {
+          output.writeUTF(name.toString());
+        }
+      }
+      return file;
+    }
+
+    private SortedNames merge() throws IOException {
+      return new MergedNames(open(files), this::delete);
+    }
+
+    private List<SortedNames> open(List<Path> runFiles) throws IOException {
+      List<SortedNames> readers = new ArrayList<>(runFiles.size());
+      try {
+        for (Path file : runFiles) {
+          readers.add(new RunReader(fileSystem, new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))));
+        }
+      } catch (IOException | RuntimeException ex) {
+        new MergedNames(readers, null).close();
+        throw ex;
+      }
+      return readers;
+    }
+
+    private void delete() throws IOException {
+      try (DirectoryStream<Path> runFiles = Files.newDirectoryStream(directory)) {
+        for (Path file : runFiles) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+
+  }
+
+  private static final class RunReader extends SortedNames {
+
+    private final FileSystem fileSystem;
+    private final DataInputStream input;
+
+    private RunReader(FileSystem fileSystem, DataInputStream input) {
+      this.fileSystem = fileSystem;
+      this.input = input;
+    }
+
+    @Override
+    public Path next() throws IOException {
+      try {
+        return fileSystem.getPath(input.readUTF());
+      } catch (EOFException ex) {
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,124 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Token buckets limiting the bytes and the files processed per second by all the threads of a run.
+ * The rates are halved while the observed latency of file system operations is well above its
+ * baseline (e.g. a disk saturated by other processes), and slowly restored when it decreases.
+ */
+public class Throttle {
+
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long ADJUST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  /**
+   * An average latency above both this ratio of the baseline and {@link #CONGESTED_LATENCY_NANOS} halves the rates.
+   */
+  private static final double CONGESTED_LATENCY_RATIO = 4;
+  private static final long CONGESTED_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final double MIN_RATE_FACTOR = 1.0 / 64;
+  private static final double RATE_FACTOR_INCREMENT = 1.0 / 16;
+
+  @Nullable
+  private final TokenBucket bytes;
+  @Nullable
+  private final TokenBucket files;
+  private double rateFactor = 1;
+  private double averageLatencyNanos = -1;
+  private double baselineLatencyNanos = Double.MAX_VALUE;
+  private long lastAdjustNanos = System.nanoTime();
+
+  /**
+   * @param maxBytesPerSecond 0 for unlimited
+   * @param maxFilesPerSecond 0 for unlimited
+   */
+  public Throttle(long maxBytesPerSecond, long maxFilesPerSecond) {
+    this.bytes = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond, lastAdjustNanos) : null;
+    this.files = maxFilesPerSecond > 0 ? new TokenBucket(maxFilesPerSecond, lastAdjustNanos) : null;
+  }
+
+  public boolean isEnabled() {
+    return bytes != null || files != null;
+  }
+
+  /**
+   * Waits before reading, hashing or copying the given number of bytes.
+   */
+  public void acquireBytes(long count) throws InterruptedException {
+    if (bytes != null) {
+      TimeUnit.NANOSECONDS.sleep(bytes.reserve(count, rateFactor()));
+    }
+  }
+
+  /**
+   * Waits before listing, reading the attributes of, or copying the given number of files.
+   */
+  public void acquireFiles(long count) throws InterruptedException {
+    if (files != null) {
+      TimeUnit.NANOSECONDS.sleep(files.reserve(count, rateFactor()));
+    }
+  }
+
+  public void observeLatency(long latencyNanos) {
+    if (isEnabled()) {
+      adjust(latencyNanos, System.nanoTime());
+    }
+  }
+
+  synchronized void adjust(long latencyNanos, long nowNanos) {
+    averageLatencyNanos = averageLatencyNanos < 0 ? latencyNanos : (averageLatencyNanos + 0.1 * (latencyNanos - averageLatencyNanos));
+    if (nowNanos - lastAdjustNanos < ADJUST_INTERVAL_NANOS) {
+      return;
+    }
+    lastAdjustNanos = nowNanos;
+    // the baseline follows the lowest average latency, and slowly forgets it
+    baselineLatencyNanos = Math.min(averageLatencyNanos, baselineLatencyNanos * 1.01);
+    if (averageLatencyNanos > CONGESTED_LATENCY_NANOS && averageLatencyNanos > baselineLatencyNanos * CONGESTED_LATENCY_RATIO) {
+      rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+    } else {
+      rateFactor = Math.min(1, rateFactor + RATE_FACTOR_INCREMENT);
+    }
+  }
+
+  /**
+   * @return the ratio, between 1/64 and 1, of the maximum rates currently allowed
+   */
+  synchronized double rateFactor() {
+    return rateFactor;
+  }
+
+  /**
+   * Tokens are refilled at the allowed rate up to one second of burst. A request larger than the
+   * available tokens is granted, but the debt delays the next requests of all threads.
+   */
+  static final class TokenBucket {
+
+    private final long maxRate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(long maxRate, long nowNanos) {
+      this.maxRate = maxRate;
+      this.tokens = maxRate;
+      this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * @return the nanoseconds to wait before using the reserved tokens
+     */
+    long reserve(long count, double rateFactor) {
+      return reserve(count, rateFactor, System.nanoTime());
+    }
+
+    synchronized long reserve(long count, double rateFactor, long nowNanos) {
+      double rate = maxRate * rateFactor;
+      tokens = Math.min(rate, tokens + (nowNanos - lastRefillNanos) * rate / SECOND_NANOS);
+      lastRefillNanos = nowNanos;
+      tokens -= count;
+      return tokens >= 0 ? 0 : (long) (-tokens * SECOND_NANOS / rate);
+    }
+
+  }
+
+}
@@ -2,19 +2,25 @@ package com.auzeill.shadow.copy;
 
 import com.auzeill.shadow.copy.action.CreateAction;
 import com.auzeill.shadow.copy.arguments.Arguments;
+import com.auzeill.shadow.copy.daemon.Daemon;
 import com.auzeill.shadow.copy.utils.StreamToString;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
@@ -153,6 +159,446 @@ class ShadowCopyTest {
     assertThat(inode(result1.resolve("f2.txt"))).isNotEqualTo(inode(result2.resolve("f2.txt")));
   }
 
+  @Test
+  void several_source_directories(@TempDir Path base) throws IOException, InterruptedException {
+    // prepare
+    Path source1 = Files.createDirectory(base.resolve("source1"));
+    Path source2 = Files.createDirectory(base.resolve("source2"));
+    Files.writeString(source1.resolve("f1.txt"), "Test data 1", UTF_8);
+    Files.writeString(source2.resolve("f2.txt"), "Test data 2", UTF_8);
+
+    // copy
+    ShadowCopy.exec(out, "create", "--jobs", "2", source1.toString(), source2.toString());
+    String[] results = out.toString().split("\n");
+
+    // check
+    assertThat(results).hasSize(2);
+    Path result1 = Paths.get(results[0]);
+    Path result2 = Paths.get(results[1]);
+    assertThat(result1.getParent()).isEqualTo(source1.resolve(".shadow-copy"));
+    assertThat(result2.getParent()).isEqualTo(source2.resolve(".shadow-copy"));
+    assertThat(result1.resolve("f1.txt")).hasContent("Test data 1");
+    assertThat(result2.resolve("f2.txt")).hasContent("Test data 2");
+    assertThat(result1.resolve("f2.txt")).doesNotExist();
+
+    err.reset();
+    assertThat(ShadowCopy.exec(out, err, "create", "--shadow-directory", base.resolve("shadow").toString(),
+      source1.toString(), source2.toString())).isOne();
+    assertThat(err).hasToString("[ERROR] Option '--shadow-directory' can not be used with several source directories\n");
+
+    err.reset();
+    assertThat(ShadowCopy.exec(out, err, "create", "--jobs", "0", source1.toString())).isOne();
+    assertThat(err).hasToString("[ERROR] Invalid --jobs value: 0\n");
+  }
+
+  @Test
+  void pack_small_files(@TempDir Path base) throws IOException, InterruptedException {
+    // prepare
+    Files.createDirectory(base.resolve("dir1"));
+    Files.writeString(base.resolve("small1.txt"), "Small data 1", UTF_8);
+    Files.writeString(base.resolve(Paths.get("dir1", "small2.txt")), "Small data 2", UTF_8);
+    Files.writeString(base.resolve("big.txt"), "Data bigger than the pack threshold", UTF_8);
+
+    // copy
+    ShadowCopy.exec(out, "create", "--pack-threshold", "20", base.toString());
+    Path result1 = path(out);
+
+    // check
+    assertThat(result1.resolve("small1.txt")).doesNotExist();
+    assertThat(result1.resolve(Paths.get("dir1", "small2.txt"))).doesNotExist();
+    assertThat(result1.resolve("dir1")).isDirectory();
+    assertThat(result1.resolve("big.txt")).hasContent("Data bigger than the pack threshold");
+    Path pack1 = result1.resolve(Paths.get(".shadow-copy", "store", result1.getFileName() + ".pack"));
+    assertThat(pack1).hasContent("Small data 2Small data 1");
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out.toString()).isEmpty();
+
+    // modify
+    Files.writeString(base.resolve("small1.txt"), "Small data 1.1", UTF_8);
+    Files.writeString(base.resolve("small3.txt"), "Small data 3", UTF_8);
+
+    out.reset();
+    ShadowCopy.exec(out, "create", "--pack-threshold", "20", base.toString());
+    Path result2 = path(out);
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "2", "1");
+    assertThat(out).hasToString("" +
+      "[MODIFIED] small1.txt\n" +
+      "[NEW     ] small3.txt\n");
+
+    // unchanged packed files reference the previous pack file
+    Path pack1Link = result2.resolve(Paths.get(".shadow-copy", "store", result1.getFileName() + ".pack"));
+    assertThat(inode(pack1Link)).isEqualTo(inode(pack1));
+    Path pack2 = result2.resolve(Paths.get(".shadow-copy", "store", result2.getFileName() + ".pack"));
+    assertThat(pack2).hasContent("Small data 1.1Small data 3");
+  }
+
+  @Test
+  void chunk_large_files(@TempDir Path base) throws IOException, InterruptedException {
+    // prepare, 2.5 MiB spread over 3 chunks
+    byte[] content = new byte[2 * 1024 * 1024 + 512 * 1024];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (byte) (i % 251);
+    }
+    Path image = base.resolve("disk.img");
+    Files.write(image, content);
+
+    // copy
+    ShadowCopy.exec(out, "create", "--chunk-threshold", "1000000", base.toString());
+    Path result1 = path(out);
+
+    // check
+    assertThat(result1.resolve("disk.img")).doesNotExist();
+    Path pack1 = result1.resolve(Paths.get(".shadow-copy", "store", result1.getFileName() + ".pack"));
+    assertThat(Files.size(pack1)).isEqualTo(content.length);
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out.toString()).isEmpty();
+
+    // modify one byte in place of the second chunk
+    content[1024 * 1024 + 10]++;
+    Files.write(image, content);
+    Files.setLastModifiedTime(image, FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+
+    out.reset();
+    ShadowCopy.exec(out, "create", "--chunk-threshold", "1000000", base.toString());
+    Path result2 = path(out);
+
+    // only the modified chunk is appended
+    Path pack2 = result2.resolve(Paths.get(".shadow-copy", "store", result2.getFileName() + ".pack"));
+    assertThat(Files.size(pack2)).isEqualTo(1024 * 1024);
+    Path pack1Link = result2.resolve(Paths.get(".shadow-copy", "store", result1.getFileName() + ".pack"));
+    assertThat(inode(pack1Link)).isEqualTo(inode(pack1));
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "2", "1");
+    assertThat(out).hasToString("[MODIFIED] disk.img\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out.toString()).isEmpty();
+  }
+
+  @Test
+  void detect_appends(@TempDir Path base) throws IOException, InterruptedException {
+    // prepare
+    Path log = base.resolve("app.log");
+    Files.writeString(log, "line 1\n", UTF_8);
+    Files.writeString(base.resolve("data.txt"), "data 1", UTF_8);
+
+    // copy
+    ShadowCopy.exec(out, "create", "--detect-appends", base.toString());
+    Path result1 = path(out);
+    assertThat(result1.resolve("app.log")).hasContent("line 1");
+
+    // append
+    Files.writeString(log, "line 2\n", UTF_8, StandardOpenOption.APPEND);
+    Files.setLastModifiedTime(log, FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    Files.writeString(base.resolve("data.txt"), "data 22", UTF_8);
+    Files.setLastModifiedTime(base.resolve("data.txt"), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+
+    // the append verified by the copy of a file of the shadow copy tree is the reported change
+    String changes = "" +
+      "[APPENDED] app.log (+7 bytes)\n" +
+      "[MODIFIED] data.txt\n";
+    out.reset();
+    ShadowCopy.exec(out, "create", "--diff", "--detect-appends", base.toString());
+    assertThat(out.toString()).startsWith(changes);
+    Path result2 = Paths.get(out.toString().substring(changes.length()).replaceFirst("\n$", ""));
+
+    // only the appended data is stored, the previous version becomes a store file
+    assertThat(result2.resolve("app.log")).doesNotExist();
+    Path store2 = result2.resolve(Paths.get(".shadow-copy", "store"));
+    assertThat(store2.resolve(result2.getFileName() + ".pack")).hasContent("line 2");
+    assertThat(inode(store2.resolve(result2.getFileName() + "-1.base"))).isEqualTo(inode(result1.resolve("app.log")));
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "2", "1");
+    assertThat(out).hasToString(changes);
+    out.reset();
+    ShadowCopy.exec(out, "log", base.toString(), "app.log");
+    assertThat(out).hasToString("1: " + result2 + " [APPENDED] app.log (+7 bytes)\n");
+
+    // append again
+    Files.writeString(log, "line 3\n", UTF_8, StandardOpenOption.APPEND);
+    Files.setLastModifiedTime(log, FileTime.from(Instant.parse("2020-05-02T10:00:00Z")));
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out).hasToString("[APPENDED] app.log (+7 bytes)\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "create", "--detect-appends", base.toString());
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "3", "1");
+    assertThat(out).hasToString("" +
+      "[APPENDED] app.log (+14 bytes)\n" +
+      "[MODIFIED] data.txt\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out.toString()).isEmpty();
+  }
+
+  @Test
+  void usage(@TempDir Path base) throws IOException, InterruptedException {
+    Files.writeString(base.resolve("unchanged.txt"), "0123456789", UTF_8);
+    Files.writeString(base.resolve("modified.txt"), "abc", UTF_8);
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result1 = path(out);
+    Files.writeString(base.resolve("modified.txt"), "abcde", UTF_8);
+    Files.setLastModifiedTime(base.resolve("modified.txt"), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    out.reset();
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result2 = path(out);
+
+    out.reset();
+    ShadowCopy.exec(out, "usage", base.toString());
+    long directory1Size = Files.size(result1);
+    long directory2Size = Files.size(result2);
+    assertThat(out).hasToString("" +
+      "2: " + result1 + " (exclusive: " + (directory1Size + 3) + " bytes)\n" +
+      "1: " + result2 + " (exclusive: " + (directory2Size + 5) + " bytes)\n" +
+      "shared: 10 bytes\n");
+  }
+
+  @Test
+  void hash(@TempDir Path base) throws IOException, InterruptedException {
+    Files.writeString(base.resolve("unchanged.txt"), "0123456789", UTF_8);
+    Files.writeString(base.resolve("modified.txt"), "abc", UTF_8);
+    ShadowCopy.exec(out, "create", "--hash", base.toString());
+    Path result1 = path(out);
+    assertThat(Files.isRegularFile(result1.resolve(Paths.get(".shadow-copy", "file-hashes")))).isTrue();
+    out.reset();
+    ShadowCopy.exec(out, "hash", base.toString());
+    assertThat(out).hasToString(result1 + " (hashed: 0 files, 0 bytes, reused: 0 hashes)\n");
+
+    Files.writeString(base.resolve("modified.txt"), "abcde", UTF_8);
+    out.reset();
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result2 = path(out);
+    out.reset();
+    // the hard link of the unchanged file is not read again
+    ShadowCopy.exec(out, "hash", base.toString(), "1");
+    assertThat(out).hasToString(result2 + " (hashed: 1 files, 5 bytes, reused: 1 hashes)\n");
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "2", "1");
+    assertThat(out).hasToString("[MODIFIED] modified.txt\n");
+
+    assertThatThrownBy(() -> ShadowCopy.exec(out, "hash", base.toString(), "3"))
+      .isInstanceOf(ShadowCopyError.class)
+      .hasMessage("No shadow copy at index: 3");
+  }
+
+  @Test
+  void verify(@TempDir Path base) throws IOException, InterruptedException {
+    Files.writeString(base.resolve("unchanged.txt"), "0123456789", UTF_8);
+    Files.writeString(base.resolve("modified.txt"), "abc", UTF_8);
+    ShadowCopy.exec(out, "create", "--hash", base.toString());
+    Files.writeString(base.resolve("modified.txt"), "abcde", UTF_8);
+    out.reset();
+    ShadowCopy.exec(out, "create", "--hash", base.toString());
+    Path result2 = path(out);
+    out.reset();
+    // the hard linked unchanged file is read once for both shadow copies
+    ShadowCopy.exec(out, "verify", base.toString());
+    assertThat(out.toString()).startsWith("verified: 2 shadow copies, 4 files, 0 without hash, 18 bytes read (");
+
+    Path unchanged = result2.resolve("unchanged.txt");
+    FileTime lastModifiedTime = Files.getLastModifiedTime(unchanged);
+    unchanged.toFile().setWritable(true);
+    Files.writeString(unchanged, "0123456780", UTF_8);
+    Files.setLastModifiedTime(unchanged, lastModifiedTime);
+    out.reset();
+    assertThatThrownBy(() -> ShadowCopy.exec(out, "verify", base.toString(), "1"))
+      .isInstanceOf(ShadowCopyError.class)
+      .hasMessage("1 mismatches found.");
+    assertThat(out.toString()).startsWith("[CORRUPT ] " + unchanged + " (content hash mismatch)\n" +
+      "verified: 1 shadow copies, 2 files, 0 without hash, 15 bytes read (");
+  }
+
+  @Test
+  void restore(@TempDir Path base) throws IOException, InterruptedException {
+    Files.createDirectory(base.resolve("ssh"));
+    Files.writeString(base.resolve(Paths.get("ssh", "sshd_config")), "v1", UTF_8);
+    Files.writeString(base.resolve("other.txt"), "other", UTF_8);
+    ShadowCopy.exec(out, "create", "--pack-threshold", "10", base.toString());
+
+    Files.writeString(base.resolve(Paths.get("ssh", "sshd_config")), "v2", UTF_8);
+    Files.setLastModifiedTime(base.resolve(Paths.get("ssh", "sshd_config")), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    Files.writeString(base.resolve(Paths.get("ssh", "extra")), "extra", UTF_8);
+    Files.writeString(base.resolve("other.txt"), "other 2", UTF_8);
+    out.reset();
+    ShadowCopy.exec(out, "restore", base.toString(), "1", "ssh", "--dry-run");
+    assertThat(out).hasToString("[MODIFIED] ssh/sshd_config\n");
+    assertThat(base.resolve(Paths.get("ssh", "sshd_config"))).hasContent("v2");
+
+    out.reset();
+    ShadowCopy.exec(out, "restore", base.toString(), "1", "ssh");
+    assertThat(out).hasToString("[MODIFIED] ssh/sshd_config\n");
+    assertThat(base.resolve(Paths.get("ssh", "sshd_config"))).hasContent("v1");
+    // entries only in the target directory are kept, and entries out of the restored paths are not restored
+    assertThat(base.resolve(Paths.get("ssh", "extra"))).hasContent("extra");
+    assertThat(base.resolve("other.txt")).hasContent("other 2");
+
+    Path target = base.resolve("target");
+    out.reset();
+    ShadowCopy.exec(out, "restore", base.toString(), "1", "--to", target.toString());
+    assertThat(out).hasToString("" +
+      "[NEW     ] other.txt\n" +
+      "[NEW     ] ssh/\n" +
+      "[NEW     ] ssh/sshd_config\n");
+    assertThat(target.resolve("other.txt")).hasContent("other");
+    assertThat(target.resolve(Paths.get("ssh", "sshd_config"))).hasContent("v1");
+
+    assertThatThrownBy(() -> ShadowCopy.exec(out, "restore", base.toString(), "1", "missing"))
+      .isInstanceOf(ShadowCopyError.class)
+      .hasMessageStartingWith("No 'missing' in shadow copy: ");
+  }
+
+  @Test
+  void restore_skips_unsupported_files(@TempDir Path base) throws IOException, InterruptedException {
+    Files.writeString(base.resolve("a.txt"), "a", UTF_8);
+    Path fifo = base.resolve("fifo");
+    assertThat(exec("/usr/bin/mkfifo", fifo.toString())).isZero();
+    ShadowCopy.exec(out, "create", base.toString());
+
+    // the FIFO is not replaced by the text of the shadow copy
+    out.reset();
+    ShadowCopy.exec(out, "restore", base.toString(), "1");
+    assertThat(out).hasToString("[SKIPPED ] fifo (unsupported file type)\n");
+    assertThat(Files.readAttributes(fifo, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()).isTrue();
+
+    Path target = base.resolve("target");
+    out.reset();
+    ShadowCopy.exec(out, "restore", base.toString(), "1", "--to", target.toString());
+    assertThat(out).hasToString("" +
+      "[NEW     ] a.txt\n" +
+      "[SKIPPED ] fifo (unsupported file type)\n");
+    assertThat(target.resolve("fifo")).doesNotExist();
+  }
+
+  @Test
+  void log_changes(@TempDir Path base) throws IOException, InterruptedException {
+    Path config = base.resolve(Paths.get("ssh", "sshd_config"));
+    Files.createDirectory(base.resolve("ssh"));
+    Files.writeString(config, "v1", UTF_8);
+    Files.writeString(base.resolve("other.txt"), "other", UTF_8);
+    ShadowCopy.exec(out, "create", base.toString());
+
+    Files.writeString(config, "v2", UTF_8);
+    Files.setLastModifiedTime(config, FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    out.reset();
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result2 = path(out);
+
+    Files.writeString(base.resolve("other.txt"), "other 2", UTF_8);
+    Files.setLastModifiedTime(base.resolve("other.txt"), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    out.reset();
+    ShadowCopy.exec(out, "create", base.toString());
+
+    Files.delete(config);
+    Files.writeString(base.resolve(Paths.get("ssh", "ssh_config")), "new", UTF_8);
+    out.reset();
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result4 = path(out);
+
+    out.reset();
+    ShadowCopy.exec(out, "log", base.toString(), "ssh/sshd_config");
+    assertThat(out).hasToString("" +
+      "3: " + result2 + " [MODIFIED] ssh/sshd_config\n" +
+      "1: " + result4 + " [DELETED ] ssh/sshd_config\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "log", "--no-index", base.toString(), "ssh");
+    assertThat(out).hasToString("" +
+      result2 + " [MODIFIED] ssh/sshd_config\n" +
+      result4 + " [NEW     ] ssh/ssh_config\n" +
+      result4 + " [DELETED ] ssh/sshd_config\n");
+
+    // changes of purged shadow copies are ignored
+    out.reset();
+    ShadowCopy.exec(out, "purge", "-n", "1", base.toString());
+    ShadowCopy.exec(out, "log", base.toString(), "ssh/sshd_config");
+    assertThat(out).hasToString("1: " + result4 + " [DELETED ] ssh/sshd_config\n");
+  }
+
+  @Test
+  void range_diff(@TempDir Path base) throws IOException, InterruptedException {
+    Files.writeString(base.resolve("a.txt"), "v1", UTF_8);
+    Files.writeString(base.resolve("b.txt"), "b", UTF_8);
+    Files.writeString(base.resolve("unchanged.txt"), "unchanged", UTF_8);
+    ShadowCopy.exec(out, "create", base.toString());
+
+    Files.writeString(base.resolve("a.txt"), "v2", UTF_8);
+    Files.setLastModifiedTime(base.resolve("a.txt"), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    Files.writeString(base.resolve("c.txt"), "c", UTF_8);
+    ShadowCopy.exec(out, "create", base.toString());
+
+    Files.writeString(base.resolve("a.txt"), "v1", UTF_8);
+    Files.setLastModifiedTime(base.resolve("a.txt"), FileTime.from(Instant.parse("2020-05-02T10:00:00Z")));
+    Files.delete(base.resolve("b.txt"));
+    ShadowCopy.exec(out, "create", base.toString());
+
+    Files.writeString(base.resolve("c.txt"), "c2", UTF_8);
+    Files.setLastModifiedTime(base.resolve("c.txt"), FileTime.from(Instant.parse("2020-05-03T10:00:00Z")));
+    ShadowCopy.exec(out, "create", base.toString());
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "4..1");
+    assertThat(out).hasToString("" +
+      "[REVERTED] a.txt\n" +
+      "    3: [MODIFIED] a.txt\n" +
+      "    2: [MODIFIED] a.txt\n" +
+      "[DELETED ] b.txt\n" +
+      "    2: [DELETED ] b.txt\n" +
+      "[NEW     ] c.txt\n" +
+      "    3: [NEW     ] c.txt\n" +
+      "    1: [MODIFIED] c.txt\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "1..2");
+    assertThat(out).hasToString("" +
+      "[MODIFIED] c.txt\n" +
+      "    1: [MODIFIED] c.txt\n");
+
+    assertThatThrownBy(() -> ShadowCopy.exec(out, "diff", base.toString(), "5..1"))
+      .hasMessage("Invalid shadow copy range: 5..1, 4 shadow copies.");
+  }
+
+  @Test
+  void diff_content(@TempDir Path base) throws IOException, InterruptedException {
+    Files.writeString(base.resolve("a.txt"), "line 1\nline 2\n", UTF_8);
+    Files.write(base.resolve("b.bin"), new byte[] {1, 0, 2});
+    Files.writeString(base.resolve("c.txt"), "c\n", UTF_8);
+    ShadowCopy.exec(out, "create", base.toString());
+
+    Files.writeString(base.resolve("a.txt"), "line 1\nline two\n", UTF_8);
+    Files.write(base.resolve("b.bin"), new byte[] {1, 0, 3});
+    Files.writeString(base.resolve("c.txt"), "c\nc\n", UTF_8);
+    out.reset();
+    ShadowCopy.exec(out, "diff", "--content", "--jobs", "2", base.toString());
+    assertThat(out).hasToString("" +
+      "[MODIFIED] a.txt\n" +
+      "--- a/a.txt\n" +
+      "+++ b/a.txt\n" +
+      "@@ -1,2 +1,2 @@\n" +
+      " line 1\n" +
+      "-line 2\n" +
+      "+line two\n" +
+      "[MODIFIED] b.bin\n" +
+      "[MODIFIED] c.txt\n" +
+      "--- a/c.txt\n" +
+      "+++ b/c.txt\n" +
+      "@@ -1 +1,2 @@\n" +
+      " c\n" +
+      "+c\n");
+  }
+
   static Object inode(Path path) throws IOException {
     return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
   }
@@ -161,6 +607,234 @@ class ShadowCopyTest {
     return Paths.get(out.toString().replaceFirst("\n$", ""));
   }
 
+  @Test
+  void daemon(@TempDir Path base) throws IOException, InterruptedException {
+    Path source = base.resolve("source");
+    Files.createDirectory(source);
+    Files.writeString(source.resolve("a.txt"), "a1", UTF_8);
+    Path socket = base.resolve("daemon.sock");
+    Thread serving;
+    try (Daemon daemon = new Daemon(socket)) {
+      serving = new Thread(() -> {
+        try {
+          daemon.serve();
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+      });
+      serving.start();
+      // bound in a private directory, then moved
+      assertThat(Files.getPosixFilePermissions(socket)).isEqualTo(PosixFilePermissions.fromString("rw-------"));
+      try (Stream<Path> files = Files.list(base)) {
+        assertThat(files).containsExactlyInAnyOrder(source, socket);
+      }
+
+      assertThat(ShadowCopy.exec(out, err, "create", source.toString(), "--socket", socket.toString())).isZero();
+      Path result1 = path(out);
+      assertThat(result1).isDirectory();
+      Files.writeString(source.resolve("a.txt"), "a2", UTF_8);
+      Files.setLastModifiedTime(source.resolve("a.txt"), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+      out.reset();
+      assertThat(ShadowCopy.exec(out, err, "diff", source.toString(), "--socket", socket.toString())).isZero();
+      assertThat(out).hasToString("[MODIFIED] a.txt\n");
+
+      // errors and exit value are forwarded
+      out.reset();
+      assertThat(ShadowCopy.exec(out, err, "diff", source.toString(), "9", "--socket", socket.toString())).isOne();
+      assertThat(out.toString()).isEmpty();
+      assertThat(err).hasToString("[ERROR] No previous shadow copy to match with.\n");
+
+      err.reset();
+      assertThatThrownBy(() -> new Daemon(socket))
+        .isInstanceOf(ShadowCopyError.class)
+        .hasMessage("A daemon is already listening on: " + socket);
+    }
+    serving.join();
+    assertThat(socket).doesNotExist();
+
+    assertThat(ShadowCopy.exec(out, err, "history", source.toString(), "--socket", socket.toString())).isOne();
+    assertThat(err.toString()).startsWith("[ERROR] No daemon listening on '" + socket + "'");
+  }
+
+  @Test
+  void resume_interrupted_create(@TempDir Path base) throws IOException, InterruptedException {
+    Path source = base.resolve("source");
+    for (String directory : new String[] {"d1", "d2", "d3"}) {
+      Files.createDirectories(source.resolve(directory));
+      for (int i = 1; i <= 10; i++) {
+        Files.writeString(source.resolve(directory).resolve("f" + i + ".txt"), directory + " " + i, UTF_8);
+      }
+    }
+    Thread create = new Thread(() -> {
+      try {
+        ShadowCopy.exec(new StreamToString(), "create", source.toString(),
+          "--max-files-per-second", "10", "--checkpoint-interval", "0");
+      } catch (IOException | InterruptedException | RuntimeException ex) {
+        // interrupted
+      }
+    });
+    create.start();
+    Thread.sleep(1000);
+    create.interrupt();
+    create.join();
+
+    // the interrupted shadow copy is not in the history
+    Path staging = source.resolve(Paths.get(".shadow-copy", "staging"));
+    try (Stream<Path> list = Files.list(staging)) {
+      assertThat(list.map(path -> path.getFileName().toString()))
+        .contains("lock")
+        .anyMatch(name -> name.endsWith(".checkpoint"));
+    }
+    ShadowCopy.exec(out, "history", source.toString());
+    assertThat(out.toString()).isEmpty();
+
+    ShadowCopy.exec(out, "create", source.toString());
+    Path result = path(out);
+    assertThat(result.getParent()).isEqualTo(source.resolve(".shadow-copy"));
+    try (Stream<Path> list = Files.list(staging)) {
+      assertThat(list.map(path -> path.getFileName().toString())).containsExactly("lock");
+    }
+    out.reset();
+    ShadowCopy.exec(out, "diff", source.toString());
+    assertThat(out.toString()).isEmpty();
+    ShadowCopy.exec(out, "history", "--long", "--no-index", source.toString());
+    assertThat(out.toString()).startsWith(result + " (").contains(" 33 entries, ");
+  }
+
+  @Test
+  void create_with_diff(@TempDir Path base) throws IOException, InterruptedException {
+    Files.createDirectories(base.resolve(Paths.get("dir", "sub")));
+    Files.writeString(base.resolve(Paths.get("dir", "sub", "a.txt")), "a", UTF_8);
+    Files.writeString(base.resolve("b.txt"), "b1", UTF_8);
+    Files.writeString(base.resolve("c.txt"), "c", UTF_8);
+    ShadowCopy.exec(out, "create", "--diff", base.toString());
+    // no last shadow copy
+    assertThat(out.toString()).doesNotContain("[");
+
+    Files.writeString(base.resolve("b.txt"), "b2", UTF_8);
+    Files.setLastModifiedTime(base.resolve("b.txt"), FileTime.from(Instant.parse("2020-05-01T10:00:00Z")));
+    Files.delete(base.resolve("c.txt"));
+    Files.delete(base.resolve(Paths.get("dir", "sub", "a.txt")));
+    Files.delete(base.resolve(Paths.get("dir", "sub")));
+    Files.writeString(base.resolve(Paths.get("dir", "sub")), "sub is a file", UTF_8);
+    Files.writeString(base.resolve("d.txt"), "d", UTF_8);
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    String changes = "" +
+      "[MODIFIED] b.txt\n" +
+      "[DELETED ] c.txt\n" +
+      "[NEW     ] d.txt\n" +
+      "[MODIFIED] dir/sub/\n" +
+      "[DELETED ] dir/sub/a.txt\n";
+    assertThat(out).hasToString(changes);
+
+    out.reset();
+    ShadowCopy.exec(out, "create", "--diff", base.toString());
+    assertThat(out.toString()).startsWith(changes);
+    Path result = Paths.get(out.toString().substring(changes.length()).replaceFirst("\n$", ""));
+    assertThat(result.getParent()).isEqualTo(base.resolve(".shadow-copy"));
+
+    // the same changes are in the change index
+    out.reset();
+    ShadowCopy.exec(out, "log", "--no-index", base.toString(), "dir");
+    assertThat(out).hasToString("" +
+      result + " [MODIFIED] dir/sub/\n" +
+      result + " [DELETED ] dir/sub/a.txt\n");
+
+    // only touched: not modified for --diff, which compares the content, copied and modified otherwise
+    Files.setLastModifiedTime(base.resolve("b.txt"), FileTime.from(Instant.parse("2020-05-02T10:00:00Z")));
+    out.reset();
+    ShadowCopy.exec(out, "create", "--diff", base.toString());
+    Path result2 = path(out);
+    Files.setLastModifiedTime(base.resolve("b.txt"), FileTime.from(Instant.parse("2020-05-03T10:00:00Z")));
+    out.reset();
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result3 = path(out);
+    out.reset();
+    ShadowCopy.exec(out, "log", "--no-index", base.toString(), "b.txt");
+    assertThat(out).hasToString("" +
+      result + " [MODIFIED] b.txt\n" +
+      result3 + " [MODIFIED] b.txt\n");
+    assertThat(result2).isDirectory();
+  }
+
+  @Test
+  void sub_tree_diff_and_create(@TempDir Path base) throws IOException, InterruptedException {
+    FileTime time = FileTime.from(Instant.parse("2020-05-01T10:00:00Z"));
+    Files.createDirectories(base.resolve(Paths.get("dir", "sub")));
+    Files.writeString(base.resolve(Paths.get("dir", "sub", "a.txt")), "a1", UTF_8);
+    Files.writeString(base.resolve(Paths.get("dir", "b.txt")), "b1", UTF_8);
+    Files.writeString(base.resolve("c.txt"), "c1", UTF_8);
+    ShadowCopy.exec(out, "create", base.toString());
+    Path result1 = path(out);
+
+    for (Path file : List.of(Paths.get("dir", "sub", "a.txt"), Paths.get("dir", "b.txt"), Paths.get("c.txt"))) {
+      Files.writeString(base.resolve(file), file.getFileName().toString().charAt(0) + "2", UTF_8);
+      Files.setLastModifiedTime(base.resolve(file), time);
+    }
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString(), "--", "dir/sub", "c.txt", "dir/sub/a.txt");
+    assertThat(out).hasToString("" +
+      "[MODIFIED] c.txt\n" +
+      "[MODIFIED] dir/sub/a.txt\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "create", "--diff", "--only", "dir/sub", base.toString());
+    assertThat(out.toString()).startsWith("[MODIFIED] dir/sub/a.txt\n");
+    Path result2 = Paths.get(out.toString().substring("[MODIFIED] dir/sub/a.txt\n".length()).replaceFirst("\n$", ""));
+    assertThat(result2.resolve(Paths.get("dir", "sub", "a.txt"))).hasContent("a2");
+    // the entries out of the sub-tree are linked to the last shadow copy, without reading the source directory
+    assertThat(result2.resolve("c.txt")).hasContent("c1");
+    assertThat(Files.getAttribute(result2.resolve("c.txt"), "unix:ino"))
+      .isEqualTo(Files.getAttribute(result1.resolve("c.txt"), "unix:ino"));
+    assertThat(Files.getAttribute(result2.resolve(Paths.get("dir", "b.txt")), "unix:ino"))
+      .isEqualTo(Files.getAttribute(result1.resolve(Paths.get("dir", "b.txt")), "unix:ino"));
+
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out).hasToString("" +
+      "[MODIFIED] c.txt\n" +
+      "[MODIFIED] dir/b.txt\n");
+  }
+
+  @Test
+  void detect_restored_modification_time(@TempDir Path base) throws IOException, InterruptedException {
+    FileTime time = FileTime.from(Instant.parse("2020-05-01T10:00:00Z"));
+    Files.writeString(base.resolve("a.txt"), "a1", UTF_8);
+    Files.setLastModifiedTime(base.resolve("a.txt"), time);
+    Files.writeString(base.resolve("b.txt"), "b", UTF_8);
+    ShadowCopy.exec(out, "create", "--detect", "ctime", base.toString());
+    Path shadowDirectory = base.resolve(".shadow-copy");
+
+    // same size, modification time restored by the tool
+    Files.writeString(base.resolve("a.txt"), "a2", UTF_8);
+    Files.setLastModifiedTime(base.resolve("a.txt"), time);
+    out.reset();
+    ShadowCopy.exec(out, "diff", base.toString());
+    assertThat(out.toString()).isEmpty();
+    ShadowCopy.exec(out, "diff", "--detect", "ctime", base.toString());
+    assertThat(out).hasToString("[MODIFIED] a.txt\n");
+    out.reset();
+    ShadowCopy.exec(out, "diff", "--detect", "hash", base.toString());
+    assertThat(out).hasToString("[MODIFIED] a.txt\n");
+
+    out.reset();
+    ShadowCopy.exec(out, "create", "--detect", "hash", "--diff", base.toString());
+    assertThat(out.toString()).startsWith("[MODIFIED] a.txt\n");
+    Path result = Paths.get(out.toString().substring("[MODIFIED] a.txt\n".length()).replaceFirst("\n$", ""));
+    assertThat(result.getParent()).isEqualTo(shadowDirectory);
+    assertThat(Files.readString(result.resolve("a.txt"), UTF_8)).isEqualTo("a2");
+
+    // unchanged, hash recorded by the last shadow copy
+    out.reset();
+    ShadowCopy.exec(out, "diff", "--detect", "hash", base.toString());
+    assertThat(out.toString()).isEmpty();
+
+    assertThatThrownBy(() -> ShadowCopy.exec(out, "diff", "--detect", "size", base.toString()))
+      .isInstanceOf(ShadowCopyError.class)
+      .hasMessage("Invalid --detect value: size");
+  }
+
   @Test
   void named_pipe(@TempDir Path base) throws IOException, InterruptedException {
     // prepare
@@ -301,6 +975,11 @@ class ShadowCopyTest {
     ShadowCopy.exec(out, "history", "-n", "1", "--no-index", base.toString());
     assertThat(out).hasToString("src/test/resources/history/.shadow-copy/2018.09.02-16h45-1\n");
 
+    out.reset();
+    ShadowCopy.exec(out, "history", "-n", "1", "--long", base.toString());
+    assertThat(out.toString()).matches("1: src/test/resources/history/.shadow-copy/2018.09.02-16h45-1 " +
+      "\\(\\d+\\.\\d{3} s, 1 entries, 0 bytes copied, 0 bytes unique, \\d+ entries/s, 0 bytes/s\\)\n");
+
     out.reset();
     ShadowCopy.exec(out, "purge", base.toString());
     assertThat(out.toString()).isEmpty();
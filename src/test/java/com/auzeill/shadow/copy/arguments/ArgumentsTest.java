@@ -94,6 +94,21 @@ class ArgumentsTest {
     assertThat(args.action).isEqualTo(Action.CREATE);
     assertThat(args.options).isEmpty();
     assertThat(args.actionArguments).containsExactly("--unknown");
+    assertThat(args.argumentsBeforeSeparator()).isEmpty();
+    assertThat(args.argumentsAfterSeparator()).containsExactly("--unknown");
+  }
+
+  @Test
+  void arguments_separator() {
+    Arguments args = new Arguments("diff", "dir1", "2", "--", "ssh", "etc/hosts");
+    assertThat(args.actionArguments).containsExactly("dir1", "2", "ssh", "etc/hosts");
+    assertThat(args.argumentsBeforeSeparator()).containsExactly("dir1", "2");
+    assertThat(args.argumentsAfterSeparator()).containsExactly("ssh", "etc/hosts");
+
+    args = new Arguments("diff", "dir1");
+    assertThat(args.separatorIndex).isEqualTo(-1);
+    assertThat(args.argumentsBeforeSeparator()).containsExactly("dir1");
+    assertThat(args.argumentsAfterSeparator()).isEmpty();
   }
 
   @Test
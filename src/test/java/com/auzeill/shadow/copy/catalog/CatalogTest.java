@@ -0,0 +1,91 @@
+package com.auzeill.shadow.copy.catalog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogTest {
+
+  @Test
+  void without_catalog_file(@TempDir Path shadowDirectory) throws IOException {
+    Files.createDirectory(shadowDirectory.resolve("2018.08.20-16h45-1"));
+    Files.createDirectory(shadowDirectory.resolve("2018.08.19-16h45-1"));
+    Files.createDirectory(shadowDirectory.resolve("other"));
+    Catalog catalog = Catalog.load(shadowDirectory);
+    assertThat(catalog.history()).containsExactly(
+      shadowDirectory.resolve("2018.08.19-16h45-1"),
+      shadowDirectory.resolve("2018.08.20-16h45-1"));
+    assertThat(catalog.get("2018.08.19-16h45-1").isUnknown()).isTrue();
+    assertThat(Catalog.load(shadowDirectory.resolve("missing")).history()).isEmpty();
+  }
+
+  @Test
+  void created_and_deleted(@TempDir Path shadowDirectory) throws IOException {
+    Files.createDirectory(shadowDirectory.resolve("2018.08.19-16h45-1"));
+    Files.createDirectory(shadowDirectory.resolve("2018.08.20-16h45-1"));
+    Catalog.created(shadowDirectory, new CatalogEntry("2018.08.20-16h45-1", 1200, 10, 3000, 1000, 2));
+    // directories created without catalog are imported, the catalog is then used as is
+    Files.createDirectory(shadowDirectory.resolve("2018.08.21-16h45-1"));
+
+    Catalog catalog = Catalog.load(shadowDirectory);
+    assertThat(catalog.history()).containsExactly(
+      shadowDirectory.resolve("2018.08.19-16h45-1"),
+      shadowDirectory.resolve("2018.08.20-16h45-1"));
+    assertThat(catalog.get("2018.08.19-16h45-1").isUnknown()).isTrue();
+    CatalogEntry entry = catalog.get("2018.08.20-16h45-1");
+    assertThat(entry.durationMillis).isEqualTo(1200);
+    assertThat(entry.entryCount).isEqualTo(10);
+    assertThat(entry.copiedBytes).isEqualTo(3000);
+    assertThat(entry.uniqueBytes).isEqualTo(1000);
+    assertThat(entry.linkRotationCount).isEqualTo(2);
+
+    Catalog.deleted(shadowDirectory, "2018.08.19-16h45-1");
+    assertThat(Catalog.load(shadowDirectory).history()).containsExactly(
+      shadowDirectory.resolve("2018.08.20-16h45-1"));
+  }
+
+  @Test
+  void line_without_link_rotation_count(@TempDir Path shadowDirectory) throws IOException {
+    Catalog.created(shadowDirectory, new CatalogEntry("2018.08.19-16h45-1", 1, 2, 3, 4));
+    Files.createDirectory(shadowDirectory.resolve("2018.08.20-16h45-1"));
+    Files.writeString(shadowDirectory.resolve(Catalog.FILE_NAME), "+\t2018.08.20-16h45-1\t5\t6\t7\t8\n", UTF_8, StandardOpenOption.APPEND);
+    CatalogEntry entry = Catalog.load(shadowDirectory).get("2018.08.20-16h45-1");
+    assertThat(entry.uniqueBytes).isEqualTo(8);
+    assertThat(entry.linkRotationCount).isZero();
+  }
+
+  @Test
+  void ignore_truncated_line(@TempDir Path shadowDirectory) throws IOException {
+    Catalog.created(shadowDirectory, new CatalogEntry("2018.08.19-16h45-1", 1, 2, 3, 4));
+    Files.createDirectory(shadowDirectory.resolve("2018.08.19-16h45-1"));
+    Files.createDirectory(shadowDirectory.resolve("2018.08.20-16h45-1"));
+    Files.createDirectory(shadowDirectory.resolve("2018.08.21-16h45-1"));
+    Files.writeString(shadowDirectory.resolve(Catalog.FILE_NAME), "+\t2018.08.20-16h45-1\t5", UTF_8, StandardOpenOption.APPEND);
+    Catalog.created(shadowDirectory, new CatalogEntry("2018.08.21-16h45-1", 1, 2, 3, 4));
+    assertThat(Catalog.load(shadowDirectory).history()).containsExactly(
+      shadowDirectory.resolve("2018.08.19-16h45-1"),
+      shadowDirectory.resolve("2018.08.21-16h45-1"));
+  }
+
+  @Test
+  void ignore_missing_directory(@TempDir Path shadowDirectory) throws IOException {
+    Files.createDirectory(shadowDirectory.resolve("2018.08.19-16h45-1"));
+    Catalog.created(shadowDirectory, new CatalogEntry("2018.08.19-16h45-1", 1, 2, 3, 4));
+    // not published yet, or removed without purge
+    Catalog.created(shadowDirectory, new CatalogEntry("2018.08.20-16h45-1", 1, 2, 3, 4));
+    assertThat(Catalog.load(shadowDirectory).history()).containsExactly(shadowDirectory.resolve("2018.08.19-16h45-1"));
+    assertThat(Catalog.load(shadowDirectory).get("2018.08.20-16h45-1")).isNull();
+
+    Files.createDirectory(shadowDirectory.resolve("2018.08.20-16h45-1"));
+    assertThat(Catalog.load(shadowDirectory).history()).containsExactly(
+      shadowDirectory.resolve("2018.08.19-16h45-1"),
+      shadowDirectory.resolve("2018.08.20-16h45-1"));
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.auzeill.shadow.copy.change;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UnifiedDiffTest {
+
+  @Test
+  void identical() {
+    assertThat(diff("a\nb\n", "a\nb\n")).isEmpty();
+  }
+
+  @Test
+  void hunks_with_context() {
+    String oldText = "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n13\n14\n15\n";
+    String newText = "1\n2\nthree\n4\n5\n6\n7\n8\n9\n10\n11\n12\n14\n15\n16\n";
+    assertThat(diff(oldText, newText)).containsExactly(
+      "--- a/f.txt",
+      "+++ b/f.txt",
+      "@@ -1,6 +1,6 @@",
+      " 1",
+      " 2",
+      "-3",
+      "+three",
+      " 4",
+      " 5",
+      " 6",
+      "@@ -10,6 +10,6 @@",
+      " 10",
+      " 11",
+      " 12",
+      "-13",
+      " 14",
+      " 15",
+      "+16");
+  }
+
+  @Test
+  void missing_newline_at_end_of_file() {
+    assertThat(diff("a\nb", "a\nc\n")).containsExactly(
+      "--- a/f.txt",
+      "+++ b/f.txt",
+      "@@ -1,2 +1,2 @@",
+      " a",
+      "-b",
+      "\\ No newline at end of file",
+      "+c");
+  }
+
+  @Test
+  void empty_file() {
+    assertThat(diff("", "a\n")).containsExactly(
+      "--- a/f.txt",
+      "+++ b/f.txt",
+      "@@ -0,0 +1 @@",
+      "+a");
+  }
+
+  @Test
+  void binary_content() {
+    assertThat(UnifiedDiff.diff("a", new byte[] {1, 0, 2}, "b", new byte[] {1, 0, 3})).isNull();
+    assertThat(UnifiedDiff.diff("a", new byte[] {(byte) 0xC3}, "b", new byte[] {1})).isNull();
+  }
+
+  private static List<String> diff(String oldText, String newText) {
+    return UnifiedDiff.diff("a/f.txt", oldText.getBytes(UTF_8), "b/f.txt", newText.getBytes(UTF_8));
+  }
+
+}
@@ -0,0 +1,72 @@
+package com.auzeill.shadow.copy.filter;
+
+import com.auzeill.shadow.copy.filter.FileFilter.IgnoreMatcher;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveMatcherTest {
+
+  private static final FileInfo FILE = new FileInfo(Paths.get("/tmp/file.txt"), Paths.get("file.txt"), false, 0);
+
+  @Test
+  void ordered_by_cost() {
+    IgnoreMatcher expensive = file -> true;
+    IgnoreMatcher cheap = file -> true;
+    AdaptiveMatcher matcher = AdaptiveMatcher.and().add(expensive, 10, false).add(cheap, 1, false);
+    assertThat(matcher.matchers()).containsExactly(cheap, expensive);
+    assertThat(matcher.size()).isEqualTo(2);
+  }
+
+  @Test
+  void and_reordered_by_selectivity() throws IOException {
+    AtomicInteger alwaysTrueCount = new AtomicInteger();
+    IgnoreMatcher alwaysTrue = file -> alwaysTrueCount.incrementAndGet() > 0;
+    IgnoreMatcher alwaysFalse = file -> false;
+    AdaptiveMatcher matcher = AdaptiveMatcher.and().add(alwaysTrue, 1, false).add(alwaysFalse, 1, false);
+    assertThat(matcher.matchers()).containsExactly(alwaysTrue, alwaysFalse);
+    for (int i = 0; i < AdaptiveMatcher.REORDER_INTERVAL; i++) {
+      assertThat(matcher.matches(FILE)).isFalse();
+    }
+    assertThat(matcher.matchers()).containsExactly(alwaysFalse, alwaysTrue);
+    assertThat(alwaysTrueCount.get()).isEqualTo(AdaptiveMatcher.REORDER_INTERVAL);
+    assertThat(matcher.matches(FILE)).isFalse();
+    assertThat(alwaysTrueCount.get()).isEqualTo(AdaptiveMatcher.REORDER_INTERVAL);
+  }
+
+  @Test
+  void or_reordered_by_selectivity() throws IOException {
+    IgnoreMatcher rarelyTrue = file -> file.relative().equals("other.txt");
+    IgnoreMatcher alwaysTrue = file -> true;
+    AdaptiveMatcher matcher = AdaptiveMatcher.or().add(rarelyTrue, 1, false).add(alwaysTrue, 2, false);
+    for (int i = 0; i < AdaptiveMatcher.REORDER_INTERVAL; i++) {
+      assertThat(matcher.matches(FILE)).isTrue();
+    }
+    assertThat(matcher.matchers()).containsExactly(alwaysTrue, rarelyTrue);
+  }
+
+  @Test
+  void file_system_operands_last_in_written_order() throws IOException {
+    IgnoreMatcher fileSystem1 = file -> true;
+    IgnoreMatcher fileSystem2 = file -> false;
+    IgnoreMatcher rarelyTrue = file -> file.relative().equals("other.txt");
+    IgnoreMatcher alwaysTrue = file -> true;
+    AdaptiveMatcher matcher = AdaptiveMatcher.or().add(fileSystem1, 10, true).add(fileSystem2, 1, true)
+      .add(rarelyTrue, 1, false).add(alwaysTrue, 2, false);
+    assertThat(matcher.matchers()).containsExactly(rarelyTrue, alwaysTrue, fileSystem1, fileSystem2);
+    for (int i = 0; i < AdaptiveMatcher.REORDER_INTERVAL; i++) {
+      assertThat(matcher.matches(FILE)).isTrue();
+    }
+    assertThat(matcher.matchers()).containsExactly(alwaysTrue, rarelyTrue, fileSystem1, fileSystem2);
+  }
+
+  @Test
+  void empty() throws IOException {
+    assertThat(AdaptiveMatcher.or().matches(FILE)).isFalse();
+    assertThat(AdaptiveMatcher.and().matches(FILE)).isTrue();
+  }
+
+}
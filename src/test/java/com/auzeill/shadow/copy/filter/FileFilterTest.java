@@ -302,6 +302,57 @@ class FileFilterTest {
     assertThat(parseExpression("max-size:42").index(filter, ignoreMatcher)).isFalse();
   }
 
+  @Test
+  void or_expression_indexed() throws IOException {
+    FileFilter filter = load("'filename:equals:target/' || 'filename:equals:build/' || 'relative:equals:a/.gradle/'\n" +
+      "('filename:equals:x' || 'filename:end-with:.tmp') && ('relative:reg-ex:^dir/' || 'filename:equals:y')");
+    assertThat(filter.ignoreByFileName).containsOnlyKeys("target/", "build/", "x", "y");
+    assertThat(filter.ignoreByRelativePath).containsOnlyKeys("a/.gradle/");
+    assertThat(filter.ignoreByFileName.get("x")).hasSize(2);
+    assertThat(filter.ignoreByFileName.get("y")).hasSize(1);
+    // only (filename:end-with:.tmp && relative:reg-ex:^dir/) has no "equals" matcher
+    assertThat(filter.notIndexedIgnoreMatchers.size()).isEqualTo(1);
+
+    assertThat(filter.filter(directory("target"))).isFalse();
+    assertThat(filter.filter(directory("dir/build"))).isFalse();
+    assertThat(filter.filter(file("build"))).isTrue();
+    assertThat(filter.filter(directory("a/.gradle"))).isFalse();
+    assertThat(filter.filter(directory("b/.gradle"))).isTrue();
+    assertThat(filter.filter(file("dir/x"))).isFalse();
+    assertThat(filter.filter(file("y"))).isTrue();
+    assertThat(filter.filter(file("dir/a.tmp"))).isFalse();
+    assertThat(filter.filter(file("a.tmp"))).isTrue();
+  }
+
+  @Test
+  void cheap_operands_first() throws IOException {
+    // the size of a missing file can not be read, the name is compared first
+    FileFilter filter = load("'max-size:10' && 'filename:end-with:.log'");
+    assertThat(filter.filter(file("missing/file.txt"))).isTrue();
+    filter = load("'has-sibling:pom.xml' || 'filename:equals:.git/' || 'relative:end-with:.log' || 'filename:reg-ex:~$'");
+    assertThat(filter.filter(file("missing/file.log"))).isFalse();
+  }
+
+  @Test
+  void file_system_operands_not_reordered() throws IOException {
+    FileFilter filter = load("'max-size:10' && 'filename:end-with:.log'");
+    // small log files, "max-size:" decides the result more often than the name
+    for (int i = 0; i < 4 * AdaptiveMatcher.REORDER_INTERVAL; i++) {
+      Path relative = Paths.get("logs", i + ".log");
+      assertThat(filter.filter(new FileInfo(Paths.get("/tmp").resolve(relative), relative, false, 1))).isTrue();
+    }
+    // the size of a missing file can not be read, the name is still compared first
+    assertThat(filter.filter(file("missing/file.txt"))).isTrue();
+  }
+
+  @Test
+  void too_many_disjuncts_not_indexed() {
+    String disjunction = "(filename:equals:a || filename:equals:b)";
+    FileFilter filter = load(String.join(" && ", Collections.nCopies(7, disjunction)));
+    assertThat(filter.ignoreByFileName).isEmpty();
+    assertThat(filter.notIndexedIgnoreMatchers.size()).isEqualTo(1);
+  }
+
   @Test
   void no_prefix() {
     assertThatThrownBy(() -> load("file.txt"))
@@ -340,6 +391,24 @@ class FileFilterTest {
     assertThat(load("relative:equals:dir/file.txt").filter(file("dir/file.txt"))).isFalse();
   }
 
+  @Test
+  void file_name() {
+    assertThat(FileFilter.fileName(normalize("file.txt"))).isEqualTo("file.txt");
+    assertThat(FileFilter.fileName(normalize("dir/file.txt"))).isEqualTo("file.txt");
+    assertThat(FileFilter.fileName(normalize("/tmp/dir/"))).isEqualTo(normalize("dir/"));
+  }
+
+  @Test
+  void relative_equals_directory() throws IOException {
+    Path relative = Paths.get(normalize("dir/build"));
+    FileInfo directory = new FileInfo(Paths.get(normalize("/tmp")).resolve(relative), relative, true, 0);
+    FileInfo file = new FileInfo(Paths.get(normalize("/tmp")).resolve(relative), relative, false, 0);
+    assertThat(load("relative:equals:" + normalize("dir/build/")).filter(directory)).isFalse();
+    assertThat(load("relative:equals:" + normalize("dir/build/")).filter(file)).isTrue();
+    assertThat(load("relative:equals:" + normalize("dir/build")).filter(file)).isFalse();
+    assertThat(load("absolute:equals:" + normalize("/tmp/dir/build/")).filter(directory)).isFalse();
+  }
+
   @Test
   void absolute_equals() throws IOException {
     assertThat(load("absolute:equals:/tmp/dir/file.txt").filter(file("file.txt"))).isTrue();
@@ -443,6 +512,12 @@ class FileFilterTest {
     return new FileInfo(absolute, relative);
   }
 
+  private static FileInfo directory(String path) {
+    Path relative = Paths.get(normalize(path));
+    Path absolute = Paths.get(normalize("/tmp")).resolve(relative);
+    return new FileInfo(absolute, relative, true, -1);
+  }
+
   private static String normalize(String path) {
     return path.replace('/', File.separatorChar);
   }
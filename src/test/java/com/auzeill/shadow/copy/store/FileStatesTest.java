@@ -0,0 +1,62 @@
+package com.auzeill.shadow.copy.store;
+
+import com.auzeill.shadow.copy.utils.FileAttributes;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileStatesTest {
+
+  @Test
+  void write_and_load(@TempDir Path shadowCopy) throws IOException {
+    assertThat(FileStates.load(shadowCopy)).isSameAs(FileStates.EMPTY);
+    FileAttributes a = attributes(3, 1000, 2000, 42);
+    try (FileStates.Writer writer = FileStates.Writer.open(FileStates.path(shadowCopy), false)) {
+      writer.add("a", a, new byte[] {1, 2, 3});
+      writer.add("dir/b", attributes(5, 1000, 2000, 43), null);
+    }
+    FileStates states = FileStates.load(shadowCopy);
+    assertThat(states.size()).isEqualTo(2);
+    FileStates.State state = states.get("a");
+    assertThat(state.hash).containsExactly(1, 2, 3);
+    assertThat(state.isSameFile(a)).isTrue();
+    assertThat(state.isSameFile(attributes(3, 1000, 2001, 42))).isFalse();
+    assertThat(state.isSameFile(attributes(3, 1000, 2000, 44))).isFalse();
+    assertThat(states.get("dir/b").hash).isNull();
+    assertThat(states.get("c")).isNull();
+  }
+
+  @Test
+  void resume_after_truncated_record(@TempDir Path shadowCopy) throws IOException {
+    try (FileStates.Writer writer = FileStates.Writer.open(FileStates.path(shadowCopy), false)) {
+      writer.add("a", attributes(3, 1000, 2000, 42), null);
+      writer.add("b", attributes(3, 1000, 2000, 43), null);
+    }
+    Path statesPath = FileStates.path(shadowCopy);
+    try (FileChannel channel = FileChannel.open(statesPath, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(statesPath) - 1);
+    }
+    assertThat(FileStates.read(statesPath).get("b")).isNull();
+
+    try (FileStates.Writer writer = FileStates.Writer.open(FileStates.path(shadowCopy), true)) {
+      writer.add("b", attributes(4, 1000, 2000, 43), null);
+    }
+    FileStates states = FileStates.read(statesPath);
+    assertThat(states.size()).isEqualTo(2);
+    assertThat(states.get("a").size).isEqualTo(3);
+    assertThat(states.get("b").size).isEqualTo(4);
+  }
+
+  private static FileAttributes attributes(long size, long lastModifiedMillis, long changeMillis, long inode) {
+    return new FileAttributes(0100644, 1000, 1000, size, FileTime.fromMillis(lastModifiedMillis), null, null,
+      FileTime.fromMillis(changeMillis), inode, 1, null);
+  }
+
+}
@@ -0,0 +1,45 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileAttributesTest {
+
+  @Test
+  void read(@TempDir Path directory) throws IOException {
+    Path file = Files.writeString(directory.resolve("file.txt"), "abc");
+    Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r-----"));
+    FileAttributes attributes = FileAttributes.read(file);
+    assertThat(attributes.isRegularFile()).isTrue();
+    assertThat(attributes.isDirectory()).isFalse();
+    assertThat(attributes.size).isEqualTo(3);
+    assertThat(attributes.permissions()).isEqualTo(0640);
+    assertThat(attributes.lastModifiedTime).isEqualTo(Files.getLastModifiedTime(file));
+    assertThat(attributes.lastAccessTime).isNotNull();
+    assertThat(FileAttributes.read(directory).isDirectory()).isTrue();
+    assertThat(FileAttributes.readIfExists(directory.resolve("missing"))).isNull();
+    assertThat(FileAttributes.readIfExists(file.resolve("child"))).isNull();
+  }
+
+  @Test
+  void copy_owner_and_permissions(@TempDir Path directory) throws IOException {
+    Path source = Files.createFile(directory.resolve("source"));
+    Files.setPosixFilePermissions(source, PosixFilePermissions.fromString("rwx--x---"));
+    Path destination = Files.createFile(directory.resolve("destination"));
+    Files.setPosixFilePermissions(destination, PosixFilePermissions.fromString("rw-rw-rw-"));
+
+    FileAttributes sourceAttributes = FileAttributes.read(source);
+    sourceAttributes.copyOwnerAndPermissionsTo(destination, FileAttributes.read(destination));
+    FileAttributes destinationAttributes = FileAttributes.read(destination);
+    assertThat(destinationAttributes.permissions()).isEqualTo(0710);
+    assertThat(destinationAttributes.uid).isEqualTo(sourceAttributes.uid);
+    assertThat(destinationAttributes.gid).isEqualTo(sourceAttributes.gid);
+  }
+
+}
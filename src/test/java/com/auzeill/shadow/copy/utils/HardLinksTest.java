@@ -0,0 +1,53 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HardLinksTest {
+
+  @Test
+  void create_link(@TempDir Path directory) throws IOException {
+    Path existing = Files.writeString(directory.resolve("existing"), "abc");
+    Path link = directory.resolve("link");
+    assertThat(HardLinks.createLink(link, existing, FileAttributes.read(existing).linkCount)).isTrue();
+    assertThat(Files.isSameFile(link, existing)).isTrue();
+    assertThat(FileAttributes.read(existing).linkCount).isEqualTo(2);
+  }
+
+  @Test
+  void link_limit_reached(@TempDir Path directory) throws IOException {
+    Path existing = Files.writeString(directory.resolve("existing"), "abc");
+    Path link = directory.resolve("link");
+    assertThat(HardLinks.createLink(link, existing, HardLinks.LINK_LIMIT)).isFalse();
+    assertThat(link).doesNotExist();
+  }
+
+  @Test
+  void other_failures_thrown(@TempDir Path directory) throws IOException {
+    Path existing = Files.writeString(directory.resolve("existing"), "abc");
+    Path link = Files.writeString(directory.resolve("link"), "def");
+    assertThatThrownBy(() -> HardLinks.createLink(link, existing, 1))
+      .isInstanceOf(FileAlreadyExistsException.class);
+    assertThatThrownBy(() -> HardLinks.createLink(directory.resolve("other"), directory.resolve("missing"), 0))
+      .isInstanceOf(NoSuchFileException.class);
+  }
+
+  @Test
+  void failure_far_from_link_limit_thrown(@TempDir Path directory) throws IOException {
+    Path existing = Files.writeString(directory.resolve("existing"), "abc");
+    Files.createLink(directory.resolve("second"), existing);
+    Path notDirectory = Files.writeString(directory.resolve("file"), "def");
+    assertThatThrownBy(() -> HardLinks.createLink(notDirectory.resolve("link"), existing, 0))
+      .isInstanceOf(FileSystemException.class);
+  }
+
+}
@@ -0,0 +1,57 @@
+package com.auzeill.shadow.copy.utils;
+
+import com.auzeill.shadow.copy.ShadowCopyError;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JobPoolTest {
+
+  @Test
+  void await_all_jobs() throws IOException, InterruptedException {
+    AtomicInteger counter = new AtomicInteger();
+    try (JobPool jobPool = new JobPool(2)) {
+      JobPool.Group group1 = jobPool.newGroup();
+      JobPool.Group group2 = jobPool.newGroup();
+      for (int i = 0; i < 50; i++) {
+        group1.submit(counter::incrementAndGet);
+        group2.submit(counter::incrementAndGet);
+      }
+      group1.await();
+      group2.await();
+    }
+    assertThat(counter.get()).isEqualTo(100);
+  }
+
+  @Test
+  void virtual_thread_executor() throws Exception {
+    ExecutorService executor = JobPool.newVirtualThreadExecutor(2);
+    try {
+      assertThat(executor.submit(() -> 42).get()).isEqualTo(42);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void rethrow_first_failure() throws IOException, InterruptedException {
+    try (JobPool jobPool = new JobPool(1)) {
+      JobPool.Group failingGroup = jobPool.newGroup();
+      JobPool.Group otherGroup = jobPool.newGroup();
+      failingGroup.submit(() -> {
+        throw new ShadowCopyError("job failure");
+      });
+      otherGroup.submit(() -> {
+      });
+      assertThatThrownBy(failingGroup::await)
+        .isInstanceOf(ShadowCopyError.class)
+        .hasMessage("job failure");
+      otherGroup.await();
+    }
+  }
+
+}
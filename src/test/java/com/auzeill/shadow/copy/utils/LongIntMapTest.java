@@ -0,0 +1,37 @@
+package com.auzeill.shadow.copy.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongIntMapTest {
+
+  @Test
+  void put_and_get() {
+    LongIntMap map = new LongIntMap();
+    assertThat(map.get(0, -1)).isEqualTo(-1);
+    map.put(0, 10);
+    map.put(Long.MAX_VALUE, 20);
+    map.put(Long.MIN_VALUE, 30);
+    map.put(0, 11);
+    assertThat(map.size()).isEqualTo(3);
+    assertThat(map.get(0, -1)).isEqualTo(11);
+    assertThat(map.get(Long.MAX_VALUE, -1)).isEqualTo(20);
+    assertThat(map.get(Long.MIN_VALUE, -1)).isEqualTo(30);
+    assertThat(map.get(42, -1)).isEqualTo(-1);
+  }
+
+  @Test
+  void grow() {
+    LongIntMap map = new LongIntMap();
+    for (int i = 0; i < 100_000; i++) {
+      map.put(i * 4096L, i);
+    }
+    assertThat(map.size()).isEqualTo(100_000);
+    for (int i = 0; i < 100_000; i++) {
+      assertThat(map.get(i * 4096L, -1)).isEqualTo(i);
+    }
+    assertThat(map.get(1, -1)).isEqualTo(-1);
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SortedNamesTest {
+
+  @Test
+  void sorted_in_memory(@TempDir Path directory) throws IOException {
+    createFiles(directory, 20);
+    try (SortedNames names = SortedNames.list(directory, 100)) {
+      assertThat(read(names)).isEqualTo(expectedNames(20));
+    }
+  }
+
+  @Test
+  void sorted_by_runs(@TempDir Path directory) throws IOException {
+    // more runs than merged at once
+    int count = 3 * (SortedNames.MAX_MERGED_RUNS + 10) + 1;
+    createFiles(directory, count);
+    try (SortedNames names = SortedNames.list(directory, 3)) {
+      assertThat(read(names)).isEqualTo(expectedNames(count));
+    }
+  }
+
+  @Test
+  void union() throws IOException {
+    List<Path> first = paths("b", "d", "a");
+    List<Path> second = paths("c", "b", "e");
+    try (SortedNames names = SortedNames.union(SortedNames.of(first), SortedNames.of(second))) {
+      assertThat(read(names)).containsExactly("a", "b", "c", "d", "e");
+      assertThat(names.next()).isNull();
+    }
+    try (SortedNames names = SortedNames.union(List.of())) {
+      assertThat(names.next()).isNull();
+    }
+  }
+
+  private static void createFiles(Path directory, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      Files.createFile(directory.resolve("file-" + i));
+    }
+  }
+
+  private static List<String> expectedNames(int count) {
+    return IntStream.range(0, count)
+      .mapToObj(i -> "file-" + i)
+      .sorted()
+      .collect(Collectors.toList());
+  }
+
+  private static List<Path> paths(String... names) {
+    List<Path> paths = new ArrayList<>();
+    for (String name : names) {
+      paths.add(Paths.get(name));
+    }
+    return paths;
+  }
+
+  private static List<String> read(SortedNames names) throws IOException {
+    List<String> result = new ArrayList<>();
+    for (Path name = names.next(); name != null; name = names.next()) {
+      result.add(name.toString());
+    }
+    return result;
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.auzeill.shadow.copy.utils;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThrottleTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  void token_bucket() {
+    Throttle.TokenBucket bucket = new Throttle.TokenBucket(1000, 0);
+    // one second of burst
+    assertThat(bucket.reserve(600, 1, 0)).isZero();
+    assertThat(bucket.reserve(400, 1, 0)).isZero();
+    // debt of 500 tokens
+    assertThat(bucket.reserve(500, 1, 0)).isEqualTo(SECOND / 2);
+    assertThat(bucket.reserve(500, 1, SECOND / 2)).isEqualTo(SECOND / 2);
+    // refilled up to one second of burst
+    assertThat(bucket.reserve(1000, 1, 10 * SECOND)).isZero();
+    // half rate
+    assertThat(bucket.reserve(250, 0.5, 10 * SECOND)).isEqualTo(SECOND / 2);
+  }
+
+  @Test
+  void disabled() throws InterruptedException {
+    Throttle throttle = new Throttle(0, 0);
+    assertThat(throttle.isEnabled()).isFalse();
+    throttle.acquireBytes(Long.MAX_VALUE);
+    throttle.acquireFiles(Long.MAX_VALUE);
+    throttle.observeLatency(SECOND);
+    assertThat(throttle.rateFactor()).isEqualTo(1);
+  }
+
+  @Test
+  void backoff_on_latency() {
+    Throttle throttle = new Throttle(1000, 0);
+    long now = System.nanoTime();
+    for (int i = 1; i <= 10; i++) {
+      throttle.adjust(MILLISECOND / 2, now + i * 100 * MILLISECOND);
+    }
+    assertThat(throttle.rateFactor()).isEqualTo(1);
+    now += SECOND;
+    for (int i = 1; i <= 20; i++) {
+      throttle.adjust(20 * MILLISECOND, now + i * 100 * MILLISECOND);
+    }
+    assertThat(throttle.rateFactor()).isEqualTo(1.0 / 64);
+    now += 2 * SECOND;
+    for (int i = 1; i <= 100; i++) {
+      throttle.adjust(MILLISECOND / 2, now + i * 100 * MILLISECOND);
+    }
+    assertThat(throttle.rateFactor()).isEqualTo(1);
+  }
+
+}